@@ -0,0 +1,60 @@
+import norswap.autumn.Autumn;
+import norswap.autumn.Grammar;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.utils.Strings;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH version of {@link ExpressionBenchmark}: compares the expression tower written with
+ * right-recursion ({@link ExpressionBenchmark.BadRightExpression}) with the one using {@link
+ * Grammar#right_expression()} ({@link ExpressionBenchmark.GoodRightExpression}).
+ *
+ * <p>This lives in the default package, like {@link ExpressionBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgs = { "-Xss16m" })
+public class ExpressionsBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of operands in the expression. */
+    @Param({ "10", "100", "1000" })
+    public int operands;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Grammar bad = new ExpressionBenchmark.BadRightExpression();
+    private final Grammar good = new ExpressionBenchmark.GoodRightExpression();
+    private final ParseOptions options = ParseOptions.wellFormednessCheck(false).get();
+    private String input;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup()
+    {
+        input = Strings.repeat("(42)+", operands - 1) + "(42)";
+        for (Grammar grammar: new Grammar[] { bad, good })
+            if (!Autumn.parse(grammar, input, ParseOptions.get()).fullMatch)
+                throw new IllegalStateException("benchmark input failed to parse: " + input);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public ParseResult bad() {
+        return Autumn.parse(bad, input, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public ParseResult good() {
+        return Autumn.parse(good, input, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,86 @@
+package norswap.autumn.bench;
+
+import norswap.autumn.Autumn;
+import norswap.autumn.Grammar;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.autumn.parsers.CharPredicate;
+import org.openjdk.jmh.annotations.*;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static norswap.autumn.bench.JavaBenchmark.check;
+
+/**
+ * Measures the throughput of repeated {@link CharPredicate} parsers built with the different
+ * {@link Grammar} builders, on a string of alphanumeric characters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CharPredicateBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String ALPHABET =
+        "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Chars extends Grammar
+    {
+        final rule builtin = alphanum.at_least(0);
+        final rule ranges  = choice(range('a', 'z'), range('A', 'Z'), range('0', '9')).at_least(0);
+        final rule charSet = set(ALPHABET).at_least(0);
+        final rule lambda  = cpred(Character::isLetterOrDigit).at_least(0);
+
+        @Override public rule root() {
+            return builtin;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Chars grammar = new Chars();
+    private final ParseOptions options = ParseOptions.wellFormednessCheck(false).get();
+    private String input;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup()
+    {
+        StringBuilder b = new StringBuilder();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; ++i)
+            b.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        input = b.toString();
+
+        grammar.makeRuleNames();
+        for (Grammar.rule rule: new Grammar.rule[] {
+                grammar.builtin, grammar.ranges, grammar.charSet, grammar.lambda })
+            check(Autumn.parse(rule, input, ParseOptions.get()));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public ParseResult builtin() {
+        return Autumn.parse(grammar.builtin, input, options);
+    }
+
+    @Benchmark public ParseResult ranges() {
+        return Autumn.parse(grammar.ranges, input, options);
+    }
+
+    @Benchmark public ParseResult charSet() {
+        return Autumn.parse(grammar.charSet, input, options);
+    }
+
+    @Benchmark public ParseResult lambda() {
+        return Autumn.parse(grammar.lambda, input, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,66 @@
+package norswap.autumn.bench;
+
+import lang.SyntheticInputs;
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.lang.json.JSON;
+import org.openjdk.jmh.annotations.*;
+import java.util.concurrent.TimeUnit;
+
+import static norswap.autumn.bench.JavaBenchmark.check;
+
+/**
+ * Measures the {@link JSON} grammar on small (~1KB), medium (~100KB) and large (~10MB) documents,
+ * or on a document of the size (in characters) given as the {@code size} parameter. The documents
+ * are generated by {@link SyntheticInputs} from a fixed seed, and so are identical across runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class JSONBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    @Param({ "small", "medium", "large" })
+    public String size;
+
+    /** Max nesting depth of arrays and objects. */
+    @Param({ "4" })
+    public int depth;
+
+    /** Max number of elements in arrays and objects. */
+    @Param({ "5" })
+    public int width;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final JSON grammar = new JSON();
+    private final ParseOptions options = ParseOptions.wellFormednessCheck(false).get();
+    private String input;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup()
+    {
+        int bytes
+            = size.equals("small")  ? 1_000
+            : size.equals("medium") ? 100_000
+            : size.equals("large")  ? 10_000_000
+            : Integer.parseInt(size);
+
+        input = SyntheticInputs.json(42, bytes, depth, width);
+        check(Autumn.parse(grammar, input, ParseOptions.get()));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public ParseResult parse() {
+        return Autumn.parse(grammar, input, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,127 @@
+package norswap.autumn.bench;
+
+import lang.SyntheticInputs;
+import norswap.autumn.Autumn;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.lang.java.JavaGrammar;
+import norswap.lang.java.JavaGrammarTokens;
+import norswap.lang.java.Lexer;
+import norswap.lang.java.Token;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares parsing Java source files with {@link JavaGrammar} (scannerless) and with {@link
+ * JavaGrammarTokens} on the output of the {@link Lexer}, and measures the lexer on its own.
+ *
+ * <p>Each invocation parses the whole corpus. By default, this is a synthetic corpus of about 1MB
+ * generated by {@link SyntheticInputs} (the {@code synthetic} value of the {@code corpus}
+ * parameter, optionally followed by {@code :} and the corpus size in characters). Otherwise, the
+ * corpus comprises all the {@code .java} files under the directories listed in the {@code corpus}
+ * parameter (separated by {@code ;}, relative to the working directory), e.g. {@code src;examples}
+ * for the source code of Autumn and of its examples.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgs = { "-Xss16m" })
+public class JavaBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    @Param({ "synthetic" })
+    public String corpus;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final JavaGrammar grammar = new JavaGrammar();
+    private final JavaGrammarTokens tokenGrammar = new JavaGrammarTokens();
+    private final ParseOptions options = ParseOptions.wellFormednessCheck(false).get();
+    private List<String> inputs;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup() throws IOException
+    {
+        inputs = new ArrayList<>();
+        if (corpus.startsWith("synthetic")) {
+            int size = corpus.contains(":")
+                ? Integer.parseInt(corpus.substring(corpus.indexOf(':') + 1))
+                : 1_000_000;
+            // files of about 8KB each
+            for (int i = 0, total = 0; total < size; ++i) {
+                inputs.add(SyntheticInputs.java(i, 20, 3));
+                total += inputs.get(i).length();
+            }
+        }
+        else for (String dir: corpus.split(";"))
+            try (Stream<Path> paths = Files.walk(Paths.get(dir))) {
+                for (Path path: paths.filter(p -> p.toString().endsWith(".java"))
+                        .sorted().collect(Collectors.toList()))
+                    inputs.add(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+            }
+
+        if (inputs.isEmpty())
+            throw new IllegalStateException("no Java files in corpus: " + corpus);
+
+        // Checks well-formedness and assigns rule names once, and validates the corpus.
+        for (String input: inputs) {
+            check(Autumn.parse(grammar, input, ParseOptions.get()));
+            check(Autumn.parse(tokenGrammar, lex(input), ParseOptions.get()));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    static void check (ParseResult result)
+    {
+        if (!result.fullMatch)
+            throw new IllegalStateException("benchmark input failed to parse: " + result);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<Token> lex (String input) {
+        return Arrays.asList(new Lexer(input).lex());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public void scannerless (Blackhole blackhole)
+    {
+        for (String input: inputs)
+            blackhole.consume(Autumn.parse(grammar, input, options));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public void tokens (Blackhole blackhole)
+    {
+        for (String input: inputs)
+            blackhole.consume(Autumn.parse(tokenGrammar, lex(input), options));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public void lexer (Blackhole blackhole)
+    {
+        for (String input: inputs)
+            blackhole.consume(new Lexer(input).lex());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
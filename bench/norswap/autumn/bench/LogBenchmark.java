@@ -0,0 +1,71 @@
+package norswap.autumn.bench;
+
+import norswap.autumn.Autumn;
+import norswap.autumn.Log;
+import norswap.autumn.Parse;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.autumn.Parser;
+import org.openjdk.jmh.annotations.*;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures applying side effects to the {@link Log} (by pushing on the value stack) and rolling
+ * them back, as happens whenever a parser that ran actions is backtracked over.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class LogBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Number of side effects applied before each rollback. */
+    @Param({ "1", "10", "100" })
+    public int effects;
+
+    /** Number of apply-then-rollback rounds per invocation. */
+    @Param({ "1000" })
+    public int rounds;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final class PushAndRollback extends Parser
+    {
+        @Override protected boolean doparse (Parse parse)
+        {
+            int log0 = parse.log.size();
+            for (int i = 0; i < rounds; ++i) {
+                for (int j = 0; j < effects; ++j)
+                    parse.stack.push(j);
+                parse.log.rollback(log0);
+            }
+            return true;
+        }
+
+        @Override public Iterable<Parser> children() {
+            return Collections.emptyList();
+        }
+
+        @Override public String toStringFull() {
+            return "push_and_rollback";
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Parser parser = new PushAndRollback();
+    private final ParseOptions options = ParseOptions.wellFormednessCheck(false).get();
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public ParseResult rollback() {
+        return Autumn.parse(parser, "", options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
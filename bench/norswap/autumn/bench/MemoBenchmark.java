@@ -0,0 +1,91 @@
+package norswap.autumn.bench;
+
+import norswap.autumn.Parser;
+import norswap.autumn.memo.MemoCache;
+import norswap.autumn.memo.MemoEntry;
+import norswap.autumn.memo.MemoTable;
+import norswap.autumn.memo.Memoizer;
+import norswap.autumn.parsers.CharPredicate;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of memoizing and retrieving entries in {@link MemoTable} and {@link MemoCache},
+ * outside of any parse. Each invocation memoizes entries for {@code positions} consecutive input
+ * positions (for a few parsers), then queries each of them once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MemoBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    @Param({ "table", "cache1", "cache4", "cache16" })
+    public String memoizer;
+
+    @Param({ "1000" })
+    public int positions;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Parser[] parsers =
+        { CharPredicate.alpha(), CharPredicate.digit(), CharPredicate.any() };
+
+    private MemoEntry[] entries;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup()
+    {
+        entries = new MemoEntry[positions * parsers.length];
+        for (int pos = 0; pos < positions; ++pos)
+            for (int i = 0; i < parsers.length; ++i)
+                entries[pos * parsers.length + i] = new MemoEntry(
+                    i != 0, parsers[i], pos, pos + 1, Collections.emptyList(), null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Memoizer newMemoizer()
+    {
+        switch (memoizer) {
+            case "table":   return new MemoTable(true);
+            case "cache1":  return new MemoCache(1, true);
+            case "cache4":  return new MemoCache(4, true);
+            case "cache16": return new MemoCache(16, true);
+            default: throw new IllegalArgumentException("unknown memoizer: " + memoizer);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public void memoizeAndGet (Blackhole blackhole)
+    {
+        Memoizer memo = newMemoizer();
+        for (MemoEntry entry: entries)
+            memo.memoize(entry);
+        for (MemoEntry entry: entries)
+            blackhole.consume(memo.get(entry.parser, entry.startPosition, null));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public void interleaved (Blackhole blackhole)
+    {
+        // closer to the access pattern during a parse: query first, memoize on miss
+        Memoizer memo = newMemoizer();
+        for (MemoEntry entry: entries) {
+            blackhole.consume(memo.get(entry.parser, entry.startPosition, null));
+            memo.memoize(entry);
+            blackhole.consume(memo.get(entry.parser, entry.startPosition, null));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,87 @@
+package norswap.autumn.bench;
+
+import norswap.autumn.Autumn;
+import norswap.autumn.Grammar;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.autumn.parsers.StringChoice;
+import org.openjdk.jmh.annotations.*;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static norswap.autumn.bench.JavaBenchmark.check;
+
+/**
+ * Compares {@link StringChoice} (a trie) with the equivalent {@code longest} choice between string
+ * parsers, on a sequence of Java keywords.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class StringChoiceBenchmark
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String[] KEYWORDS = {
+        "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+        "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally",
+        "float", "for", "goto", "if", "implements", "import", "instanceof", "int", "interface",
+        "long", "native", "new", "package", "private", "protected", "public", "return", "short",
+        "static", "strictfp", "super", "switch", "synchronized", "this", "throw", "throws",
+        "transient", "try", "void", "volatile", "while"
+    };
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Keywords extends Grammar
+    {
+        final rule trie = rule(new StringChoice(KEYWORDS));
+        final rule naive = longest(Arrays.stream(KEYWORDS).map(this::str).toArray());
+
+        final rule trieList  = seq(trie,  usual_whitespace).at_least(0);
+        final rule naiveList = seq(naive, usual_whitespace).at_least(0);
+
+        @Override public rule root() {
+            return trieList;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Keywords grammar = new Keywords();
+    private final ParseOptions options = ParseOptions.wellFormednessCheck(false).get();
+    private String input;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Setup public void setup()
+    {
+        StringBuilder b = new StringBuilder();
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; ++i)
+            b.append(KEYWORDS[random.nextInt(KEYWORDS.length)]).append(' ');
+        input = b.toString();
+
+        grammar.makeRuleNames();
+        check(Autumn.parse(grammar.trieList, input, ParseOptions.get()));
+        check(Autumn.parse(grammar.naiveList, input, ParseOptions.get()));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public ParseResult trie() {
+        return Autumn.parse(grammar.trieList, input, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Benchmark public ParseResult naive() {
+        return Autumn.parse(grammar.naiveList, input, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
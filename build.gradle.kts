@@ -43,8 +43,79 @@ tasks.withType<JavaCompile> {
     options.encoding = "UTF-8"
 }
 
+// === MULTI-RELEASE JAR ===========================================================================
+
+// Classes in `src-java11` replace their counterpart from `src` when running on Java 11+ (they use
+// the Java Flight Recorder API, see `FlightRecorderEvents`). Building requires JDK 11+.
+
+val java11: SourceSet by sourceSets.creating {
+    java.srcDir("src-java11")
+    compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+}
+
+tasks.named<JavaCompile>(java11.compileJavaTaskName) {
+    options.release.set(11)
+}
+
+tasks.jar.get().apply {
+    into("META-INF/versions/11") { from(java11.output) }
+    manifest.attributes("Multi-Release" to "true")
+}
+
+// Test against the Java 11+ classes, as a multi-release jar would on the JVM running the tests.
+tasks.test.get().classpath = java11.output + tasks.test.get().classpath
+
 tasks.test.get().useTestNG()
 
+// Tests that need the Java 11+ APIs (e.g. recording JFR events) live in `test-java11`, and run as
+// part of `gradle check` (or alone with `gradle testJava11`).
+
+val testJava11: SourceSet by sourceSets.creating {
+    java.srcDir("test-java11")
+    val test = sourceSets.test.get()
+    compileClasspath += java11.output + test.output + test.compileClasspath
+    runtimeClasspath = java11.output + output + test.runtimeClasspath
+}
+
+tasks.named<JavaCompile>(testJava11.compileJavaTaskName) {
+    options.release.set(11)
+}
+
+val testJava11Task = tasks.register<Test>("testJava11") {
+    description = "Runs the tests that require Java 11+."
+    group = "verification"
+    testClassesDirs = testJava11.output.classesDirs
+    classpath = testJava11.runtimeClasspath
+    useTestNG()
+}
+
+tasks.check.get().dependsOn(testJava11Task)
+
+// `gradle test -PrecordAllocations` records the allocation baseline (see `TestAllocations`).
+if (project.hasProperty("recordAllocations"))
+    tasks.test.get().systemProperty("autumn.recordAllocations", "true")
+
+// === BENCHMARKS ==================================================================================
+
+// JMH benchmarks live in `bench` and may use the test classes (notably the example grammars).
+// Run with `gradle jmh`, passing JMH arguments as a property, e.g.:
+// gradle jmh -Pjmh="JSONBenchmark -p size=small -f 1"
+
+val jmh: SourceSet by sourceSets.creating {
+    java.srcDir("bench")
+    val test = sourceSets.test.get()
+    compileClasspath += test.output + test.compileClasspath
+    runtimeClasspath += test.output + test.runtimeClasspath
+}
+
+tasks.register<JavaExec>("jmh") {
+    description = "Runs the JMH benchmarks."
+    group = "verification"
+    classpath = jmh.runtimeClasspath
+    main = "org.openjdk.jmh.Main"
+    args = (project.findProperty("jmh") as String? ?: "").split(" ").filter { it.isNotEmpty() }
+}
+
 tasks.javadoc.get().options {
     // https://github.com/gradle/gradle/issues/7038
     this as StandardJavadocDocletOptions
@@ -198,6 +269,8 @@ dependencies {
     testImplementation("org.testng:testng:6.14.3")
     testCompileOnly("com.google.auto.value:auto-value-annotations:1.6.2")
     testAnnotationProcessor("com.google.auto.value:auto-value:1.6.2")
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.26")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.26")
 }
 
 // =================================================================================================
\ No newline at end of file
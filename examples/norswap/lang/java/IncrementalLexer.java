@@ -0,0 +1,174 @@
+package norswap.lang.java;
+
+import norswap.autumn.IncrementalParser;
+import norswap.autumn.positions.Edit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Updates the tokens produced by {@link Lexer} after an edit to the input string, relexing only
+ * the part of the input affected by the edit.
+ *
+ * <p>Relexing starts at the end of the last token that could not have been affected by the edit
+ * (taking into account the characters examined by the lexer past the end of a token, see {@link
+ * #LOOKAHEAD}) and stops as soon as the lexer emits a token identical to a token from the previous
+ * lexing — shifted by the edit and located after the edited range — as from there on, lexing
+ * proceeds exactly like it did previously. The tokens after that point are reused, with their
+ * positions shifted.
+ *
+ * <p>Besides the new tokens, the result includes the edit to the token list ({@link
+ * Result#token_edit}), which can be passed to {@link IncrementalParser#edit(Edit, List)} in order
+ * to incrementally reparse the tokens with {@link JavaGrammarTokens}.
+ *
+ * <p>As for {@link Lexer}, positions are code point offsets.
+ */
+public final class IncrementalLexer
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private IncrementalLexer() {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The maximum number of characters past the end of the token being lexed that the lexer may
+     * examine (for instance, after a {@code >} character, it needs to look at three more characters
+     * to distinguish {@code >>>=}, but only emits a single {@code >} token for {@code >>>}).
+     */
+    public static final int LOOKAHEAD = 3;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The result of {@link #relex}.
+     */
+    public static final class Result
+    {
+        /** The tokens for the input string after the edit. */
+        public final Token[] tokens;
+
+        /**
+         * Describes how the token list changed: {@code token_edit.removed} tokens of the previous
+         * token list, starting at index {@code token_edit.offset}, were replaced by {@code
+         * token_edit.inserted} new tokens.
+         */
+        public final Edit token_edit;
+
+        /** Warnings emitted while relexing (does not include warnings for reused tokens). */
+        public final List<Lexer.Warning> warnings;
+
+        Result (Token[] tokens, Edit token_edit, List<Lexer.Warning> warnings)
+        {
+            this.tokens = tokens;
+            this.token_edit = token_edit;
+            this.warnings = warnings;
+        }
+
+        /**
+         * Returns the tokens inserted by the edit (cf. {@link #token_edit}).
+         */
+        public List<Token> inserted() {
+            return Arrays.asList(tokens)
+                .subList(token_edit.offset, token_edit.offset + token_edit.inserted);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the tokens for {@code string}, which is the result of applying {@code edit} to the
+     * string whose tokens were {@code tokens} (as returned by {@link Lexer#lex()}).
+     */
+    public static Result relex (Token[] tokens, String string, Edit edit)
+    {
+        int k = first_affected(tokens, edit.offset);
+        int restart = k == 0 ? 0 : tokens[k - 1].end;
+        int shift = edit.shift();
+
+        Lexer lexer = new Lexer(string);
+        lexer.seek(restart);
+
+        ArrayList<Token> relexed = new ArrayList<>();
+        int j = k; // index of the next candidate for resynchronization in the old tokens
+        Token token;
+
+        while ((token = lexer.next()) != null)
+        {
+            relexed.add(token);
+
+            while (j < tokens.length && tokens[j].start + shift < token.start)
+                ++j;
+
+            if (j < tokens.length && tokens[j].start >= edit.end() && same(tokens[j], token, shift))
+            {
+                // Resynchronized: the rest of the old tokens can be reused.
+                ++j;
+                break;
+            }
+        }
+
+        if (token == null) // relexed till the end of the input
+            j = tokens.length;
+
+        Token[] out = new Token[k + relexed.size() + tokens.length - j];
+        System.arraycopy(tokens, 0, out, 0, k);
+        for (int i = 0; i < relexed.size(); ++i)
+            out[k + i] = relexed.get(i);
+        for (int i = j; i < tokens.length; ++i)
+            out[k + relexed.size() + i - j] = shift == 0 ? tokens[i] : shifted(tokens[i], shift);
+
+        return new Result(out, new Edit(k, j - k, relexed.size()), lexer.warnings);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the first token whose lexing might have examined the character at
+     * {@code offset} (or any subsequent character).
+     */
+    private static int first_affected (Token[] tokens, int offset)
+    {
+        int lo = 0, hi = tokens.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tokens[mid].end + LOOKAHEAD > offset)
+                hi = mid;
+            else
+                lo = mid + 1;
+        }
+        return lo;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether {@code old}, shifted by {@code shift}, is identical to {@code token}.
+     */
+    private static boolean same (Token old, Token token, int shift)
+    {
+        return old.start + shift == token.start
+            && old.end + shift == token.end
+            && old.kind == token.kind
+            && old.string.equals(token.string)
+            && old.radix == token.radix
+            && old.trailing_whitespace == token.trailing_whitespace;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Token shifted (Token token, int shift)
+    {
+        List<Token.Comment> comments = token.comments;
+        if (!comments.isEmpty()) {
+            comments = new ArrayList<>(comments.size());
+            for (Token.Comment c: token.comments)
+                comments.add(new Token.Comment(c.kind, c.start + shift, c.end + shift, c.string));
+        }
+
+        return new Token(token.kind, token.start + shift, token.end + shift, token.string,
+            comments, token.radix, token.trailing_whitespace);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
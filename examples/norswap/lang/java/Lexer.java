@@ -14,7 +14,8 @@ import java.util.List;
  *
  * <p>https://github.com/dmlloyd/openjdk/blob/jdk8u/jdk8u/langtools/src/share/classes/com/sun/tools/javac/parser/JavaTokenizer.java
  *
- * Retrieve tokens one by one through {@link #next()} or all at once through {@link #lex()}.
+ * Retrieve tokens one by one through {@link #next()} or all at once through {@link #lex()}. To
+ * update the tokens after an edit to the input, use {@link IncrementalLexer}.
  *
  * Errors are handled in two ways. For lexical errors where the intent is clear, such as
  * underscore in illegal locations, the error is reported as warning in {@link #warnings}.
@@ -112,6 +113,20 @@ public final class Lexer
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Positions the lexer at the given input position, so that the next call to {@link #next()}
+     * returns the first token starting at or after that position. The position must be the start of
+     * the input or the end of a token (see {@link IncrementalLexer}).
+     */
+    void seek (int position)
+    {
+        i = position;
+        bp = 0;
+        comments = null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Appends {@code c} to {@link #buf}.
      */
@@ -927,6 +942,7 @@ public final class Lexer
      */
     private Token error (String msg)
     {
+        bp = 0; // discard partial literals
         return token(
             TokenKind.ERROR, start, i, msg + " (" + new String(string, start, i-start) + ")", 0, false);
     }
@@ -0,0 +1,52 @@
+package norswap.autumn.monitoring;
+
+import norswap.autumn.Parse;
+import norswap.autumn.ParseResult;
+import norswap.autumn.Parser;
+
+/**
+ * Java 11+ version of {@code src/norswap/autumn/monitoring/FlightRecorderEvents.java} (see that
+ * file for documentation), which emits the events using the JFR API.
+ *
+ * <p>The events are defined in {@link ParseEvent} and {@link SlowRuleEvent}, which are only loaded
+ * if the {@code jdk.jfr} module is present.
+ */
+public final class FlightRecorderEvents
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final boolean SUPPORTED = ModuleLayer.boot().findModule("jdk.jfr").isPresent();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private FlightRecorderEvents() {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static boolean supported() {
+        return SUPPORTED;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static Object beginParse() {
+        return SUPPORTED ? ParseEvent.start() : null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void endParse (Object event, Parse parse, ParseResult result) {
+        ((ParseEvent) event).end(parse, result);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    public static void slowRule (
+        Parser parser, int start, int end, boolean success, long duration)
+    {
+        if (SUPPORTED)
+            SlowRuleEvent.emit(parser, start, end, success, duration);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
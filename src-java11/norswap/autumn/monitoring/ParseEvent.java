@@ -0,0 +1,80 @@
+package norswap.autumn.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import norswap.autumn.Parse;
+import norswap.autumn.ParseResult;
+
+/**
+ * JFR event spanning a parse. See {@link FlightRecorderEvents}.
+ */
+@Name("norswap.autumn.Parse")
+@Label("Parse")
+@Category("Autumn")
+@Description("A parse run by the Autumn parser combinator library.")
+final class ParseEvent extends Event
+{
+    // ---------------------------------------------------------------------------------------------
+
+    @Label("Parser")
+    @Description("The root parser (rule name if available).")
+    String parser;
+
+    @Label("Input Size")
+    @Description("Size of the input, in characters (code points) or list items.")
+    int inputSize;
+
+    @Label("Success")
+    @Description("Whether the root parser succeeded.")
+    boolean success;
+
+    @Label("Full Match")
+    @Description("Whether the root parser matched the whole input.")
+    boolean fullMatch;
+
+    @Label("Match Size")
+    @Description("Size of the matched input prefix, or -1 if the parse failed.")
+    int matchSize;
+
+    @Label("Memo Hits")
+    @Description("Number of memo lookups that found a memoized result.")
+    int memoHits;
+
+    @Label("Memo Misses")
+    @Description("Number of memo lookups that did not find a memoized result.")
+    int memoMisses;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new started event, or null if the event is disabled.
+     */
+    static ParseEvent start()
+    {
+        ParseEvent event = new ParseEvent();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    void end (Parse parse, ParseResult result)
+    {
+        end();
+        if (!shouldCommit()) return;
+        parser      = result.parser.toString();
+        inputSize   = parse.inputLength();
+        success     = result.success;
+        fullMatch   = result.fullMatch;
+        matchSize   = result.matchSize;
+        memoHits    = parse.memoHits();
+        memoMisses  = parse.memoMisses();
+        commit();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,56 @@
+package norswap.autumn.monitoring;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import norswap.autumn.Parser;
+
+/**
+ * JFR event for a rule invocation that exceeded the slow rule threshold. See {@link
+ * FlightRecorderEvents}.
+ */
+@Name("norswap.autumn.SlowRule")
+@Label("Slow Rule")
+@Category("Autumn")
+@Description("A rule invocation that exceeded the configured slow rule threshold.")
+final class SlowRuleEvent extends Event
+{
+    // ---------------------------------------------------------------------------------------------
+
+    @Label("Rule")
+    String rule;
+
+    @Label("Start Position")
+    @Description("Input position at which the rule was invoked.")
+    int startPosition;
+
+    @Label("End Position")
+    @Description("Input position after the rule invocation.")
+    int endPosition;
+
+    @Label("Success")
+    boolean success;
+
+    @Label("Rule Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long ruleDuration;
+
+    // ---------------------------------------------------------------------------------------------
+
+    static void emit (Parser parser, int start, int end, boolean success, long duration)
+    {
+        SlowRuleEvent event = new SlowRuleEvent();
+        if (!event.shouldCommit()) return;
+        event.rule          = parser.rule();
+        event.startPosition = start;
+        event.endPosition   = end;
+        event.success       = success;
+        event.ruleDuration  = duration;
+        event.commit();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
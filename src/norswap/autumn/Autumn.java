@@ -23,7 +23,7 @@ public final class Autumn
 
     // ---------------------------------------------------------------------------------------------
 
-    private static class PotentiallyMalformedGrammarError extends Error
+    static final class PotentiallyMalformedGrammarError extends Error
     {
         PotentiallyMalformedGrammarError (StackOverflowError e) {
             // no stack trace for this error
@@ -0,0 +1,152 @@
+package norswap.autumn;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A tree of rule invocation paths, with the self time and invocation count of each path, collected
+ * in tracing mode when {@link ParseOptions#traceCallPaths} is set. Available as {@link
+ * ParseMetrics#callProfile}.
+ *
+ * <p>Only parsers that are grammar rules (i.e. have a non-null {@link Parser#rule()}) appear in
+ * paths. The self time of a node includes the self time of all the parsers that are not rules
+ * invoked (transitively) by the node's rule, but not the time spent in the rules it invokes.
+ *
+ * <p>The profile can be exported to the collapsed stack format used by flame graph tools (e.g.
+ * <a href="https://github.com/brendangregg/FlameGraph">FlameGraph</a> or <a
+ * href="https://www.speedscope.app/">speedscope</a>), using {@link #toCollapsedStacks(Weight)}
+ * or {@link #writeCollapsedStacks(Path, Weight)}.
+ */
+public final class CallProfile
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The name used for the root node in collapsed stacks, if it has self time — which can only
+     * happen if the root parser is not a rule.
+     */
+    public static final String ROOT_NAME = "[no rule]";
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A node in the call path tree.
+     */
+    public static final class Node
+    {
+        /** The rule parser for this node, or null for the root node. */
+        public final Parser parser;
+
+        /** Cumulative self time (in nanoseconds) of the invocations along this path. */
+        public long selfTime = 0;
+
+        /** Number of invocations of {@link #parser} along this path. */
+        public long invocations = 0;
+
+        private final Map<Parser, Node> children = new LinkedHashMap<>();
+
+        Node (Parser parser) {
+            this.parser = parser;
+        }
+
+        /** Returns the child node for the given rule parser, creating it if necessary. */
+        Node child (Parser parser) {
+            return children.computeIfAbsent(parser, Node::new);
+        }
+
+        /** Returns the children of this node, in order of first invocation. */
+        public Collection<Node> children() {
+            return Collections.unmodifiableCollection(children.values());
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The quantity associated with each stack in the collapsed stacks format.
+     */
+    public enum Weight
+    {
+        /** Self time, in nanoseconds. */
+        SELF_TIME,
+        /** Invocation count of the last rule of the stack. */
+        INVOCATIONS
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The root of the tree, which does not correspond to any rule.
+     */
+    public final Node root = new Node(null);
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the lines of the collapsed stack representation of this profile: one line per node
+     * with a non-zero weight, made of the rule names on the path to the node separated by
+     * semicolons, followed by a space and the weight.
+     */
+    public List<String> collapsedStacks (Weight weight)
+    {
+        List<String> lines = new ArrayList<>();
+        long rootWeight = weight == Weight.SELF_TIME ? root.selfTime : root.invocations;
+        if (rootWeight > 0)
+            lines.add(ROOT_NAME + " " + rootWeight);
+        for (Node child: root.children.values())
+            collapse(child, new StringBuilder(), weight, lines);
+        return lines;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void collapse (Node node, StringBuilder path, Weight weight, List<String> lines)
+    {
+        int length = path.length();
+        if (length > 0) path.append(';');
+        path.append(node.parser.rule());
+
+        long value = weight == Weight.SELF_TIME ? node.selfTime : node.invocations;
+        if (value > 0)
+            lines.add(path + " " + value);
+
+        for (Node child: node.children.values())
+            collapse(child, path, weight, lines);
+
+        path.setLength(length);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the collapsed stack representation of this profile (see {@link
+     * #collapsedStacks(Weight)}), with a newline after each line.
+     */
+    public String toCollapsedStacks (Weight weight)
+    {
+        StringBuilder b = new StringBuilder();
+        for (String line: collapsedStacks(weight))
+            b.append(line).append('\n');
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the collapsed stack representation of this profile (see {@link
+     * #collapsedStacks(Weight)}) to the given file.
+     */
+    public void writeCollapsedStacks (Path path, Weight weight) throws IOException {
+        Files.write(path, collapsedStacks(weight), StandardCharsets.UTF_8);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
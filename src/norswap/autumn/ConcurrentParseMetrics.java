@@ -0,0 +1,178 @@
+package norswap.autumn;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates the {@link ParseMetrics} of parses running concurrently on multiple threads.
+ *
+ * <p>{@link ParseMetrics} is not thread-safe, so the same instance cannot be shared between
+ * concurrent parses. Instead, pass {@code ParseOptions.metrics(aggregator::metrics)} (where {@code
+ * aggregator} is an instance of this class) to every parse: each parse then records its metrics
+ * into its own {@link ParseMetrics} buffer, which is merged into the aggregator when the parse
+ * completes. Alternatively, completed {@link ParseMetrics} can be merged manually with {@link
+ * #add(ParseMetrics)}.
+ *
+ * <p>Use {@link #snapshot()} to read the aggregated metrics, and {@link #snapshotAndReset()} to
+ * implement time-windowed reporting. Each metric is a {@link LongAdder}, so that merging never
+ * blocks, even when many threads merge the metrics of the same hot rules. The flip side is that a
+ * snapshot is not a consistent cut: a snapshot taken while parses are being merged may include
+ * part of the metrics of a parse (e.g. its invocations of a parser but not their duration), or
+ * count the parse in {@link ParseMetrics#parses} without its per-parser metrics. With {@link
+ * #snapshotAndReset()}, the remainder is reported in the next window, so that summed over
+ * consecutive windows, nothing is lost or counted twice.
+ *
+ * <p>The aggregator only references parsers weakly, so it does not keep the parsers of discarded
+ * grammars reachable. Their entries are dropped by the first snapshot taken after they have been
+ * collected.
+ *
+ * <p>Call path profiles ({@link ParseMetrics#callProfile}) are not aggregated.
+ */
+public final class ConcurrentParseMetrics
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Per-parser totals. The parser is only referenced weakly: while a parse is merged, its {@link
+     * ParserMetrics} keep the parser reachable, so a totals object whose parser has been collected
+     * can't be written to anymore and can be removed safely.
+     */
+    private static final class Totals
+    {
+        final WeakReference<Parser> parser;
+        final LongAdder selfTime       = new LongAdder();
+        final LongAdder totalTime      = new LongAdder();
+        final LongAdder invocations    = new LongAdder();
+        final LongAdder wastedInput    = new LongAdder();
+        final LongAdder undoneLog      = new LongAdder();
+        final LongAdder selfAllocated  = new LongAdder();
+        final LongAdder totalAllocated = new LongAdder();
+
+        Totals (Parser parser) {
+            this.parser = new WeakReference<>(parser);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maps parser ids ({@link Parser#id()}) to their totals. */
+    private final ConcurrentHashMap<Integer, Totals> totals = new ConcurrentHashMap<>();
+    private final LongAdder parses = new LongAdder();
+    private final LongAdder undoneLog = new LongAdder();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a new {@link ParseMetrics} buffer, which will automatically be merged into this
+     * aggregator at the end of the parse it is used for. Meant to be passed as {@link
+     * ParseOptions#metrics}.
+     */
+    public ParseMetrics metrics() {
+        return new ParseMetrics(this);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Merges the given metrics into this aggregator. The given metrics should not be modified
+     * concurrently.
+     */
+    public void add (ParseMetrics metrics)
+    {
+        parses.add(metrics.parses);
+        undoneLog.add(metrics.undoneLog);
+
+        for (ParserMetrics m: metrics.metrics.values()) {
+            int id = m.parser.id();
+            Totals t = totals.get(id);
+            if (t == null)
+                t = totals.computeIfAbsent(id, k -> new Totals(m.parser));
+            t.selfTime       .add(m.selfTime);
+            t.totalTime      .add(m.totalTime);
+            t.invocations    .add(m.invocations);
+            t.wastedInput    .add(m.wastedInput);
+            t.undoneLog      .add(m.undoneLog);
+            t.selfAllocated  .add(m.selfAllocated);
+            t.totalAllocated .add(m.totalAllocated);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of parses whose metrics have been merged into this aggregator (since the last reset).
+     */
+    public long parses() {
+        return parses.sum();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a snapshot of the aggregated metrics.
+     */
+    public ParseMetrics snapshot() {
+        return snapshot(false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a snapshot of the aggregated metrics, and resets the aggregated metrics to zero.
+     */
+    public ParseMetrics snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ParseMetrics snapshot (boolean reset)
+    {
+        ParseMetrics snapshot = new ParseMetrics();
+        snapshot.parses    = reset ? parses.sumThenReset()    : parses.sum();
+        snapshot.undoneLog = reset ? undoneLog.sumThenReset() : undoneLog.sum();
+
+        for (Map.Entry<Integer, Totals> entry: totals.entrySet())
+        {
+            Totals t = entry.getValue();
+            Parser parser = t.parser.get();
+
+            if (parser == null) {
+                totals.remove(entry.getKey(), t);
+                continue;
+            }
+
+            ParserMetrics m = new ParserMetrics(parser);
+            m.selfTime       = sum(t.selfTime, reset);
+            m.totalTime      = sum(t.totalTime, reset);
+            m.invocations    = sum(t.invocations, reset);
+            m.wastedInput    = sum(t.wastedInput, reset);
+            m.undoneLog      = sum(t.undoneLog, reset);
+            m.selfAllocated  = sum(t.selfAllocated, reset);
+            m.totalAllocated = sum(t.totalAllocated, reset);
+
+            // A merge racing with the snapshot may have added other metrics before invocations.
+            if ((m.invocations | m.selfTime | m.totalTime | m.wastedInput | m.undoneLog
+                    | m.selfAllocated | m.totalAllocated) != 0)
+                snapshot.metrics.put(parser, m);
+        }
+
+        return snapshot;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static long sum (LongAdder adder, boolean reset) {
+        return reset ? adder.sumThenReset() : adder.sum();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString() {
+        return snapshot().toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -3,6 +3,7 @@ package norswap.autumn;
 import norswap.autumn.actions.*;
 import norswap.autumn.memo.*;
 import norswap.autumn.parsers.*;
+import norswap.autumn.visitors.BacktrackingAnalyzer;
 import norswap.utils.NArrays;
 import norswap.utils.data.wrappers.Slot;
 import norswap.utils.reflection.Subtyping;
@@ -272,7 +273,7 @@ public abstract class Grammar
      * <p>This is called automatically by {@link Autumn#parse} when called with a grammar or with
      * a rule.
      */
-    void makeRuleNames()
+    public void makeRuleNames()
     {
         if (makeRuleNames && !ruleNamesMade) {
             Class<?> klass = this.getClass();
@@ -328,6 +329,25 @@ public abstract class Grammar
         }
     }
 
+    // endregion
+    // =============================================================================================
+    // region [Analyses]
+    // =============================================================================================
+
+    /**
+     * Assigns rule names ({@link #makeRuleNames()}), then runs a {@link BacktrackingAnalyzer} on
+     * the parser graph reachable from {@link #root()}, and returns the backtracking-prone patterns
+     * it found, each with a suggested fix.
+     *
+     * <p>This is not called automatically, as the analysis is heuristic. It is meant to be called
+     * while developing the grammar, e.g. in a test that asserts that the returned list is empty.
+     */
+    public List<BacktrackingAnalyzer.Warning> backtrackingWarnings()
+    {
+        makeRuleNames();
+        return new BacktrackingAnalyzer().analyze(root().getParser());
+    }
+
     // endregion
     // =============================================================================================
     // region [Pre-Defined Rules]
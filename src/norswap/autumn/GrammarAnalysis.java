@@ -0,0 +1,116 @@
+package norswap.autumn;
+
+import norswap.autumn.visitors.VisitorFirstParsers;
+import norswap.autumn.visitors.VisitorNullable;
+import norswap.autumn.visitors.WellFormednessChecker;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The result of the static analyses of the parser graph reachable from a root parser: whether it is
+ * well-formed (see {@link WellFormednessChecker}), as well as the nullability ({@link
+ * VisitorNullable}) and FIRST set ({@link VisitorFirstParsers}) of every reachable parser.
+ *
+ * <p>Obtain instances through {@link #of(Parser)}, which only performs the analyses the first time
+ * it is called for a given root, and caches the result in the root parser afterwards. This is what
+ * makes {@link ParseOptions#wellFormednessCheck} cheap after the first parse with a given parser.
+ *
+ * <p>The cache assumes that the parser graph does not change after the first analysis. In
+ * particular, if you supply custom overloads to the visitors ({@link ParserVisitor#extend}), do so
+ * before the first parse.
+ *
+ * <p>Instances are immutable and can be shared between threads, except for {@link #checker}, which
+ * should not be modified.
+ */
+public final class GrammarAnalysis
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The root parser that was analyzed.
+     */
+    public final Parser root;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The well-formedness checker that was run on {@link #root}, which records the uncovered
+     * well-formedness violations, if any.
+     */
+    public final WellFormednessChecker checker;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the parser graph reachable from {@link #root} is well-formed.
+     */
+    public final boolean wellFormed;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Set<Parser> nullables;
+    private final Map<Parser, Set<Parser>> firsts = new HashMap<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private GrammarAnalysis (Parser root)
+    {
+        this.root = root;
+        VisitorNullable nullableVisitor = new VisitorNullable();
+        this.checker = new WellFormednessChecker(nullableVisitor);
+        this.wellFormed = checker.wellFormed(root);
+
+        nullableVisitor.nullable(root); // computes nullability for all reachable parsers
+        this.nullables = Collections.unmodifiableSet(new HashSet<>(nullableVisitor.nullables));
+
+        VisitorFirstParsers firstsVisitor = new VisitorFirstParsers(nullableVisitor);
+        new ParserWalker() {
+            @Override protected void work (Parser parser, State state) {
+                if (state == State.BEFORE)
+                    firsts.put(parser,
+                        Collections.unmodifiableSet(new HashSet<>(firstsVisitor.firsts(parser))));
+            }
+        }
+        .walk(root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the analysis of the parser graph reachable from {@code root}, performing it if it
+     * wasn't performed before.
+     */
+    public static GrammarAnalysis of (Parser root)
+    {
+        // Benign race: concurrent first parses may both perform the analysis.
+        GrammarAnalysis analysis = root.analysis;
+        if (analysis == null)
+            root.analysis = analysis = new GrammarAnalysis(root);
+        return analysis;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether {@code parser} is nullable (can succeed while consuming no input). {@code parser}
+     * must be reachable from {@link #root}.
+     */
+    public boolean nullable (Parser parser) {
+        return nullables.contains(parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the FIRST set for {@code parser} (see {@link VisitorFirstParsers#firsts(Parser)}), or
+     * an empty set if {@code parser} is not reachable from {@link #root}.
+     */
+    public Set<Parser> firsts (Parser parser) {
+        return firsts.getOrDefault(parser, Collections.emptySet());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
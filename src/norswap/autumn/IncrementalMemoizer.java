@@ -0,0 +1,176 @@
+package norswap.autumn;
+
+import norswap.autumn.memo.MemoEntry;
+import norswap.autumn.memo.Memoizer;
+import norswap.autumn.positions.Edit;
+import norswap.autumn.positions.LineMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * The memoizer used by an {@link IncrementalParser} in place of the memoizer of a memo parser,
+ * which relocates memo entries lazily after an edit.
+ *
+ * <p>Entries memoized during the current parse are stored in a memoizer of the same kind as the
+ * original one ({@link Memoizer#emptyCopy()}). When the input is edited, this memoizer is frozen
+ * as the newest of a list of older generations, without touching its entries, and a new empty
+ * memoizer replaces it: an edit costs {@code O(}{@link #MAX_GENERATIONS}{@code )}, regardless of
+ * the number of entries.
+ *
+ * <p>Each generation records the edits performed since it was frozen. On lookup, if the current
+ * memoizer has no entry, the position is mapped back through these edits to look up each
+ * generation in turn (from newest to oldest). Entries found this way are relocated through the
+ * edits (see {@link MemoEntry#relocate}), and if still valid, copied into the current memoizer
+ * (so that the next edit does not have to map them again).
+ *
+ * <p>Only the {@link #MAX_GENERATIONS} most recent generations are kept: the entries that were
+ * not used by any parse in the meantime are dropped, and will be recomputed if needed.
+ */
+final class IncrementalMemoizer implements Memoizer
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Maximum number of frozen generations. Bounds the cost of a lookup that misses the current
+     * memoizer: at most this many memoizer lookups, and a quadratic number of position mappings.
+     */
+    static final int MAX_GENERATIONS = 4;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final class Generation
+    {
+        final Memoizer memoizer;
+
+        /** The edits performed since this generation was frozen, oldest first. */
+        final ArrayList<Edit> edits = new ArrayList<>();
+
+        Generation (Memoizer memoizer) {
+            this.memoizer = memoizer;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Memoizer current;
+
+    /** The frozen generations, newest first. */
+    private final ArrayDeque<Generation> generations = new ArrayDeque<>();
+
+    /** See {@link IncrementalParser#shiftEffects}. */
+    private boolean shiftEffects;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private IncrementalMemoizer (Memoizer memoizer) {
+        this.current = memoizer;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an incremental memoizer initially holding the entries of {@code memoizer} (which it
+     * takes ownership of), or null if {@code memoizer} does not support {@link
+     * Memoizer#emptyCopy()}.
+     */
+    static IncrementalMemoizer wrap (Memoizer memoizer)
+    {
+        return memoizer.emptyCopy() == null
+            ? null
+            : new IncrementalMemoizer(memoizer);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records that the input was modified by {@code edit}, freezing the current generation.
+     */
+    void edit (Edit edit, boolean shiftEffects)
+    {
+        this.shiftEffects = shiftEffects;
+        generations.addFirst(new Generation(current));
+        if (generations.size() > MAX_GENERATIONS)
+            generations.removeLast();
+        for (Generation generation: generations)
+            generation.edits.add(edit);
+        current = current.emptyCopy();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void memoize (MemoEntry entry) {
+        current.memoize(entry);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public MemoEntry get (Parser parser, int pos, Object ctx)
+    {
+        MemoEntry entry = current.get(parser, pos, ctx);
+        if (entry != null) return entry;
+
+        for (Generation generation: generations)
+        {
+            int old = unmap(generation.edits, pos);
+            if (old < 0) return null; // inserted by an edit, no older generation has entries
+
+            entry = generation.memoizer.get(parser, old, ctx);
+            if (entry == null) continue;
+
+            for (Edit edit: generation.edits) {
+                entry = entry.relocate(edit, shiftEffects);
+                if (entry == null) break;
+            }
+
+            if (entry != null) {
+                current.memoize(entry);
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Maps a position in the current input to the corresponding position in the input before
+     * {@code edits}, or returns -1 if the position lies within items inserted by these edits.
+     */
+    private static int unmap (ArrayList<Edit> edits, int pos)
+    {
+        for (int i = edits.size() - 1; i >= 0 && pos >= 0; --i) {
+            Edit edit = edits.get(i);
+            if (pos >= edit.offset + edit.inserted)
+                pos -= edit.shift();
+            else if (pos >= edit.offset)
+                pos = -1;
+        }
+        return pos;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public Memoizer emptyCopy() {
+        return new IncrementalMemoizer(current.emptyCopy());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString (LineMap map)
+    {
+        return "IncrementalMemoizer { current = " + current.toString(map)
+            + ", generations = " + generations.size() + " }";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Lists the content of the current memoizer (the frozen generations are not listed).
+     */
+    @Override public String listing (LineMap map) {
+        return current.listing(map);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,342 @@
+package norswap.autumn;
+
+import norswap.autumn.Autumn.PotentiallyMalformedGrammarError;
+import norswap.autumn.memo.MemoEntry;
+import norswap.autumn.memo.MemoTable;
+import norswap.autumn.memo.Memoizer;
+import norswap.autumn.parsers.Memo;
+import norswap.autumn.positions.Edit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Parses an input that is repeatedly edited, reusing the memoized results of the previous parse
+ * that are not affected by the edit.
+ *
+ * <p>Start by calling {@link #parse(String)} (or {@link #parse(List)}) to parse the initial input,
+ * then call {@link #edit(int, int, String)} (or {@link #edit(int, int, List)}, or {@link
+ * #edit(Edit, List)}) after each edit to the input. Each call returns the result of parsing the
+ * up-to-date input.
+ *
+ * <p>Only the results of memoized parsers can be reused: those of {@link Memo} parsers, and those
+ * of the rules memoized by a {@link ParseOptions#memoPolicy}. Use memoizers that support
+ * incremental reparsing (cf. {@link Memoizer#emptyCopy}) — ideally {@link MemoTable}s — and
+ * memoize rules that span meaningful chunks of the input (e.g. declarations or statements).
+ * Positions are code point offsets for string inputs, and indices for list inputs.
+ *
+ * <p>Each memo entry records the extent of the input that was examined to compute it (cf. {@link
+ * Parse#examined}). After an edit, entries that did not examine the edited range are reused as-is,
+ * and entries that start after the edited range and have no side effects are reused with shifted
+ * positions (see {@link MemoEntry#relocate}). All other entries are discarded.
+ *
+ * <p>The side effects of reused entries are replayed as they were recorded: the values they push
+ * on the value stack are those of the previous parse. Entries with side effects are not shifted by
+ * default, because any position captured by these side effects (e.g. the {@link
+ * norswap.autumn.positions.Span} of an AST node, or the whitespace tracking information) would
+ * refer to the input of the parse that recorded them — which might be several edits old, as
+ * reused entries are carried over from parse to parse. Set {@link #shiftEffects} to true to also
+ * shift these entries, if their side effects do not capture input positions.
+ *
+ * <p>As for memoization in general, a memoized result must not depend on the parse state unless
+ * the memo parser has a context extractor (cf. {@link Memo#contextExtractor}) — the extracted
+ * context objects are reused verbatim. Also note that reused failed entries do not record their
+ * furthest error, so an incremental parse that fails might report a less precise error than a
+ * full parse.
+ *
+ * <p><b>Cost of an edit:</b> the parsing work after an edit is proportional to the input that must
+ * be reparsed (the edited region, plus the memoized rules that examined it and their ancestors).
+ * Memo entries are relocated lazily, when they are looked up, so the memoizers are not traversed
+ * after an edit. To keep lookups cheap, entries that no parse has reused during the last few edits
+ * are dropped: after many edits in the same region, editing another region might reparse the
+ * whole memoized rule around it.
+ *
+ * <p>The input is still copied with the edit applied, in linear time: parsers, actions and {@link
+ * norswap.autumn.positions.Span}s read {@link Parse#string} and {@link Parse#list} directly, so
+ * the input must be a contiguous array (or list) for every parse. A gap buffer would change that
+ * public API and add a branch to every input access, which costs more over a parse than a single
+ * array copy per edit.
+ *
+ * <p>Since the recorded side effects capture the {@link Parse} object they were applied to, the
+ * same object is reused (and reset) for every parse. Parse state data (cf. {@link ParseState}) is
+ * reset between parses, except for the memoizers.
+ *
+ * <p>The well-formedness of the grammar is only checked (if {@link
+ * ParseOptions#wellFormednessCheck} is set) by the {@code parse} methods, not by the {@code edit}
+ * methods.
+ *
+ * <p>Instances of this class are not thread-safe.
+ */
+public final class IncrementalParser
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The root parser.
+     */
+    public final Parser parser;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The options used for every parse.
+     */
+    public final ParseOptions options;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether to reuse memoized results that start after the edited range and have side effects.
+     * False by default. See {@link IncrementalParser} for details.
+     */
+    public boolean shiftEffects = false;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String string;
+    private int[] codepoints;
+    private List<?> list;
+    private ParseResult result;
+    private Edit lastEdit;
+
+    /**
+     * The parse object, which is reused between parses, as the side effects in memo entries
+     * typically capture it.
+     */
+    private Parse parse;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an incremental parser for {@code rule}, using the given parse options.
+     */
+    public IncrementalParser (Grammar.rule rule, ParseOptions options)
+    {
+        requireNonNull(rule, "Rule cannot be null.");
+        requireNonNull(options, "Parse options cannot be null.");
+        rule.grammar().makeRuleNames();
+        this.parser = rule.getParser();
+        this.options = options;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates an incremental parser for the root rule of {@code grammar}, using the given parse
+     * options.
+     */
+    public IncrementalParser (Grammar grammar, ParseOptions options) {
+        this(requireNonNull(grammar, "Grammar cannot be null.").root(), options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses {@code string} from scratch, discarding any previous state.
+     */
+    public ParseResult parse (String string)
+    {
+        requireNonNull(string, "Input string cannot be null.");
+        if (options.wellFormednessCheck) Parse.checkWellFormedness(parser);
+        this.string = string;
+        this.list = null;
+        this.lastEdit = null;
+        this.parse = new Parse(string, null, options);
+        this.codepoints = parse.string;
+        parse.reusable = true;
+        parse.trackExamined();
+        return run();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses {@code list} from scratch, discarding any previous state.
+     */
+    public ParseResult parse (List<?> list)
+    {
+        requireNonNull(list, "Input list cannot be null.");
+        if (options.wellFormednessCheck) Parse.checkWellFormedness(parser);
+        this.string = null;
+        this.codepoints = null;
+        this.list = list;
+        this.lastEdit = null;
+        this.parse = new Parse(null, list, options);
+        parse.reusable = true;
+        parse.trackExamined();
+        return run();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Replaces the {@code removed} code points at {@code offset} in the current input string by
+     * {@code inserted}, and parses the resulting string, reusing the memoized results of the
+     * previous parse that are not affected by the edit.
+     */
+    public ParseResult edit (int offset, int removed, String inserted)
+    {
+        requireNonNull(inserted, "Inserted string cannot be null.");
+        if (codepoints == null)
+            throw new IllegalStateException("No string input has been parsed yet.");
+
+        int[] insertedCodepoints = inserted.codePoints().toArray();
+        Edit edit = new Edit(offset, removed, insertedCodepoints.length);
+        checkBounds(edit, codepoints.length);
+
+        // Splice the code points directly, the string is only rebuilt on demand (see string()).
+        int[] edited = new int[codepoints.length + edit.shift()];
+        System.arraycopy(codepoints, 0, edited, 0, offset);
+        System.arraycopy(insertedCodepoints, 0, edited, offset, insertedCodepoints.length);
+        System.arraycopy(codepoints, edit.end(), edited, offset + insertedCodepoints.length,
+            codepoints.length - edit.end());
+        codepoints = edited;
+        string = null;
+
+        return reparse(edit);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Replaces the {@code removed} items at {@code offset} in the current input list by {@code
+     * inserted}, and parses the resulting list, reusing the memoized results of the previous parse
+     * that are not affected by the edit.
+     */
+    public ParseResult edit (int offset, int removed, List<?> inserted)
+    {
+        requireNonNull(inserted, "Inserted list cannot be null.");
+        if (list == null)
+            throw new IllegalStateException("No list input has been parsed yet.");
+
+        Edit edit = new Edit(offset, removed, inserted.size());
+        checkBounds(edit, list.size());
+
+        ArrayList<Object> newList = new ArrayList<>(list.size() + edit.shift());
+        newList.addAll(list.subList(0, offset));
+        newList.addAll(inserted);
+        newList.addAll(list.subList(edit.end(), list.size()));
+
+        return edit(edit, newList);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses {@code list}, which must be the result of applying {@code edit} to the current input
+     * list, reusing the memoized results of the previous parse that are not affected by the edit.
+     *
+     * <p>This is useful when the edited list is already available — for instance when it is
+     * produced by an incremental lexer, which might also update the items after the edit (e.g. to
+     * shift the positions of tokens).
+     */
+    public ParseResult edit (Edit edit, List<?> list)
+    {
+        requireNonNull(edit, "Edit cannot be null.");
+        requireNonNull(list, "Input list cannot be null.");
+        if (this.list == null)
+            throw new IllegalStateException("No list input has been parsed yet.");
+
+        checkBounds(edit, this.list.size());
+        if (list.size() != this.list.size() + edit.shift())
+            throw new IllegalArgumentException(
+                "List size " + list.size() + " is inconsistent with " + edit);
+
+        this.list = list;
+        return reparse(edit);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void checkBounds (Edit edit, int length)
+    {
+        if (edit.end() > length)
+            throw new IndexOutOfBoundsException(edit + " exceeds input length " + length);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ParseResult reparse (Edit edit)
+    {
+        lastEdit = edit;
+        HashMap<ParseState<?>, Object> memoizers = new HashMap<>();
+
+        for (ParseState<?> state: parse.parseStates) {
+            Object data = parse.stateData.get(state.key);
+            IncrementalMemoizer memoizer = data instanceof IncrementalMemoizer
+                ? (IncrementalMemoizer) data
+                : data instanceof Memoizer
+                    ? IncrementalMemoizer.wrap((Memoizer) data)
+                    : null;
+            if (memoizer != null) {
+                memoizer.edit(edit, shiftEffects);
+                memoizers.put(state, memoizer);
+            }
+        }
+
+        parse.reset(codepoints, list, memoizers);
+        return run();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ParseResult run()
+    {
+        long start = options.statistics != null ? System.nanoTime() : 0;
+
+        try {
+            result = Parse.run(parser, parse);
+        } catch (StackOverflowError e) {
+            throw new PotentiallyMalformedGrammarError(e);
+        }
+
+        if (options.statistics != null)
+            options.statistics.record(result, parse.inputLength(), System.nanoTime() - start);
+
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the current input string, or null if the input is a list.
+     */
+    public String string()
+    {
+        if (string == null && codepoints != null)
+            string = new String(codepoints, 0, codepoints.length);
+        return string;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the current input list, or null if the input is a string.
+     */
+    public List<?> list() {
+        return list;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the result of the last parse, or null if nothing was parsed yet.
+     */
+    public ParseResult result() {
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the edit that led to the last parse, or null if the last parse was performed from
+     * scratch.
+     */
+    public Edit lastEdit() {
+        return lastEdit;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,141 @@
+package norswap.autumn;
+
+import norswap.autumn.parsers.CharPredicate;
+import norswap.autumn.parsers.ObjectPredicate;
+import norswap.autumn.parsers.StringMatch;
+import norswap.autumn.positions.LineMap;
+import norswap.autumn.positions.LineMapString;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Counts how many times each input position was examined during a parse, collected when the
+ * {@link ParseOptions#heatmap} option is set. Available as {@link ParseResult#heatmap}.
+ *
+ * <p>Positions are examined by the parsers that read the input ({@link CharPredicate}, {@link
+ * StringMatch}, {@link ObjectPredicate}, ...) through {@link Parse#charAt}, {@link Parse#objectAt}
+ * and {@link Parse#match}. In a parse without backtracking, most positions are examined a small
+ * number of times: positions that are examined many times more point to constructs that trigger
+ * excessive backtracking, and thus to places where the grammar could be improved (e.g. by
+ * factoring out common prefixes or adding memoization).
+ *
+ * <p>Use {@link #report(LineMap, int)} to get a compact histogram along with the most examined
+ * positions, mapped to lines and columns via a {@link LineMap} (typically a {@link
+ * LineMapString}).
+ */
+public final class InputHeatmap
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The number of times each input position was examined. Has size {@code inputLength + 1}, as
+     * the end of the input can also be examined.
+     */
+    public final int[] counts;
+
+    // ---------------------------------------------------------------------------------------------
+
+    InputHeatmap (int[] counts) {
+        this.counts = counts;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Total number of examinations, over all positions.
+     */
+    public long total()
+    {
+        long total = 0;
+        for (int count: counts) total += count;
+        return total;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The maximum number of times a single position was examined.
+     */
+    public int max()
+    {
+        int max = 0;
+        for (int count: counts) max = Math.max(max, count);
+        return max;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a histogram of the number of positions per examination count, where bucket 0
+     * contains the positions that were never examined, and bucket {@code i > 0} contains the
+     * positions examined between {@code 2^(i-1)} and {@code 2^i - 1} times.
+     */
+    public long[] histogram()
+    {
+        long[] buckets = new long[33 - Integer.numberOfLeadingZeros(max())];
+        for (int count: counts)
+            ++ buckets[32 - Integer.numberOfLeadingZeros(count)];
+        return buckets;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the {@code n} most examined positions (or less if there are less examined positions),
+     * from most to least examined. Positions examined the same number of times are sorted in input
+     * order.
+     */
+    public List<Integer> hotspots (int n)
+    {
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < counts.length; ++i)
+            if (counts[i] > 0)
+                positions.add(i);
+
+        positions.sort((a, b) -> counts[a] != counts[b]
+            ? Integer.compare(counts[b], counts[a])
+            : Integer.compare(a, b));
+
+        return positions.size() > n
+            ? new ArrayList<>(positions.subList(0, n))
+            : positions;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a report made of the {@link #histogram()}, followed by the {@code n} {@link
+     * #hotspots(int)}, whose positions are translated using {@code map} (if non-null).
+     */
+    public String report (LineMap map, int n)
+    {
+        StringBuilder b = new StringBuilder();
+        b.append(String.format("examined %,d times over %,d positions (max %,d)\n",
+            total(), counts.length, max()));
+
+        b.append(String.format("%14s | %s\n", "EXAMINATIONS", "POSITIONS"));
+        long[] histogram = histogram();
+        for (int i = 0; i < histogram.length; ++i) {
+            if (histogram[i] == 0) continue;
+            String range = i <= 1
+                ? String.valueOf(i)
+                : (1 << (i - 1)) + "-" + ((1L << i) - 1);
+            b.append(String.format("%14s | %,d\n", range, histogram[i]));
+        }
+
+        b.append("hotspots:\n");
+        for (int position: hotspots(n))
+            b.append(String.format("%14s | %,d\n",
+                LineMap.string(map, position), counts[position]));
+
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString() {
+        return report(null, 10);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -22,6 +22,23 @@ public final class Log extends ArrayStack<SideEffect.Applied>
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Total number of side effects undone by {@link #rollback}.
+     */
+    long undone = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the total number of side effects that have been undone by {@link #rollback} since
+     * the start of the parse. This measures (part of) the cost of backtracking.
+     */
+    public long undone() {
+        return undone;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Applies the given side-effect and adds it to the log of applied side effects.
      */
@@ -49,6 +66,9 @@ public final class Log extends ArrayStack<SideEffect.Applied>
      */
     public void rollback (int logTargetSize)
     {
+        if (size() > logTargetSize)
+            undone += size() - logTargetSize;
+
         for (int i = size(); i > logTargetSize; --i)
             pop().undo.run();
     }
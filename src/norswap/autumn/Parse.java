@@ -2,12 +2,18 @@ package norswap.autumn;
 
 import norswap.autumn.actions.ActionContext;
 import norswap.autumn.actions.StackAction;
+import norswap.autumn.memo.MemoEntry;
+import norswap.autumn.memo.MemoPolicy;
+import norswap.autumn.memo.Memoizer;
+import norswap.autumn.monitoring.FlightRecorderEvents;
 import norswap.autumn.parsers.Bounded;
+import norswap.autumn.parsers.Memo;
 import norswap.autumn.parsers.Not;
 import norswap.autumn.parsers.RightExpression;
 import norswap.autumn.parsers.StringMatch;
 import norswap.autumn.parsers.TrailingWhitespace;
 import norswap.autumn.positions.Span;
+import norswap.autumn.util.ArrayStack;
 import norswap.autumn.visitors.WellFormednessChecker;
 import norswap.utils.data.structures.ArrayListLong;
 import java.util.ArrayList;
@@ -47,6 +53,57 @@ public final class Parse
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * One past the furthest input position examined during the parse (or, while a {@link
+     * MemoEntry} is being computed, during the computation of that entry). Updated by {@link
+     * #charAt(int)}, {@link #objectAt(int)} and the {@code match} methods.
+     *
+     * <p>This is used to determine which memoized results can be reused after an edit to the input
+     * ({@link IncrementalParser}). As this slows down input accesses, it is only maintained in the
+     * parses performed by {@link IncrementalParser} (cf. {@link #tracksExamined()}), and is zero
+     * otherwise. Custom parsers that access {@link #string} or {@link #list} directly (rather than
+     * through the methods above) should update this field when {@link #tracksExamined()}, or
+     * incremental reparsing might reuse results that depend on edited input.
+     */
+    public int examined = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * See {@link #tracksExamined()}.
+     */
+    private boolean trackExamined = false;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether input accesses must update {@link #examined} or {@link #examinations}.
+     */
+    private boolean trackInput;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * See {@link #memoHits()}.
+     */
+    int memoHits = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * See {@link #memoMisses()}.
+     */
+    int memoMisses = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * See {@link #memoPolicy()}.
+     */
+    MemoPolicy.Resolution memoPolicy;
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Start of the last parsed whitespace segment for {@link Span} creation. Must be modified via
      * side effects.
@@ -95,15 +152,21 @@ public final class Parse
     /**
      * One of the two forms of input the parse may have: a string represent as an array of
      * Unicode code points.
+     *
+     * <p>Never modified during a parse, but may be replaced in-between parses by an {@link
+     * IncrementalParser}.
      */
-    public final int[] string;
+    public int[] string;
 
     // ---------------------------------------------------------------------------------------------
 
     /**
      * One of the two forms of input the parse may have: a list of token-like objects.
+     *
+     * <p>Never modified during a parse, but may be replaced in-between parses by an {@link
+     * IncrementalParser}.
      */
-    public final List<?> list;
+    public List<?> list;
 
     // ---------------------------------------------------------------------------------------------
 
@@ -174,7 +237,31 @@ public final class Parse
      * A stack used to record the execution time of completed parser invocations in tracing mode
      * ({@link ParseOptions#trace}).
      */
-    final ArrayListLong traceTimings;
+    ArrayListLong traceTimings;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A stack used to record the memory allocated by completed parser invocations, if {@link
+     * ParseOptions#traceAllocations} is set.
+     */
+    ArrayListLong traceAllocated;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If {@link ParseOptions#traceCallPaths} is set, the node of {@link ParseMetrics#callProfile}
+     * for the current rule call path, null otherwise.
+     */
+    CallProfile.Node profileNode;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If {@link ParseOptions#heatmap} is set, the number of times each input position has been
+     * examined (see {@link InputHeatmap}), null otherwise.
+     */
+    int[] examinations;
 
     // ---------------------------------------------------------------------------------------------
 
@@ -183,11 +270,89 @@ public final class Parse
      *
      * <p>Can be reused accross parses using {@link ParseOptions#metrics}.
      */
-    final ParseMetrics parseMetrics;
+    ParseMetrics parseMetrics;
 
     // ---------------------------------------------------------------------------------------------
 
-    private Parse (String string, List<?> list, ParseOptions options)
+    /**
+     * In tracing mode ({@link ParseOptions#trace}), the metrics of the parsers whose successful
+     * invocations consumed some input that may still be rolled back, in invocation completion
+     * order. The amount of input consumed is in {@link #pendingConsumed}.
+     *
+     * <p>Only the successful children of the invocations in progress are kept: when an invocation
+     * succeeds, the entries of its children are replaced by its own. The size of the stack is
+     * therefore bounded by the number of children of the invocations on the call stack.
+     *
+     * <p>Used to compute {@link ParserMetrics#wastedInput}.
+     */
+    ArrayStack<ParserMetrics> pendingMetrics;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * See {@link #pendingMetrics}.
+     */
+    ArrayListLong pendingConsumed;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Per-parser counters, if {@link ParseOptions#counters} is set, null otherwise.
+     */
+    ParseCounters parseCounters;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * {@link ParseOptions#slowRuleThreshold}, or -1 if JFR events are not {@link
+     * FlightRecorderEvents#supported() supported}.
+     */
+    long slowRuleThreshold;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether {@link Parser#parse} must go through its instrumented implementation, which updates
+     * {@link #parseCounters}, reports slow rules ({@link #slowRuleThreshold}) and records events
+     * ({@link #recorder}) and maintains the {@link #ruleStack}.
+     */
+    boolean instrumented;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records parser invocation events, if {@link ParseOptions#recorder} is set, null otherwise.
+     */
+    ParseEventRecorder recorder;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stack of the ids of the rules being invoked, if {@link ParseOptions#sampler} is set, null
+     * otherwise.
+     */
+    RuleStack ruleStack;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether {@link Parser#parse} skips the furthest error and call stack bookkeeping. True in
+     * {@link ParseOptions#recognize} mode and during the first phase of a {@link
+     * ParseOptions#diagnosticRerun}, which leaves error reporting to the second phase.
+     */
+    boolean skipErrors;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether this parse object may be {@link #reset}, in which case the {@link ParseResult} must
+     * not share the value stack or the state data map with it.
+     */
+    boolean reusable = false;
+
+    // ---------------------------------------------------------------------------------------------
+
+    Parse (String string, List<?> list, ParseOptions options)
     {
         assert string != null && list == null || string == null && list != null;
 
@@ -197,56 +362,159 @@ public final class Parse
         this.list = list;
         this.endOfInput = this.string != null ? this.string.length : list.size();
         this.options = options;
+        this.skipErrors = options.recognize;
         this.callStack = options.recordCallStack ? new ParserCallStack() : null;
         this.traceTimings = options.trace ? new ArrayListLong(256) : null;
+        this.traceAllocated = options.traceAllocations ? new ArrayListLong(128) : null;
         this.parseMetrics = options.trace ? options.metrics.get() : null;
+        this.profileNode = options.traceCallPaths ? parseMetrics.callProfile.root : null;
+        this.examinations = options.heatmap ? new int[inputLength() + 1] : null;
+        this.trackInput = examinations != null;
+        this.pendingMetrics = options.trace ? new ArrayStack<>() : null;
+        this.pendingConsumed = options.trace ? new ArrayListLong() : null;
+        this.parseCounters = options.counters != null ? options.counters.get() : null;
+        this.slowRuleThreshold = FlightRecorderEvents.supported() ? options.slowRuleThreshold : -1;
+        this.recorder = options.recorder != null ? options.recorder.get() : null;
+        this.ruleStack = options.sampler != null ? new RuleStack() : null;
+        this.instrumented = parseCounters != null || slowRuleThreshold >= 0 || recorder != null
+            || ruleStack != null;
     }
 
     // ---------------------------------------------------------------------------------------------
 
     /**
+     * Runs {@code parser} on the given input (one of {@code string} and {@code list} must be null),
+     * in two phases if {@link ParseOptions#diagnosticRerun} is set.
+     *
      * @see Autumn#parse
      */
     static ParseResult run (Parser parser, String string, List<?> list, ParseOptions options)
     {
         if (options.wellFormednessCheck)
-        {
-            WellFormednessChecker checker = new WellFormednessChecker();
+            checkWellFormedness(parser);
 
-            if (!checker.wellFormed(parser))
-            {
-                StringBuilder b = new StringBuilder();
+        SlowParseCapture capture = options.slowParseCapture;
+        boolean timed = options.statistics != null || capture != null;
+        long start = timed ? System.nanoTime() : 0;
 
-                for (Parser p: checker.leftRecursives) {
-                    b.append("\n- Left-recursive parser cycle detected, passing through parser: ");
+        Parse parse = new Parse(string, list, options.diagnosticRerun
+            ? options.withPhase(false, options.recognize)
+            : options);
+        parse.skipErrors |= options.diagnosticRerun;
 
-                    try { b.append(p); }
-                    catch(StackOverflowError e) {
-                        // Rules names weren't used and getting the parser name recurses infinitely.
-                        b.append(parser.getClass());
-                        b.append(" (infinite recursion in toString)");
-                    }
-                }
+        ParseResult result = run(parser, parse);
+        long undone = parse.log.undone();
+
+        if (options.diagnosticRerun && !result.fullMatch) {
+            Parse rerun = new Parse(string, list, options.withPhase(true, false));
+            result = run(parser, rerun);
+            undone += rerun.log.undone();
+        }
+
+        long latency = timed ? System.nanoTime() - start : 0;
+
+        if (options.statistics != null)
+            options.statistics.record(result, parse.inputLength(), latency);
+
+        if (capture != null && capture.shouldCapture(latency, undone))
+            capture.capture(parser, string, list, options, result, latency, undone);
 
-                for (Parser p: checker.nullableRepetitions)
-                    b   .append("\n- Nullable repetition detected: ")
-                        .append(p);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sizes the per-parser arrays used by this parse to cover the ids of the parsers reachable from
+     * {@code root} (see {@link ParserIds}), if any such array is used. Also ensures these ids are
+     * assigned before the memo policy (if any) is resolved, so that they form a contiguous block.
+     */
+    private void coverIds (Parser root)
+    {
+        if (parseMetrics == null && parseCounters == null && recorder == null && ruleStack == null
+                && options.memoPolicy == null)
+            return;
+
+        ParserIds ids = ParserIds.of(root);
+        int hi = ids.base + ids.size;
+        if (parseMetrics  != null) parseMetrics .cover(ids.base, hi);
+        if (parseCounters != null) parseCounters.cover(ids.base, hi);
+        if (recorder      != null) recorder     .cover(ids.base, hi);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Throws a {@link MalformedGrammarError} if {@code parser} is not well-formed.
+     *
+     * <p>The check is only performed once per parser, its result is cached (see {@link
+     * GrammarAnalysis#of(Parser)}).
+     */
+    static void checkWellFormedness (Parser parser)
+    {
+        GrammarAnalysis analysis = GrammarAnalysis.of(parser);
+
+        if (!analysis.wellFormed)
+        {
+            WellFormednessChecker checker = analysis.checker;
+            StringBuilder b = new StringBuilder();
 
-                throw new MalformedGrammarError(b.toString(), checker);
+            for (Parser p: checker.leftRecursives) {
+                b.append("\n- Left-recursive parser cycle detected, passing through parser: ");
+
+                try { b.append(p); }
+                catch(StackOverflowError e) {
+                    // Rules names weren't used and getting the parser name recurses infinitely.
+                    b.append(parser.getClass());
+                    b.append(" (infinite recursion in toString)");
+                }
             }
+
+            for (Parser p: checker.nullableRepetitions)
+                b   .append("\n- Nullable repetition detected: ")
+                    .append(p);
+
+            throw new MalformedGrammarError(b.toString(), checker);
         }
+    }
+
+    // ---------------------------------------------------------------------------------------------
 
-        Parse parse = new Parse(string, list, options);
+    /**
+     * Runs {@code parser} on the given (fresh) parse, without checking well-formedness.
+     */
+    static ParseResult run (Parser parser, Parse parse)
+    {
+        ParseOptions options = parse.options;
+        Object event = options.flightRecorder ? FlightRecorderEvents.beginParse() : null;
         Throwable thrown = null;
         boolean success = false;
+        parse.coverIds(parser);
+        parse.memoPolicy = options.memoPolicy != null ? options.memoPolicy.resolve(parser) : null;
+        if (parse.ruleStack != null)
+            options.sampler.register(parse.ruleStack, parser);
         try { success = parser.parse(parse); }
         catch (StackOverflowError e) { throw e; } // (1)
         catch (Throwable t) { thrown = t; }
         finally {
+            if (parse.ruleStack != null) {
+                options.sampler.unregister(parse.ruleStack);
+                parse.ruleStack.clear();
+            }
             for (ParseState<?> state: parse.parseStates)
                 state.discardCache(parse);
         }
 
+        if (options.statistics != null)
+            options.statistics.recordMemo(parse.memoHits, parse.memoMisses);
+
+        if (options.trace) {
+            ++ parse.parseMetrics.parses;
+            parse.parseMetrics.undoneLog += parse.log.undone();
+            if (parse.parseMetrics.aggregator != null)
+                parse.parseMetrics.aggregator.add(parse.parseMetrics);
+        }
+
         // (1) wrapped in PotentiallyMalformedGrammarError in Autumn#parse
 
         boolean fullMatch
@@ -271,12 +539,12 @@ public final class Parse
 
         ParserCallStack errorCallStack
             = thrown != null
-                ? parse.callStack
+                ? parse.callStack == null ? null : parse.callStack.snapshot()
                 : fullMatch
                     ? null
                     : parse.errorCallStack;
 
-        return new ParseResult(
+        ParseResult result = new ParseResult(
             success,
             fullMatch,
             matchSize,
@@ -285,10 +553,124 @@ public final class Parse
             options,
             errorPosition,
             errorMessage,
-            parse.stack,
-            parse.stateData,
+            parse.reusable ? new ArrayStack<>(parse.stack.toArray()) : parse.stack,
+            parse.reusable ? new HashMap<>(parse.stateData) : parse.stateData,
             errorCallStack,
-            parse.parseMetrics);
+            parse.parseMetrics,
+            parse.parseCounters,
+            parse.examinations == null ? null : new InputHeatmap(
+                parse.reusable ? parse.examinations.clone() : parse.examinations));
+
+        if (event != null)
+            FlightRecorderEvents.endParse(event, parse, result);
+
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Prepares this parse object to be run again on a new input (one of {@code string} and {@code
+     * list} must be null), resetting its state, except for the data of the given parse states.
+     *
+     * <p>This enables the side effects recorded during previous runs (e.g. in a {@link MemoEntry})
+     * to be applied again, as they typically capture this object (or the objects it holds, such as
+     * {@link #stack}). Used by {@link IncrementalParser}. {@code string} is an array of code points,
+     * which is used as-is.
+     */
+    void reset (int[] string, List<?> list, Map<ParseState<?>, Object> states)
+    {
+        assert string != null && list == null || string == null && list != null;
+
+        this.string = string;
+        this.list = list;
+        this.endOfInput = this.string != null ? this.string.length : list.size();
+
+        pos = 0;
+        error = -1;
+        errorMessage = null;
+        whitespaceStart = 0;
+        whitespaceEnd = 0;
+        rightRecursive = false;
+        examined = 0;
+        memoHits = 0;
+        memoMisses = 0;
+
+        log.clear();
+        log.undone = 0;
+        stack.clear();
+        stateData.clear();
+        parseStates.clear();
+
+        states.forEach((state, data) -> {
+            stateData.put(state.key, data);
+            parseStates.add(state);
+        });
+
+        skipErrors = options.recognize;
+        callStack = options.recordCallStack ? new ParserCallStack() : null;
+        errorCallStack = null;
+        traceTimings = options.trace ? new ArrayListLong(256) : null;
+        traceAllocated = options.traceAllocations ? new ArrayListLong(128) : null;
+        parseMetrics = options.trace ? options.metrics.get() : null;
+        profileNode = options.traceCallPaths ? parseMetrics.callProfile.root : null;
+        examinations = options.heatmap ? new int[inputLength() + 1] : null;
+        trackInput = trackExamined || examinations != null;
+        pendingMetrics = options.trace ? new ArrayStack<>() : null;
+        pendingConsumed = options.trace ? new ArrayListLong() : null;
+        parseCounters = options.counters != null ? options.counters.get() : null;
+        slowRuleThreshold = FlightRecorderEvents.supported() ? options.slowRuleThreshold : -1;
+        recorder = options.recorder != null ? options.recorder.get() : null;
+        ruleStack = options.sampler != null ? new RuleStack() : null;
+        instrumented = parseCounters != null || slowRuleThreshold >= 0 || recorder != null
+            || ruleStack != null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of memo lookups (performed by {@link Memo} parsers or because of {@link
+     * ParseOptions#memoPolicy}) that found a memoized result during this parse. Reported by
+     * {@link ParseOptions#statistics}.
+     */
+    public int memoHits() {
+        return memoHits;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of memo lookups (performed by {@link Memo} parsers or because of {@link
+     * ParseOptions#memoPolicy}) that did not find a memoized result during this parse. Reported by
+     * {@link ParseOptions#statistics}.
+     */
+    public int memoMisses() {
+        return memoMisses;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The resolution of {@link ParseOptions#memoPolicy} for the root parser of this parse (see
+     * {@link MemoPolicy#resolve}), or null if there is no memo policy. Set when the parse starts.
+     */
+    public MemoPolicy.Resolution memoPolicy() {
+        return memoPolicy;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Looks up the result of {@code parser} at the current position in the given context in {@code
+     * memoizer}, and counts the lookup as a hit or a miss (see {@link #memoHits()}). Parsers that
+     * perform memoization should use this rather than {@link Memoizer#get} directly.
+     */
+    public MemoEntry memoLookup (Memoizer memoizer, Parser parser, Object context)
+    {
+        MemoEntry entry = memoizer.get(parser, pos, context);
+        if (entry != null) ++ memoHits;
+        else ++ memoMisses;
+        return entry;
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -333,6 +715,38 @@ public final class Parse
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Whether {@link #examined} is maintained, which is only the case for the parses performed by
+     * {@link IncrementalParser}.
+     */
+    public boolean tracksExamined() {
+        return trackExamined;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Makes this parse maintain {@link #examined}. Used by {@link IncrementalParser}.
+     */
+    void trackExamined()
+    {
+        trackExamined = true;
+        trackInput = true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records that the input at {@code index} was examined, if {@link #trackInput}.
+     */
+    private void examine (int index)
+    {
+        if (trackExamined && index >= examined) examined = index + 1;
+        if (examinations != null && index < examinations.length) ++ examinations[index];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Returns the character from {@link #string} at the given index,
      * or 0 if {@code index == string.length}.
@@ -340,6 +754,7 @@ public final class Parse
     public int charAt (int index)
     {
         assert string != null;
+        if (trackInput) examine(index);
         return index != endOfInput
             ? string[index]
             : 0;
@@ -354,6 +769,7 @@ public final class Parse
     public Object objectAt (int index)
     {
         assert list != null;
+        if (trackInput) examine(index);
         return index < list.size()
             ? list.get(index)
             : null;
@@ -367,6 +783,7 @@ public final class Parse
      */
     public boolean match (int index, String candidate)
     {
+        if (trackInput) return match(index, candidate.codePoints().toArray());
         OfInt it = Arrays.stream(string, index, string.length).iterator();
         return candidate.codePoints().sequential().allMatch((c) -> it.hasNext() && c == it.next());
     }
@@ -380,9 +797,13 @@ public final class Parse
     public boolean match (int index, int[] candidate)
     {
         assert string != null;
+        if (trackExamined && index + candidate.length > examined)
+            examined = index + candidate.length;
 
         if(index + candidate.length > string.length)
         	return false;
+        if (examinations != null)
+            return countingMatch(index, candidate);
         for(int i = 0; i < candidate.length; i++)
         	if(string[index + i] != candidate[i])
         		return false;
@@ -392,6 +813,21 @@ public final class Parse
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Implementation of {@link #match(int, int[])} when {@link ParseOptions#heatmap} is set.
+     */
+    private boolean countingMatch (int index, int[] candidate)
+    {
+        for (int i = 0; i < candidate.length; i++) {
+            ++ examinations[index + i];
+            if (string[index + i] != candidate[i])
+                return false;
+        }
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * To call before invoking a parser whose leading whitespace we want to know, returns
      * the position at which that leading whitespace starts.
@@ -443,6 +879,9 @@ public final class Parse
      */
     public void setWhitespaceFrom (int pos0)
     {
+        if (!options.trackWhitespace || options.recognize)
+            return;
+
         final int whitespaceStart0 = whitespaceStart;
         final int whitespaceEnd0 = whitespaceEnd;
         log.apply(() -> {
@@ -0,0 +1,168 @@
+package norswap.autumn;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A set of per-parser counters, which are collected when a parse is running with the {@link
+ * ParseOptions#counters} option.
+ *
+ * <p>Unlike {@link ParseMetrics}, no timing information is collected, making these counters cheap
+ * enough to be always enabled. The counters are stored in {@code long} arrays indexed by parser id
+ * ({@link Parser#id()}), and can be accessed through the accessor methods taking a parser. The
+ * arrays are sized to cover the id range of the grammars they are used with, which is determined
+ * before the parse starts.
+ *
+ * <p>Counters can be aggregated over multiple parses by having {@link ParseOptions#counters}
+ * return the same instance, but instances are not thread-safe.
+ */
+public final class ParseCounters
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private int base = 0;
+    private Parser[] parsers  = new Parser[0];
+    private long[] successes  = new long[0];
+    private long[] failures   = new long[0];
+    private long[] consumed   = new long[0];
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Ensures the counter arrays cover the ids in {@code [lo, hi[}.
+     */
+    void cover (int lo, int hi)
+    {
+        int length = parsers.length;
+        if (length > 0) {
+            lo = Math.min(lo, base);
+            hi = Math.max(hi, base + length);
+            if (lo == base && hi == base + length) return;
+        }
+
+        int shift = length > 0 ? base - lo : 0;
+        parsers   = ParserIds.rebase(parsers,   shift, hi - lo);
+        successes = ParserIds.rebase(successes, shift, hi - lo);
+        failures  = ParserIds.rebase(failures,  shift, hi - lo);
+        consumed  = ParserIds.rebase(consumed,  shift, hi - lo);
+        base = lo;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records an invocation of {@code parser}, which succeeded or not, consuming {@code consumed}
+     * input items.
+     */
+    void record (Parser parser, boolean success, int consumed)
+    {
+        int i = parser.id() - base;
+
+        if (i < 0 || i >= parsers.length) {
+            // parser not reachable when the parse started
+            cover(parser.id(), Math.max(parser.id() + 1, base + 2 * parsers.length));
+            i = parser.id() - base;
+        }
+
+        if (parsers[i] == null)
+            parsers[i] = parser;
+
+        if (success) {
+            ++ successes[i];
+            this.consumed[i] += consumed;
+        }
+        else
+            ++ failures[i];
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private long get (long[] counters, Parser parser)
+    {
+        int i = parser.id() - base;
+        return i >= 0 && i < counters.length ? counters[i] : 0;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of invocations of {@code parser}.
+     */
+    public long invocations (Parser parser) {
+        return get(successes, parser) + get(failures, parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of successful invocations of {@code parser}.
+     */
+    public long successes (Parser parser) {
+        return get(successes, parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of failed invocations of {@code parser}.
+     */
+    public long failures (Parser parser) {
+        return get(failures, parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Total number of input items (code points or list items) consumed by the successful
+     * invocations of {@code parser}.
+     */
+    public long consumed (Parser parser) {
+        return get(consumed, parser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the list of parsers that have been invoked at least once, in order of parser id.
+     */
+    public List<Parser> parsers()
+    {
+        List<Parser> list = new ArrayList<>();
+        for (Parser parser: parsers)
+            if (parser != null)
+                list.add(parser);
+        return list;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Resets all counters to zero.
+     */
+    public void clear()
+    {
+        Arrays.fill(parsers, null);
+        Arrays.fill(successes, 0);
+        Arrays.fill(failures, 0);
+        Arrays.fill(consumed, 0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString()
+    {
+        StringBuilder b = new StringBuilder(String.format("%40s | %-14s | %-14s | %-14s | %s\n",
+            "PARSER", "INVOCATIONS", "SUCCESSES", "FAILURES", "CONSUMED"));
+
+        parsers().stream()
+            .sorted(Comparator.comparingLong(this::invocations).reversed())
+            .forEach(it -> b.append(String.format("%40s | %,-14d | %,-14d | %,-14d | %,d\n",
+                it, invocations(it), successes(it), failures(it), consumed(it))));
+
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,163 @@
+package norswap.autumn;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static norswap.autumn.ParseEventRecorder.*;
+
+/**
+ * Reads the events recorded by a {@link ParseEventRecorder}, either in-process ({@link
+ * ParseEventRecorder#reader()}) or from a file ({@link #open(Path)}).
+ *
+ * <p>Only the events that have not been overwritten are available, from oldest to newest. Their
+ * {@link Event#time} is relative to the oldest available event.
+ */
+public final class ParseEventReader
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A recorded event.
+     */
+    public static final class Event
+    {
+        /** The event kind: {@link ParseEventRecorder#ENTER}, {@code SUCCESS} or {@code FAILURE}. */
+        public final int kind;
+
+        /** The {@link Parser#id()} of the parser the event pertains to. */
+        public final int parser;
+
+        /** The input position (see {@link ParseEventRecorder}). */
+        public final int position;
+
+        /** Time of the event in nanoseconds, relative to the first available event. */
+        public final long time;
+
+        Event (int kind, int parser, int position, long time)
+        {
+            this.kind = kind;
+            this.parser = parser;
+            this.position = position;
+            this.time = time;
+        }
+
+        @Override public String toString()
+        {
+            String kind
+                = this.kind == ENTER ? "enter"
+                : this.kind == SUCCESS ? "success"
+                : "failure";
+            return String.format("%,d ns: %s %d at %d", time, kind, parser, position);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+
+    // ---------------------------------------------------------------------------------------------
+
+    ParseEventReader (ByteBuffer buffer)
+    {
+        if (buffer.getInt(0) != MAGIC)
+            throw new IllegalArgumentException("not a parse event buffer");
+        if (buffer.getInt(4) != VERSION)
+            throw new IllegalArgumentException("unsupported version: " + buffer.getInt(4));
+        this.buffer = buffer;
+        this.capacity = buffer.getInt(8);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a reader for the events in the given file, written by a recorder created with {@link
+     * ParseEventRecorder#mapped(Path, int)}. The file is read in full.
+     */
+    public static ParseEventReader open (Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0);
+            return new ParseEventReader(buffer);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reads a parser dictionary written by {@link ParseEventRecorder#writeDictionary(Path)},
+     * mapping parser ids to parser names.
+     */
+    public static Map<Integer, String> readDictionary (Path path) throws IOException
+    {
+        Map<Integer, String> map = new HashMap<>();
+        for (String line: Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            int tab = line.indexOf('\t');
+            map.put(Integer.parseInt(line.substring(0, tab)), line.substring(tab + 1));
+        }
+        return map;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Total number of events recorded, including those that have been overwritten.
+     */
+    public long count() {
+        return buffer.getLong(COUNT_OFFSET);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of available events.
+     */
+    public int size() {
+        return (int) Math.min(count(), capacity);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Calls {@code consumer} with each available event, from oldest to newest.
+     */
+    public void forEach (Consumer<Event> consumer)
+    {
+        long count = count();
+        int size = size();
+        long first = count - size;
+        long time = 0;
+
+        for (int i = 0; i < size; ++i) {
+            int offset = HEADER_SIZE + (int) ((first + i) % capacity) * RECORD_SIZE;
+            int header = buffer.getInt(offset);
+            if (i > 0) time += buffer.getInt(offset + 8);
+            consumer.accept(new Event(header & 3, header >>> 2, buffer.getInt(offset + 4), time));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the list of available events, from oldest to newest.
+     */
+    public List<Event> events()
+    {
+        List<Event> events = new ArrayList<>(size());
+        forEach(events::add);
+        return events;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,239 @@
+package norswap.autumn;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the raw sequence of parser invocation events (enter, success, failure) of parses running
+ * with the {@link ParseOptions#recorder} option, in a compact binary format, into a ring buffer
+ * that is either off-heap ({@link #offHeap(int)}) or backed by a memory-mapped file ({@link
+ * #mapped(Path, int)}). Once the buffer is full, the oldest events are overwritten.
+ *
+ * <p>Unlike {@link ParseOptions#trace}, which aggregates measurements per parser, this keeps the
+ * order of events, so that a pathological parse can be analyzed after the fact. Use {@link
+ * ParseEventReader} to read the events back (possibly in another process, from a mapped file).
+ *
+ * <p>Each event is a fixed-size 12-byte record: the parser id ({@link Parser#id()}) and event kind
+ * packed in an int, the input position (the invocation position for enter events, the position
+ * after the invocation for success and failure events), and the time elapsed since the previous
+ * event in nanoseconds (capped to {@link Integer#MAX_VALUE}). The records are preceded by a
+ * header holding the format version, the capacity and the number of recorded events.
+ *
+ * <p>Parser ids are only meaningful within a process: use {@link #writeDictionary(Path)} to save
+ * the names of the recorded parsers alongside the events.
+ *
+ * <p>Instances are not thread-safe: a recorder must not be used by concurrent parses.
+ */
+public final class ParseEventRecorder
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Magic number at the start of the buffer ("AUEV"). */
+    static final int MAGIC = 0x41554556;
+
+    /** Version of the binary format. */
+    static final int VERSION = 1;
+
+    /** Size of the header, in bytes. */
+    static final int HEADER_SIZE = 24;
+
+    /** Offset of the number of recorded events (a long) in the header. */
+    static final int COUNT_OFFSET = 16;
+
+    /** Size of an event record, in bytes. */
+    static final int RECORD_SIZE = 12;
+
+    /** Event kind: a parser was invoked. */
+    public static final int ENTER = 0;
+
+    /** Event kind: a parser invocation succeeded. */
+    public static final int SUCCESS = 1;
+
+    /** Event kind: a parser invocation failed. */
+    public static final int FAILURE = 2;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private long count = 0;
+    private long last = 0;
+    private Parser[] parsers = new Parser[0];
+    private int base = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ParseEventRecorder (ByteBuffer buffer, int capacity)
+    {
+        this.buffer = buffer;
+        this.capacity = capacity;
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, capacity);
+        buffer.putInt(12, 0);
+        buffer.putLong(COUNT_OFFSET, 0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a recorder holding up to {@code capacity} events in an off-heap buffer.
+     */
+    public static ParseEventRecorder offHeap (int capacity) {
+        return new ParseEventRecorder(ByteBuffer.allocateDirect(size(capacity)), capacity);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a recorder holding up to {@code capacity} events in a buffer mapped to the given file,
+     * which is created or overwritten. The events can be read from the file with {@link
+     * ParseEventReader#open(Path)}, even after the process has died.
+     */
+    public static ParseEventRecorder mapped (Path path, int capacity) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer
+                = channel.map(FileChannel.MapMode.READ_WRITE, 0, size(capacity));
+            return new ParseEventRecorder(buffer, capacity);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static int size (int capacity)
+    {
+        if (capacity <= 0 || capacity > (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE)
+            throw new IllegalArgumentException("invalid capacity: " + capacity);
+        return HEADER_SIZE + capacity * RECORD_SIZE;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Ensures the parser array covers the ids in {@code [lo, hi[}.
+     */
+    void cover (int lo, int hi)
+    {
+        int length = parsers.length;
+        if (length > 0) {
+            lo = Math.min(lo, base);
+            hi = Math.max(hi, base + length);
+            if (lo == base && hi == base + length) return;
+        }
+
+        parsers = ParserIds.rebase(parsers, length > 0 ? base - lo : 0, hi - lo);
+        base = lo;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records an event of the given kind for {@code parser} at {@code position}.
+     */
+    void record (int kind, Parser parser, int position)
+    {
+        int id = parser.id();
+        int i = id - base;
+
+        if (i < 0 || i >= parsers.length) {
+            // parser not reachable when the parse started
+            cover(id, Math.max(id + 1, base + 2 * parsers.length));
+            i = id - base;
+        }
+
+        if (parsers[i] == null)
+            parsers[i] = parser;
+
+        long now = System.nanoTime();
+        long delta = count == 0 ? 0 : Math.min(now - last, Integer.MAX_VALUE);
+        last = now;
+
+        int offset = HEADER_SIZE + (int) (count % capacity) * RECORD_SIZE;
+        buffer.putInt(offset, id << 2 | kind);
+        buffer.putInt(offset + 4, position);
+        buffer.putInt(offset + 8, (int) delta);
+        buffer.putLong(COUNT_OFFSET, ++ count);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Total number of events recorded so far, including those that have been overwritten.
+     */
+    public long count() {
+        return count;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a reader for the events currently held by this recorder.
+     */
+    public ParseEventReader reader() {
+        return new ParseEventReader(buffer.duplicate());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the parsers for which events have been recorded, in order of parser id.
+     */
+    public List<Parser> parsers()
+    {
+        List<Parser> list = new ArrayList<>();
+        for (Parser parser: parsers)
+            if (parser != null)
+                list.add(parser);
+        return list;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the id and name of the parsers for which events have been recorded to the given file,
+     * one parser per line, separated by a tab. Read it back with {@link
+     * ParseEventReader#readDictionary(Path)}.
+     */
+    public void writeDictionary (Path path) throws IOException
+    {
+        List<String> lines = new ArrayList<>();
+        for (Parser parser: parsers())
+            lines.add(parser.id() + "\t" + parser.toString().replace('\n', ' '));
+        Files.write(path, lines, StandardCharsets.UTF_8);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Forgets all recorded events.
+     */
+    public void clear()
+    {
+        count = 0;
+        buffer.putLong(COUNT_OFFSET, 0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If this recorder is backed by a file, forces the events to be written to the storage device.
+     */
+    public void force()
+    {
+        if (buffer instanceof MappedByteBuffer)
+            ((MappedByteBuffer) buffer).force();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -1,16 +1,24 @@
 package norswap.autumn;
 
+import norswap.autumn.parsers.LeftExpression;
 import java.time.Duration;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * A set of per-parser performance metrics ({@link ParserMetrics}), which are collected
  * when a parse is running in tracing mode ({@link ParseOptions#trace}).
  *
  * <p>Currently just a wrapper around a {@code Map[Parser, ParserMetrics]}, along with a useful
- * {@code toString()} method that sorts the parser by self time.
+ * {@code toString()} method that sorts the parser by self time. Entries should not be removed from
+ * the map, as they are cached internally.
+ *
+ * <p>For lightweight metrics that do not include timings, see {@link ParseCounters}. Instances of
+ * this class are not thread-safe: to aggregate the metrics of concurrent parses, see {@link
+ * ConcurrentParseMetrics}.
  */
 public final class ParseMetrics
 {
@@ -20,23 +28,153 @@ public final class ParseMetrics
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Number of parses whose metrics were recorded in this object.
+     */
+    public long parses = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Self time and invocations per rule call path, only filled if {@link
+     * ParseOptions#traceCallPaths} is set.
+     */
+    public final CallProfile callProfile = new CallProfile();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Total number of side effects undone while parsing (cf. {@link Log#undone()}). Unlike the sum
+     * of all {@link ParserMetrics#undoneLog}, this includes side effects undone by parsers that
+     * backtrack internally without failing (e.g. {@link LeftExpression}).
+     */
+    public long undoneLog = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Caches the entries of {@link #metrics}, indexed by parser id ({@link Parser#id()}) minus
+     * {@link #base}, to avoid hash lookups.
+     */
+    private ParserMetrics[] byId = new ParserMetrics[0];
+    private int base = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If non-null, the aggregator into which these metrics must be merged at the end of the parse.
+     */
+    final ConcurrentParseMetrics aggregator;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public ParseMetrics() {
+        this.aggregator = null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    ParseMetrics (ConcurrentParseMetrics aggregator) {
+        this.aggregator = aggregator;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the metrics for the given parser, creating them if they don't exist yet.
+     */
+    ParserMetrics get (Parser parser)
+    {
+        int i = parser.id() - base;
+
+        if (i < 0 || i >= byId.length) {
+            // parser not reachable when the parse started
+            cover(parser.id(), Math.max(parser.id() + 1, base + 2 * byId.length));
+            i = parser.id() - base;
+        }
+
+        ParserMetrics metrics = byId[i];
+
+        if (metrics == null)
+            metrics = byId[i] = this.metrics.computeIfAbsent(parser, ParserMetrics::new);
+
+        return metrics;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Ensures the {@link #byId} cache covers the ids in {@code [lo, hi[}.
+     */
+    void cover (int lo, int hi)
+    {
+        int length = byId.length;
+        if (length > 0) {
+            lo = Math.min(lo, base);
+            hi = Math.max(hi, base + length);
+            if (lo == base && hi == base + length) return;
+        }
+
+        byId = ParserIds.rebase(byId, length > 0 ? base - lo : 0, hi - lo);
+        base = lo;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the metrics of the {@code n} rules (parsers with a non-null {@link Parser#rule()})
+     * with the highest self time (or less if less rules were invoked), from highest to lowest.
+     */
+    public List<ParserMetrics> topRules (int n)
+    {
+        return metrics.values().stream()
+            .filter(it -> it.parser.rule() != null)
+            .sorted(Comparator.comparingLong((ParserMetrics it) -> it.selfTime).reversed())
+            .limit(n)
+            .collect(Collectors.toList());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Override public String toString()
     {
-        StringBuilder b = new StringBuilder(String.format("%40s | %-16s | %-16s | %s\n",
-            "PARSER", "SELF TIME", "TOTAL TIME", "INVOCATIONS"));
+        StringBuilder b = new StringBuilder(String.format("%40s | %-16s | %-16s | %-14s | %s\n",
+            "PARSER", "SELF TIME", "TOTAL TIME", "INVOCATIONS", "WASTED INPUT"));
 
         metrics.entrySet().stream()
             .sorted(Comparator.comparingLong(
                 (Map.Entry<Parser, ParserMetrics> it) -> it.getValue().selfTime).reversed())
             .forEach(it -> {
                 ParserMetrics v = it.getValue();
-                b.append(String.format("%40s | %-16s | %-16s | %,d\n",
+                b.append(String.format("%40s | %-16s | %-16s | %,-14d | %,d\n",
                     it.getKey(),
                     Duration.ofNanos(v.selfTime),
                     Duration.ofNanos(v.totalTime),
-                    v.invocations));
+                    v.invocations,
+                    v.wastedInput));
             });
 
+        b.append(String.format("undone side effects: %,d\n", undoneLog));
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a table of the parsers, sorted by self allocated bytes (see {@link
+     * ParseOptions#traceAllocations}).
+     */
+    public String allocationsToString()
+    {
+        StringBuilder b = new StringBuilder(String.format("%40s | %-18s | %-18s | %s\n",
+            "PARSER", "SELF ALLOCATED", "TOTAL ALLOCATED", "INVOCATIONS"));
+
+        metrics.values().stream()
+            .sorted(Comparator.comparingLong((ParserMetrics it) -> it.selfAllocated).reversed())
+            .forEach(it ->
+                b.append(String.format("%40s | %,-18d | %,-18d | %,d\n",
+                    it.parser, it.selfAllocated, it.totalAllocated, it.invocations)));
+
         return b.toString();
     }
 
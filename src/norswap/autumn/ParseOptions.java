@@ -1,5 +1,16 @@
 package norswap.autumn;
 
+import norswap.autumn.actions.ActionContext;
+import norswap.autumn.actions.StackConsumer;
+import norswap.autumn.actions.StackPredicate;
+import norswap.autumn.actions.StackPush;
+import norswap.autumn.memo.MemoPolicy;
+import norswap.autumn.monitoring.FlightRecorderEvents;
+import norswap.autumn.parsers.Collect;
+import norswap.autumn.parsers.LeftExpression;
+import norswap.autumn.parsers.Memo;
+import norswap.autumn.parsers.RightExpression;
+import norswap.autumn.util.AllocationUtil;
 import norswap.autumn.positions.Span;
 import java.util.HashMap;
 import java.util.function.Supplier;
@@ -24,8 +35,9 @@ import static norswap.utils.Util.cast;
  * <p>The canonical documentation for an option is the field through which it is accessible in
  * {@link ParseOptions}.
  *
- * <p>It is advised to disable {@link #wellFormednessCheck} in production to avoid its overhead.
- * This is a static check intended to catch problems while constructing a grammar.
+ * <p>{@link #wellFormednessCheck} is a static check intended to catch problems while constructing a
+ * grammar. It is only performed on the first parse with a given parser, so it can be left enabled
+ * in production.
  *
  * <hr>
  *
@@ -33,9 +45,22 @@ import static norswap.utils.Util.cast;
  *
  * <ul>
  *     <li>{@link #trace} = {@code false}</li>
+ *     <li>{@link #traceAllocations} = {@code false}</li>
+ *     <li>{@link #traceCallPaths} = {@code false}</li>
  *     <li>{@link #recordCallStack} = {@code false}</li>
  *     <li>{@link #wellFormednessCheck} = {@code true}</li>
  *     <li>{@link #metrics} = {@code null}</li>
+ *     <li>{@link #counters} = {@code null}</li>
+ *     <li>{@link #recorder} = {@code null}</li>
+ *     <li>{@link #memoPolicy} = {@code null}</li>
+ *     <li>{@link #recognize} = {@code false}</li>
+ *     <li>{@link #diagnosticRerun} = {@code false}</li>
+ *     <li>{@link #heatmap} = {@code false}</li>
+ *     <li>{@link #statistics} = {@code null}</li>
+ *     <li>{@link #flightRecorder} = {@code false}</li>
+ *     <li>{@link #slowRuleThreshold} = {@code -1}</li>
+ *     <li>{@link #slowParseCapture} = {@code null}</li>
+ *     <li>{@link #sampler} = {@code null}</li>
  * </ul>
  *
  * <p>The code ensures that if {@link #trace} is true/false, its corresponding {@link #metrics}
@@ -59,6 +84,33 @@ public final class ParseOptions
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Indicates whether the parse, in tracing mode ({@link #trace}), also attributes the memory
+     * allocated during the parse to each parser (see {@link ParserMetrics#selfAllocated} and
+     * {@link ParserMetrics#totalAllocated}).
+     *
+     * <p>This relies on {@link AllocationUtil}, and has no effect if allocation measurement is not
+     * supported by the JVM. It adds noticeable overhead on top of tracing.
+     *
+     * <p>Enabling this option also enables {@link #trace}. This option is always false if {@link
+     * #trace} is false.
+     */
+    public final boolean traceAllocations;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Indicates whether the parse, in tracing mode ({@link #trace}), also records the self time
+     * and invocation count of each rule call path, into {@link ParseMetrics#callProfile}. This can
+     * be exported to flame graph tools.
+     *
+     * <p>Enabling this option also enables {@link #trace}. This option is always false if {@link
+     * #trace} is false.
+     */
+    public final boolean traceCallPaths;
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Indicates whether the parse records the stack of parser invocations, made available to
      * parsers via  {@link Parse#callStack}); as well as the call stack snapshot for the furthest
@@ -73,6 +125,9 @@ public final class ParseOptions
      * Indicates if Autumn should check that the grammar is well-formed (i.e. does not exhibit
      * unprotected left-recursion nor repetition over nullable parsers) before starting the parse.
      *
+     * <p>The check is only performed once per root parser, its result is cached (see {@link
+     * GrammarAnalysis}).
+     *
      * <p>True by default.
      */
     public final boolean wellFormednessCheck;
@@ -98,6 +153,170 @@ public final class ParseOptions
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * If non-null, specifies a function returning a {@link ParseCounters} object that will count
+     * the invocations, successes, failures and consumed input of each parser during the parse. You
+     * can aggregate counts over multiple parses by returning the same {@link ParseCounters}.
+     *
+     * <p>Unlike {@link #trace}, this does not measure time, and so is cheap enough to be enabled in
+     * production. Both options can be enabled together.
+     */
+    public final Supplier<ParseCounters> counters;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If non-null, specifies a function returning a {@link ParseEventRecorder} that will record the
+     * sequence of parser invocation events during the parse. As recorders are not thread-safe,
+     * concurrent parses must use different recorders (e.g. by returning a thread-local recorder).
+     *
+     * <p>Can be combined with the other options.
+     */
+    public final Supplier<ParseEventRecorder> recorder;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If non-null, overrides the memoizer used by {@link Memo} parsers, based on their rule name,
+     * and possibly memoizes other rules as well. See {@link MemoPolicy} for details.
+     */
+    public final MemoPolicy memoPolicy;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Indicates whether the parse only recognizes its input, i.e. determines whether it matches the
+     * grammar ({@link ParseResult#success}, {@link ParseResult#fullMatch}) and how much of it was
+     * matched ({@link ParseResult#matchSize}).
+     *
+     * <p>In this mode, the {@link StackPush} actions of {@link Collect}, {@link LeftExpression}
+     * and {@link RightExpression} (which only push a value on the value stack) are not run,
+     * whitespace is not tracked (regardless of {@link #trackWhitespace}), and {@link Parser#parse}
+     * does not keep track of the furthest error nor of the call stack (regardless of {@link
+     * #recordCallStack}). As a result, {@link ParseResult#errorOffset} is -1, unless set by a
+     * custom parser.
+     *
+     * <p>Other actions (e.g. {@link StackConsumer} and {@link StackPredicate}) are still run, as
+     * they may change state read by other parsers (through {@link ActionContext#apply}) or cause
+     * their parser to fail. These actions see the value stack without the values that skipped
+     * actions would have pushed: if they need these values, the grammar cannot be used in this
+     * mode. Similarly, custom parsers that rely on the value stack may reject inputs they would
+     * otherwise accept, or vice-versa.
+     *
+     * <p>{@link #trace} takes precedence over this option.
+     *
+     * <p>False by default.
+     */
+    public final boolean recognize;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Indicates whether the parse should be run in two phases: a first cheap parse, followed by a
+     * detailed parse only if the first one does not fully match the input.
+     *
+     * <p>The first phase keeps track of neither the furthest error nor the call stack (regardless
+     * of {@link #recordCallStack}), and runs in {@link #recognize} mode if that option is set. If
+     * it fully matches the input, its result is returned (with {@link ParseResult#errorOffset} set
+     * to -1, unless set by a custom parser). Otherwise, the input is parsed again with {@link
+     * #recordCallStack} enabled and {@link #recognize} disabled, yielding a result with the
+     * furthest error and its call stack, as well as the value stack.
+     *
+     * <p>This is worthwhile when most inputs are expected to be valid, but good error reporting is
+     * required for the invalid ones. Beware that the user-supplied actions, {@link #metrics} and
+     * {@link #counters} will observe both phases when the first one fails.
+     *
+     * <p>The {@link ParseResult#options} of the result are the options used to run the phase that
+     * produced it.
+     *
+     * <p>False by default.
+     */
+    public final boolean diagnosticRerun;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Indicates whether the parse counts how many times each input position is examined, producing
+     * an {@link InputHeatmap} in {@link ParseResult#heatmap}. This shows where the input triggers
+     * excessive backtracking.
+     *
+     * <p>False by default.
+     */
+    public final boolean heatmap;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If non-null, the parse records its latency, input size, outcome and memoization hits into
+     * this object. Unlike {@link #metrics}, {@link ParseStatistics} is thread-safe and meant to be
+     * shared by all parses of a service, and is cheap enough to be enabled in production.
+     *
+     * <p>When {@link #diagnosticRerun} is enabled, both phases are recorded as a single parse.
+     *
+     * <p>Null by default.
+     */
+    public final ParseStatistics statistics;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Indicates whether the parse emits a Java Flight Recorder event, which records the parse's
+     * duration, input size, outcome and memoization hits. See {@link FlightRecorderEvents}.
+     *
+     * <p>Events are only emitted on Java 11+ (the library is packaged as a multi-release jar), and
+     * when the event is enabled in the JFR recording settings.
+     *
+     * <p>False by default.
+     */
+    public final boolean flightRecorder;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If non-negative (and {@link #flightRecorder} is set), the parse emits a Java Flight Recorder
+     * event for every invocation of a rule (a parser with a non-null {@link Parser#rule()}) that
+     * takes at least this many nanoseconds. See {@link FlightRecorderEvents}.
+     *
+     * <p>This requires measuring the time of every rule invocation, which is cheap but not free.
+     * Nothing is measured if JFR events are not {@link FlightRecorderEvents#supported()
+     * supported}.
+     *
+     * <p>-1 (disabled) by default.
+     */
+    public final long slowRuleThreshold;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If non-null, parses that exceed the latency or backtracking thresholds of this object are
+     * run a second time in full tracing mode, and the result is passed to its callback. See {@link
+     * SlowParseCapture} for details.
+     *
+     * <p>The backtracking threshold counts undone side effects, so backtracking over parsers
+     * without side effects (that only match input) does not count toward it. Failures of the
+     * rerun or callback are recorded in the {@link SlowParseCapture} and do not affect the parse.
+     *
+     * <p>This is not applied by {@link IncrementalParser}.
+     *
+     * <p>Null by default.
+     */
+    public final SlowParseCapture slowParseCapture;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If non-null, the parse maintains a stack of the rules being invoked, which the sampler
+     * periodically snapshots (once {@link ParseSampler#start() started}). See {@link ParseSampler}
+     * for details. A sampler can be shared between concurrent parses.
+     *
+     * <p>Can be combined with the other options.
+     *
+     * <p>Null by default.
+     */
+    public final ParseSampler sampler;
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * A map contain user-defined options.
      */
@@ -116,17 +335,70 @@ public final class ParseOptions
 
     private ParseOptions
         (boolean trace, boolean recordCallStack, boolean wellFormednessCheck,
-         boolean trackWhitespace,
-         Supplier<ParseMetrics> metrics, HashMap<Object, Object> customOptions)
+         boolean trackWhitespace, Supplier<ParseMetrics> metrics, Supplier<ParseCounters> counters,
+         Supplier<ParseEventRecorder> recorder,
+         MemoPolicy memoPolicy, boolean recognize, boolean diagnosticRerun,
+         boolean traceAllocations, boolean traceCallPaths, boolean heatmap,
+         ParseStatistics statistics, boolean flightRecorder, long slowRuleThreshold,
+         SlowParseCapture slowParseCapture, ParseSampler sampler,
+         HashMap<Object, Object> customOptions)
     {
         this.trace = trace;
         this.recordCallStack = recordCallStack;
         this.wellFormednessCheck = wellFormednessCheck;
         this.trackWhitespace = trackWhitespace;
         this.metrics = metrics;
+        this.counters = counters;
+        this.recorder = recorder;
+        this.memoPolicy = memoPolicy;
+        this.recognize = recognize;
+        this.diagnosticRerun = diagnosticRerun;
+        this.traceAllocations = traceAllocations;
+        this.traceCallPaths = traceCallPaths;
+        this.heatmap = heatmap;
+        this.statistics = statistics;
+        this.flightRecorder = flightRecorder;
+        this.slowRuleThreshold = slowRuleThreshold;
+        this.slowParseCapture = slowParseCapture;
+        this.sampler = sampler;
         this.customOptions = customOptions;
     }
 
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a copy of these options, with the given values for {@link #recordCallStack} and
+     * {@link #recognize}. Used to implement {@link #diagnosticRerun}.
+     */
+    ParseOptions withPhase (boolean recordCallStack, boolean recognize)
+    {
+        return new ParseOptions(trace, recordCallStack, wellFormednessCheck, trackWhitespace,
+            metrics, counters, recorder, memoPolicy, recognize, diagnosticRerun, traceAllocations,
+            traceCallPaths, heatmap, statistics, flightRecorder, slowRuleThreshold,
+            slowParseCapture, sampler, customOptions);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a copy of these options that enables full tracing ({@link #trace}, {@link
+     * #traceCallPaths}, {@link #heatmap} and {@link #recordCallStack}) and disables all the options
+     * that record or report to shared objects, or change the parsing mode. Used to implement
+     * {@link #slowParseCapture}.
+     */
+    ParseOptions forCapture()
+    {
+        ParseOptionsBuilder builder = new ParseOptionsBuilder()
+            .traceCallPaths(true) // also enables trace
+            .heatmap(true)
+            .recordCallStack(true)
+            .wellFormednessCheck(false) // already checked by the original parse
+            .trackWhitespace(trackWhitespace)
+            .memoPolicy(memoPolicy);
+        builder.customOptions.putAll(customOptions);
+        return builder.get();
+    }
+
     // =============================================================================================
 
     /**
@@ -150,6 +422,28 @@ public final class ParseOptions
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Enables/disables the {@link ParseOptions#traceAllocations} option.
+     *
+     * <p>Enabling this option also enables {@link ParseOptions#trace}.
+     */
+    public static ParseOptionsBuilder traceAllocations (boolean enabled) {
+        return new ParseOptionsBuilder().traceAllocations(enabled);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Enables/disables the {@link ParseOptions#traceCallPaths} option.
+     *
+     * <p>Enabling this option also enables {@link ParseOptions#trace}.
+     */
+    public static ParseOptionsBuilder traceCallPaths (boolean enabled) {
+        return new ParseOptionsBuilder().traceCallPaths(enabled);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Enables/disables the {@link ParseOptions#recordCallStack} option.
      */
@@ -178,6 +472,107 @@ public final class ParseOptions
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Sets the {@link ParseOptions#counters} option.
+     */
+    public static ParseOptionsBuilder counters (Supplier<ParseCounters> counters) {
+        return new ParseOptionsBuilder().counters(counters);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the {@link ParseOptions#recorder} option.
+     */
+    public static ParseOptionsBuilder recorder (Supplier<ParseEventRecorder> recorder) {
+        return new ParseOptionsBuilder().recorder(recorder);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the {@link ParseOptions#sampler} option.
+     */
+    public static ParseOptionsBuilder sampler (ParseSampler sampler) {
+        return new ParseOptionsBuilder().sampler(sampler);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the {@link ParseOptions#memoPolicy} option.
+     */
+    public static ParseOptionsBuilder memoPolicy (MemoPolicy memoPolicy) {
+        return new ParseOptionsBuilder().memoPolicy(memoPolicy);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Enables/disables the {@link ParseOptions#recognize} option.
+     */
+    public static ParseOptionsBuilder recognize (boolean enabled) {
+        return new ParseOptionsBuilder().recognize(enabled);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Enables/disables the {@link ParseOptions#diagnosticRerun} option.
+     */
+    public static ParseOptionsBuilder diagnosticRerun (boolean enabled) {
+        return new ParseOptionsBuilder().diagnosticRerun(enabled);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Enables/disables the {@link ParseOptions#heatmap} option.
+     */
+    public static ParseOptionsBuilder heatmap (boolean enabled) {
+        return new ParseOptionsBuilder().heatmap(enabled);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the {@link ParseOptions#statistics} option.
+     */
+    public static ParseOptionsBuilder statistics (ParseStatistics statistics) {
+        return new ParseOptionsBuilder().statistics(statistics);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Enables/disables the {@link ParseOptions#flightRecorder} option.
+     */
+    public static ParseOptionsBuilder flightRecorder (boolean enabled) {
+        return new ParseOptionsBuilder().flightRecorder(enabled);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the {@link ParseOptions#slowRuleThreshold} option (in nanoseconds, -1 to disable).
+     *
+     * <p>Setting a non-negative threshold also enables {@link ParseOptions#flightRecorder}.
+     */
+    public static ParseOptionsBuilder slowRuleThreshold (long nanos) {
+        return new ParseOptionsBuilder().slowRuleThreshold(nanos);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Sets the {@link ParseOptions#slowParseCapture} option.
+     */
+    public static ParseOptionsBuilder slowParseCapture (SlowParseCapture capture) {
+        return new ParseOptionsBuilder().slowParseCapture(capture);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Returns a parse options builder with the default options (see {@link ParseOptions}).
      */
@@ -202,10 +597,23 @@ public final class ParseOptions
     public final static class ParseOptionsBuilder
     {
         private boolean trace = false;
+        private boolean traceAllocations = false;
+        private boolean traceCallPaths = false;
         private boolean recordCallStack = false;
         private boolean wellFormednessCheck = true;
         private boolean trackWhitespace = true;
         private Supplier<ParseMetrics> metrics = null;
+        private Supplier<ParseCounters> counters = null;
+        private Supplier<ParseEventRecorder> recorder = null;
+        private MemoPolicy memoPolicy = null;
+        private boolean recognize = false;
+        private boolean diagnosticRerun = false;
+        private boolean heatmap = false;
+        private ParseStatistics statistics = null;
+        private boolean flightRecorder = false;
+        private long slowRuleThreshold = -1;
+        private SlowParseCapture slowParseCapture = null;
+        private ParseSampler sampler = null;
         private final HashMap<Object, Object> customOptions = new HashMap<>();
 
         private ParseOptionsBuilder() {}
@@ -232,6 +640,30 @@ public final class ParseOptions
             return this;
         }
 
+        /**
+         * Enables/disables the {@link ParseOptions#traceAllocations} option.
+         *
+         * <p>Enabling this option also enables {@link ParseOptions#trace}.
+         */
+        public ParseOptionsBuilder traceAllocations (boolean enabled)
+        {
+            traceAllocations = enabled;
+            if (enabled) trace(true);
+            return this;
+        }
+
+        /**
+         * Enables/disables the {@link ParseOptions#traceCallPaths} option.
+         *
+         * <p>Enabling this option also enables {@link ParseOptions#trace}.
+         */
+        public ParseOptionsBuilder traceCallPaths (boolean enabled)
+        {
+            traceCallPaths = enabled;
+            if (enabled) trace(true);
+            return this;
+        }
+
         /**
          * Enables/disables the {@link ParseOptions#recordCallStack} option.
          */
@@ -270,13 +702,118 @@ public final class ParseOptions
             return this;
         }
 
+        /**
+         * Sets the {@link ParseOptions#counters} option.
+         */
+        public ParseOptionsBuilder counters (Supplier<ParseCounters> counters)
+        {
+            this.counters = counters;
+            return this;
+        }
+
+        /**
+         * Sets the {@link ParseOptions#recorder} option.
+         */
+        public ParseOptionsBuilder recorder (Supplier<ParseEventRecorder> recorder)
+        {
+            this.recorder = recorder;
+            return this;
+        }
+
+        /**
+         * Sets the {@link ParseOptions#sampler} option.
+         */
+        public ParseOptionsBuilder sampler (ParseSampler sampler)
+        {
+            this.sampler = sampler;
+            return this;
+        }
+
+        /**
+         * Sets the {@link ParseOptions#memoPolicy} option.
+         */
+        public ParseOptionsBuilder memoPolicy (MemoPolicy memoPolicy)
+        {
+            this.memoPolicy = memoPolicy;
+            return this;
+        }
+
+        /**
+         * Enables/disables the {@link ParseOptions#recognize} option.
+         */
+        public ParseOptionsBuilder recognize (boolean enabled)
+        {
+            recognize = enabled;
+            return this;
+        }
+
+        /**
+         * Enables/disables the {@link ParseOptions#diagnosticRerun} option.
+         */
+        public ParseOptionsBuilder diagnosticRerun (boolean enabled)
+        {
+            diagnosticRerun = enabled;
+            return this;
+        }
+
+        /**
+         * Enables/disables the {@link ParseOptions#heatmap} option.
+         */
+        public ParseOptionsBuilder heatmap (boolean enabled)
+        {
+            heatmap = enabled;
+            return this;
+        }
+
+        /**
+         * Sets the {@link ParseOptions#statistics} option.
+         */
+        public ParseOptionsBuilder statistics (ParseStatistics statistics)
+        {
+            this.statistics = statistics;
+            return this;
+        }
+
+        /**
+         * Enables/disables the {@link ParseOptions#flightRecorder} option.
+         */
+        public ParseOptionsBuilder flightRecorder (boolean enabled)
+        {
+            flightRecorder = enabled;
+            return this;
+        }
+
+        /**
+         * Sets the {@link ParseOptions#slowRuleThreshold} option (in nanoseconds, -1 to disable).
+         *
+         * <p>Setting a non-negative threshold also enables {@link ParseOptions#flightRecorder}.
+         */
+        public ParseOptionsBuilder slowRuleThreshold (long nanos)
+        {
+            slowRuleThreshold = nanos < 0 ? -1 : nanos;
+            if (nanos >= 0) flightRecorder = true;
+            return this;
+        }
+
+        /**
+         * Sets the {@link ParseOptions#slowParseCapture} option.
+         */
+        public ParseOptionsBuilder slowParseCapture (SlowParseCapture capture)
+        {
+            slowParseCapture = capture;
+            return this;
+        }
+
         /**
          * Builds the set of options.
          */
         public ParseOptions get()
         {
             return new ParseOptions(trace, recordCallStack, wellFormednessCheck,
-                trackWhitespace, metrics, customOptions);
+                trackWhitespace, metrics, counters, recorder, memoPolicy, recognize,
+                diagnosticRerun, trace && traceAllocations, trace && traceCallPaths, heatmap,
+                statistics, flightRecorder, flightRecorder ? slowRuleThreshold : -1,
+                slowParseCapture, sampler, customOptions);
         }
     }
 
@@ -116,6 +116,22 @@ public final class ParseResult
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Per-parser counters, if the {@link ParseOptions#counters} option was specified, null
+     * otherwise.
+     */
+    public final ParseCounters parseCounters;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The number of times each input position was examined, if the {@link ParseOptions#heatmap}
+     * option was specified, null otherwise.
+     */
+    public final InputHeatmap heatmap;
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * The value at the top of the value stack if the parse was successful and the value stack
      * is non-empty, null otherwise.
@@ -142,7 +158,9 @@ public final class ParseResult
         ArrayStack<?> valueStack,
         Map<Object, Object> parseStates,
         ParserCallStack errorCallStack,
-        ParseMetrics parseMetrics)
+        ParseMetrics parseMetrics,
+        ParseCounters parseCounters,
+        InputHeatmap heatmap)
     {
         this.success = success;
         this.fullMatch = fullMatch;
@@ -156,6 +174,8 @@ public final class ParseResult
         this.parseStates = parseStates;
         this.errorCallStack = errorCallStack;
         this.parseMetrics = parseMetrics;
+        this.parseCounters = parseCounters;
+        this.heatmap = heatmap;
 
         // Do not make this an assertion, as the parsing failure may provide information as to
         // why this happens.
@@ -0,0 +1,315 @@
+package norswap.autumn;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A sampling profiler for parses running with the {@link ParseOptions#sampler} option.
+ *
+ * <p>Once {@link #start() started}, a daemon thread wakes up every {@link #interval} nanoseconds
+ * and takes a snapshot of the rule stack of every running parse: the rules (parsers with a
+ * non-null {@link Parser#rule()}) that are currently being invoked, from outermost to innermost.
+ * The samples are aggregated into a histogram mapping each rule path to the number of times it
+ * was observed.
+ *
+ * <p>Unlike {@link ParseOptions#trace}, this does not measure the time of each parser invocation,
+ * which badly distorts the timings of small and frequently invoked parsers. Instead, the number of
+ * samples of a path is proportional to the time spent in its innermost rule (excluding the time
+ * spent in nested rules). The per-parse overhead is limited to maintaining a stack of rule ids,
+ * which is cheap enough to be enabled in production.
+ *
+ * <p>The histogram is available as collapsed stacks (see {@link #toCollapsedStacks()}), in the
+ * same format as {@link CallProfile#toCollapsedStacks(CallProfile.Weight)}, which can be turned
+ * into a flame graph. Samples taken while a parse is running but no rule is being invoked are
+ * attributed to {@link CallProfile#ROOT_NAME}. Rule names are recorded the first time a grammar
+ * is parsed with the sampler (or after {@link #clear()}), so that the sampler doesn't keep
+ * grammars reachable once their parses complete.
+ *
+ * <p>A sampler can be shared by concurrent parses. Samples are only accurate to the extent that
+ * the rule stacks of the parses are not modified while they are copied, but the errors caused by
+ * such races are negligible in the aggregate.
+ */
+public final class ParseSampler implements AutoCloseable
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Interval between two samples, in nanoseconds.
+     */
+    public final long interval;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Maps the rule stacks of the running parses to their root parser. */
+    private final Map<RuleStack, Parser> stacks = new ConcurrentHashMap<>();
+
+    /**
+     * Maps the ids of the rules reachable from the roots of the sampled parses to their names.
+     * Written while holding {@link #resolvedRoots}.
+     */
+    private final Map<Integer, String> rules = new ConcurrentHashMap<>();
+
+    /** Ids of the root parsers whose rules have been added to {@link #rules}. */
+    private final Set<Integer> resolvedRoots = ConcurrentHashMap.newKeySet();
+
+    /** Maps the id paths (packed as strings) to their sample count. Guarded by itself. */
+    private final HashMap<String, long[]> histogram = new HashMap<>();
+
+    private long samples = 0;
+    private Thread thread;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new sampler that takes a sample every {@code interval} nanoseconds, once started.
+     */
+    public ParseSampler (long interval)
+    {
+        if (interval <= 0)
+            throw new IllegalArgumentException("interval must be positive: " + interval);
+        this.interval = interval;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new sampler that takes a sample every millisecond, once started.
+     */
+    public ParseSampler() {
+        this(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Starts the sampling thread, if not already started. Returns this object.
+     */
+    public synchronized ParseSampler start()
+    {
+        if (thread != null) return this;
+        thread = new Thread(this::sampleLoop, "autumn-parse-sampler");
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Stops the sampling thread, if started, and waits for it to terminate. The samples taken so
+     * far are kept, and the sampler can be started again.
+     */
+    public void stop()
+    {
+        Thread thread;
+        synchronized (this) {
+            thread = this.thread;
+            this.thread = null;
+        }
+        if (thread == null) return;
+        thread.interrupt();
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try { thread.join(); }
+            catch (InterruptedException e) { interrupted = true; }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Same as {@link #stop()}.
+     */
+    @Override public void close() {
+        stop();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Registers the rule stack of a parse that is about to run {@code root}.
+     *
+     * <p>The first time a root is seen (since the last {@link #clear()}), the names of its
+     * reachable rules are recorded. The sampler does not hold on to the parsers, so that it does
+     * not keep the grammars of past parses reachable.
+     */
+    void register (RuleStack stack, Parser root)
+    {
+        stacks.put(stack, root);
+        if (!resolvedRoots.contains(root.id()))
+            resolveRules(root);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records the names of the rules reachable from {@code root} in {@link #rules}.
+     */
+    private void resolveRules (Parser root)
+    {
+        synchronized (resolvedRoots) {
+            if (!resolvedRoots.add(root.id())) return;
+            Set<Parser> visited = new HashSet<>();
+            ArrayDeque<Parser> queue = new ArrayDeque<>();
+            queue.add(root);
+            while (!queue.isEmpty()) {
+                Parser parser = queue.poll();
+                if (!visited.add(parser)) continue;
+                if (parser.rule() != null)
+                    rules.put(parser.id(), parser.rule());
+                for (Parser child: parser.children())
+                    queue.add(child);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Unregisters the rule stack of a parse that has completed.
+     */
+    void unregister (RuleStack stack) {
+        stacks.remove(stack);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void sampleLoop()
+    {
+        StringBuilder key = new StringBuilder();
+        while (!Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(this, interval);
+            for (RuleStack stack: stacks.keySet()) {
+                key.setLength(0);
+                for (int id: stack.snapshot())
+                    key.append((char) (id >>> 16)).append((char) id);
+                String path = key.toString();
+                synchronized (histogram) {
+                    histogram.computeIfAbsent(path, k -> new long[1])[0] ++;
+                    ++ samples;
+                }
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Total number of samples taken so far.
+     */
+    public long samples()
+    {
+        synchronized (histogram) {
+            return samples;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Discards all samples taken so far, as well as the rule names recorded for the grammars of
+     * past parses.
+     */
+    public void clear()
+    {
+        synchronized (histogram) {
+            histogram.clear();
+            samples = 0;
+        }
+        synchronized (resolvedRoots) {
+            rules.clear();
+            resolvedRoots.clear();
+            for (Parser root: stacks.values())
+                resolveRules(root);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the histogram of samples: a map from rule paths (rule names separated by semicolons,
+     * from outermost to innermost) to their number of samples.
+     */
+    public Map<String, Long> histogram()
+    {
+        Map<String, Long> result = new HashMap<>();
+        synchronized (histogram) {
+            histogram.forEach((path, count) ->
+                result.merge(resolve(path), count[0], Long::sum));
+        }
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String resolve (String path)
+    {
+        if (path.isEmpty())
+            return CallProfile.ROOT_NAME;
+
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < path.length(); i += 2) {
+            int id = path.charAt(i) << 16 | path.charAt(i + 1);
+            String rule = rules.get(id);
+            if (i > 0) b.append(';');
+            b.append(rule != null ? rule : "[unknown rule " + id + "]");
+        }
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the lines of the collapsed stack representation of the samples: one line per rule
+     * path, followed by a space and its number of samples, sorted by decreasing number of samples.
+     */
+    public List<String> collapsedStacks()
+    {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(histogram().entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        List<String> lines = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Long> entry: entries)
+            lines.add(entry.getKey() + " " + entry.getValue());
+        return lines;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the collapsed stack representation of the samples (see {@link #collapsedStacks()}),
+     * with a newline after each line.
+     */
+    public String toCollapsedStacks()
+    {
+        StringBuilder b = new StringBuilder();
+        for (String line: collapsedStacks())
+            b.append(line).append('\n');
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the collapsed stack representation of the samples (see {@link #collapsedStacks()})
+     * to the given file.
+     */
+    public void writeCollapsedStacks (Path path) throws IOException {
+        Files.write(path, collapsedStacks(), StandardCharsets.UTF_8);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
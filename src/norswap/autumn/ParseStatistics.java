@@ -0,0 +1,305 @@
+package norswap.autumn;
+
+import norswap.autumn.parsers.Memo;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe, service-level statistics about parses, collected when the {@link
+ * ParseOptions#statistics} option is set: number of parses, failures (parses that do not fully
+ * match their input), input size, latency distribution and {@link Memo} hits.
+ *
+ * <p>Unlike {@link ParseMetrics}, nothing is recorded per parser, and recording happens only once
+ * per parse, so these statistics are cheap enough to be enabled in production. A single instance
+ * is meant to be shared by all the parses of a service. Use {@link #snapshot()} to read the
+ * statistics, and {@link #snapshotAndReset()} to implement time-windowed reporting.
+ *
+ * <p>Latencies are recorded in a log-linear histogram with 8 buckets per power of two, so
+ * percentiles are accurate to within 12.5%.
+ *
+ * <p>Resetting the statistics affects every consumer: to report on several time windows (e.g. a
+ * JMX monitor and a Prometheus scraper, which expects monotonic counters), never reset, and use
+ * {@link Snapshot#since(Snapshot)} to compute the statistics of a window instead.
+ *
+ * <p>See the {@code norswap.autumn.monitoring} package to expose these statistics through JMX or
+ * to Prometheus.
+ */
+public final class ParseStatistics
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final LongAdder parses      = new LongAdder();
+    private final LongAdder failures    = new LongAdder();
+    private final LongAdder inputSize   = new LongAdder();
+    private final LongAdder memoHits    = new LongAdder();
+    private final LongAdder memoMisses  = new LongAdder();
+    private final LongAdder latencySum  = new LongAdder();
+    private final LongAccumulator latencyMax = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] latencies = new LongAdder[BUCKETS];
+    private volatile long start = System.nanoTime();
+
+    // ---------------------------------------------------------------------------------------------
+
+    public ParseStatistics()
+    {
+        for (int i = 0; i < BUCKETS; ++i)
+            latencies[i] = new LongAdder();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records a parse that yielded {@code result} on an input of size {@code inputSize}, and took
+     * {@code nanos} nanoseconds.
+     */
+    public void record (ParseResult result, int inputSize, long nanos)
+    {
+        parses.increment();
+        if (!result.fullMatch) failures.increment();
+        this.inputSize.add(inputSize);
+        latencySum.add(nanos);
+        latencyMax.accumulate(nanos);
+        latencies[bucket(nanos)].increment();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records the given numbers of memo hits and misses.
+     */
+    void recordMemo (int hits, int misses)
+    {
+        if (hits   != 0) memoHits.add(hits);
+        if (misses != 0) memoMisses.add(misses);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the index of the histogram bucket for the given latency.
+     */
+    private static int bucket (long nanos)
+    {
+        if (nanos < SUB_BUCKETS)
+            return (int) Math.max(nanos, 0);
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the (inclusive) upper bound of the latencies in the given histogram bucket, in
+     * nanoseconds. See {@link Snapshot#histogram()}.
+     */
+    public static long bucketMax (int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = SUB_BUCKETS + bucket % SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a snapshot of the statistics.
+     */
+    public Snapshot snapshot() {
+        return snapshot(false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a snapshot of the statistics, and resets them to zero, starting a new time window.
+     *
+     * <p>As the statistics are independent counters, a parse that completes concurrently with this
+     * call might be only partially included in the snapshot (the rest will appear in the next).
+     */
+    public Snapshot snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Snapshot snapshot (boolean reset)
+    {
+        long now = System.nanoTime();
+        long elapsed = now - start;
+        if (reset) start = now;
+
+        long[] buckets = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i)
+            buckets[i] = reset ? latencies[i].sumThenReset() : latencies[i].sum();
+
+        return new Snapshot(
+            reset ? parses     .sumThenReset() : parses     .sum(),
+            reset ? failures   .sumThenReset() : failures   .sum(),
+            reset ? inputSize  .sumThenReset() : inputSize  .sum(),
+            reset ? memoHits   .sumThenReset() : memoHits   .sum(),
+            reset ? memoMisses .sumThenReset() : memoMisses .sum(),
+            reset ? latencySum .sumThenReset() : latencySum .sum(),
+            reset ? latencyMax .getThenReset() : latencyMax .get(),
+            buckets,
+            elapsed);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString() {
+        return snapshot().toString();
+    }
+
+    // =============================================================================================
+
+    /**
+     * An immutable snapshot of {@link ParseStatistics}, covering the time window since the
+     * statistics were created or last reset (or since an earlier snapshot, see {@link
+     * #since(Snapshot)}).
+     */
+    public static final class Snapshot
+    {
+        /** Number of recorded parses. */
+        public final long parses;
+
+        /** Number of recorded parses that did not fully match their input. */
+        public final long failures;
+
+        /** Total size of the parsed inputs, in characters (code points) or list items. */
+        public final long inputSize;
+
+        /** Number of {@link Memo} lookups that found a memoized result. */
+        public final long memoHits;
+
+        /** Number of {@link Memo} lookups that did not find a memoized result. */
+        public final long memoMisses;
+
+        /** Sum of the latencies of all parses, in nanoseconds. */
+        public final long totalLatency;
+
+        /** Maximum latency of a parse, in nanoseconds. */
+        public final long maxLatency;
+
+        /** Duration of the time window covered by this snapshot, in nanoseconds. */
+        public final long elapsed;
+
+        private final long[] buckets;
+
+        private Snapshot (long parses, long failures, long inputSize, long memoHits,
+                          long memoMisses, long totalLatency, long maxLatency, long[] buckets,
+                          long elapsed)
+        {
+            this.parses = parses;
+            this.failures = failures;
+            this.inputSize = inputSize;
+            this.memoHits = memoHits;
+            this.memoMisses = memoMisses;
+            this.totalLatency = totalLatency;
+            this.maxLatency = maxLatency;
+            this.buckets = buckets;
+            this.elapsed = elapsed;
+        }
+
+        /** Average number of parses per second over the time window. */
+        public double parsesPerSecond() {
+            return elapsed == 0 ? 0 : parses * 1e9 / elapsed;
+        }
+
+        /** Fraction of the parses that did not fully match their input (0 if no parses). */
+        public double failureRate() {
+            return parses == 0 ? 0 : (double) failures / parses;
+        }
+
+        /** Fraction of the memo lookups that found a memoized result (0 if no lookups). */
+        public double memoHitRate() {
+            long lookups = memoHits + memoMisses;
+            return lookups == 0 ? 0 : (double) memoHits / lookups;
+        }
+
+        /** Average latency of a parse, in nanoseconds (0 if no parses). */
+        public double meanLatency() {
+            return parses == 0 ? 0 : (double) totalLatency / parses;
+        }
+
+        /**
+         * Returns a copy of the latency histogram: the number of parses whose latency fell in each
+         * bucket. The latencies in bucket {@code i} are at most {@link #bucketMax(int)
+         * bucketMax(i)} nanoseconds, and greater than {@code bucketMax(i - 1)}.
+         */
+        public long[] histogram() {
+            return buckets.clone();
+        }
+
+        /**
+         * Returns a snapshot of the statistics recorded between {@code earlier} and this snapshot,
+         * both taken from the same {@link ParseStatistics} without resetting it in between.
+         *
+         * <p>The maximum latency within the window is not known exactly: it is estimated as the
+         * upper bound of the highest non-empty histogram bucket, so it is accurate to within
+         * 12.5%.
+         */
+        public Snapshot since (Snapshot earlier)
+        {
+            long[] buckets = new long[BUCKETS];
+            int highest = -1;
+            for (int i = 0; i < BUCKETS; ++i) {
+                buckets[i] = this.buckets[i] - earlier.buckets[i];
+                if (buckets[i] > 0) highest = i;
+            }
+
+            return new Snapshot(
+                parses       - earlier.parses,
+                failures     - earlier.failures,
+                inputSize    - earlier.inputSize,
+                memoHits     - earlier.memoHits,
+                memoMisses   - earlier.memoMisses,
+                totalLatency - earlier.totalLatency,
+                highest < 0 ? 0 : Math.min(bucketMax(highest), maxLatency),
+                buckets,
+                elapsed      - earlier.elapsed);
+        }
+
+        /**
+         * Returns the latency (in nanoseconds) under which the given fraction (between 0 and 1)
+         * of the parses completed, or 0 if there were no parses.
+         */
+        public long latency (double quantile)
+        {
+            long count = 0;
+            for (long bucket: buckets) count += bucket;
+            if (count == 0) return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; ++i) {
+                seen += buckets[i];
+                if (seen >= rank)
+                    return Math.min(bucketMax(i), maxLatency);
+            }
+            return maxLatency;
+        }
+
+        @Override public String toString()
+        {
+            return String.format(
+                "parses: %,d (%.1f/s), failures: %,d (%.2f%%), input size: %,d\n"
+                    + "latency (ms): mean %.3f, p50 %.3f, p90 %.3f, p99 %.3f, max %.3f\n"
+                    + "memo hits: %,d / %,d (%.2f%%)\n",
+                parses, parsesPerSecond(), failures, failureRate() * 100, inputSize,
+                meanLatency() / 1e6, latency(0.5) / 1e6, latency(0.9) / 1e6,
+                latency(0.99) / 1e6, maxLatency / 1e6,
+                memoHits, memoHits + memoMisses, memoHitRate() * 100);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
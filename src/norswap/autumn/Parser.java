@@ -1,5 +1,11 @@
 package norswap.autumn;
 
+import norswap.autumn.memo.MemoEntry;
+import norswap.autumn.memo.MemoPolicy;
+import norswap.autumn.memo.Memoizer;
+import norswap.autumn.monitoring.FlightRecorderEvents;
+import norswap.autumn.util.AllocationUtil;
+
 /**
  * The parent class for all parsers.
  *
@@ -17,7 +23,8 @@ package norswap.autumn;
  * logic. In particular, it automatically restores {@link Parse#pos} and {@link Parse#log} in
  * case of error ({@code doparse} returns false), as well as update {@link Parse#error} (or not,
  * depending on {@link #excludeErrors}). It also handles the logic for some options such
- * as {@link ParseOptions#recordCallStack} and {@link ParseOptions#trace}.
+ * as {@link ParseOptions#recordCallStack}, {@link ParseOptions#trace} and {@link
+ * ParseOptions#memoPolicy}.
  *
  * <p>The requirement on {@link #doparse(Parse)} are then that it returns the appropriate truth
  * value and updates {@link Parse#pos} if successful. It's also important that any global state
@@ -42,6 +49,73 @@ public abstract class Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * The next id to assign, guarded by the lock on {@code Parser.class}.
+     */
+    private static int nextId = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int id = -1;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a unique integer identifying this parser.
+     *
+     * <p>When a parser is first parsed with one of the options that record per-parser data ({@link
+     * ParseOptions#trace}, {@link ParseOptions#counters}, {@link ParseOptions#recorder} or {@link
+     * ParseOptions#sampler}), all parsers reachable from it that don't have an id yet are assigned
+     * a contiguous block of ids. The parsers of a grammar therefore get ids in a small range, which
+     * is used to size the per-parser arrays (e.g. in {@link ParseCounters}). Other parsers are
+     * assigned an id on first request.
+     */
+    public final int id()
+    {
+        int id = this.id;
+        return id >= 0 ? id : assignId();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int assignId()
+    {
+        synchronized (Parser.class) {
+            if (id < 0) id = nextId++;
+            return id;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Assigns a contiguous block of ids to the given parsers that don't have an id yet.
+     */
+    static synchronized void assignIds (Iterable<Parser> parsers)
+    {
+        for (Parser parser: parsers)
+            if (parser.id < 0)
+                parser.id = nextId++;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The cached analysis of the parser graph reachable from this parser, see {@link
+     * GrammarAnalysis#of(Parser)}.
+     */
+    volatile GrammarAnalysis analysis;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The cached id range of the parsers reachable from this parser, see {@link
+     * ParserIds#of(Parser)}.
+     */
+    volatile ParserIds ids;
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Whether to exclude errors (failure to match) from this parser and all its sub-parsers from
      * being used as the furthest error ({@link Parse#error}).
@@ -102,9 +176,25 @@ public abstract class Parser
      */
     public final boolean parse (Parse parse)
     {
+        if (parse.instrumented)
+            return instrumentedParse(parse);
+
         if (parse.options.trace)
             return tracingParse(parse);
 
+        if (parse.skipErrors)
+            return recognizingParse(parse);
+
+        return basicParse(parse);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Implementation of {@link #parse(Parse)} for the case where no special option is enabled.
+     */
+    private boolean basicParse (Parse parse)
+    {
         int pos0 = parse.pos;
         int log0 = parse.log.size();
         int err0 = parse.error;
@@ -114,7 +204,9 @@ public abstract class Parser
         if (parse.options.recordCallStack)
             parse.callStack.push(this, pos0);
 
-        boolean result = doparse(parse);
+        boolean result = parse.memoPolicy == null
+            ? doparse(parse)
+            : policyParse(parse);
 
         if (excludeErrors) {
             parse.error = err0;
@@ -134,7 +226,7 @@ public abstract class Parser
             if (parse.errorMessage == errmsg0)
                 parse.errorMessage = null;
             if (parse.options.recordCallStack)
-                parse.errorCallStack = parse.callStack.clone();
+                parse.errorCallStack = parse.callStack.snapshot();
         }
 
         if (parse.options.recordCallStack)
@@ -150,6 +242,80 @@ public abstract class Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Implementation of {@link #parse(Parse)} that updates the counters, reports slow rule
+     * invocations, records invocation events and maintains the rule stack. See {@link
+     * ParseOptions#counters}, {@link ParseOptions#slowRuleThreshold}, {@link
+     * ParseOptions#recorder} and {@link ParseOptions#sampler} for more info.
+     */
+    private boolean instrumentedParse (Parse parse)
+    {
+        int pos0 = parse.pos;
+        long threshold = rule != null ? parse.slowRuleThreshold : -1;
+        long start = threshold >= 0 ? System.nanoTime() : 0;
+        RuleStack ruleStack = rule != null ? parse.ruleStack : null;
+
+        if (parse.recorder != null)
+            parse.recorder.record(ParseEventRecorder.ENTER, this, pos0);
+
+        if (ruleStack != null)
+            ruleStack.push(id());
+
+        boolean result
+            = parse.options.trace
+                ? tracingParse(parse)
+                : parse.skipErrors
+                    ? recognizingParse(parse)
+                    : basicParse(parse);
+
+        if (ruleStack != null)
+            ruleStack.pop();
+
+        if (threshold >= 0) {
+            long duration = System.nanoTime() - start;
+            if (duration >= threshold)
+                FlightRecorderEvents.slowRule(this, pos0, parse.pos, result, duration);
+        }
+
+        if (parse.recorder != null)
+            parse.recorder.record(
+                result ? ParseEventRecorder.SUCCESS : ParseEventRecorder.FAILURE, this, parse.pos);
+
+        if (parse.parseCounters != null)
+            parse.parseCounters.record(this, result, parse.pos - pos0);
+
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Implementation of {@link #parse(Parse)} for the recognition case and the first phase of
+     * {@link ParseOptions#diagnosticRerun}, which skips the error and call stack bookkeeping. See
+     * {@link ParseOptions#recognize} for more info.
+     */
+    private boolean recognizingParse (Parse parse)
+    {
+        int pos0 = parse.pos;
+        int log0 = parse.log.size();
+
+        boolean result = parse.memoPolicy == null
+            ? doparse(parse)
+            : policyParse(parse);
+
+        if (result)
+            return true;
+
+        parse.pos = pos0;
+
+        if (parse.log.size() > log0)
+            parse.log.rollback(log0);
+
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Implementation of {@link #parse(Parse)} for the tracing case. See {@link ParseOptions#trace}
      * for more info.
@@ -159,22 +325,34 @@ public abstract class Parser
         long time0 = System.nanoTime();
 
         int trace0 = parse.traceTimings.size();
-        ParserMetrics metrics
-            = parse.parseMetrics.metrics.computeIfAbsent(this, k -> new ParserMetrics(this));
+        ParserMetrics metrics = parse.parseMetrics.get(this);
         ++ metrics.invocations;
         ++ metrics.recursiveInvocations;
 
+        boolean allocations = parse.options.traceAllocations;
+        int allocated0 = allocations ? parse.traceAllocated.size() : 0;
+        long bytes0 = allocations ? AllocationUtil.allocatedBytes() : 0;
+
+        CallProfile.Node node0 = parse.profileNode;
+        if (node0 != null && rule != null) {
+            parse.profileNode = node0.child(this);
+            ++ parse.profileNode.invocations;
+        }
+
         long time1 = System.nanoTime();
 
         int pos0 = parse.pos;
         int log0 = parse.log.size();
         int err0 = parse.error;
+        int pending0 = parse.pendingMetrics.size();
         ParserCallStack stk0 = parse.errorCallStack;
 
         if (parse.options.recordCallStack)
             parse.callStack.push(this, pos0);
 
-        boolean result = doparse(parse);
+        boolean result = parse.memoPolicy == null
+            ? doparse(parse)
+            : policyParse(parse);
 
         if (excludeErrors) {
             parse.error = err0;
@@ -189,18 +367,40 @@ public abstract class Parser
             if (!excludeErrors && parse.error <= pos0) {
                 parse.error = pos0;
                 if (parse.options.recordCallStack)
-                    parse.errorCallStack = parse.callStack.clone();
+                    parse.errorCallStack = parse.callStack.snapshot();
             }
 
             if (parse.options.recordCallStack)
                 parse.callStack.pop();
 
+            // the input consumed by this invocation before failing is wasted
+            if (parse.pos > pos0)
+                metrics.wastedInput += parse.pos - pos0;
+
             parse.pos = pos0;
+            metrics.undoneLog += parse.log.size() - log0;
             parse.log.rollback(log0);
         }
 
         long total = System.nanoTime() - time1;
 
+        if (!result) {
+            // the input consumed by the successful children of this invocation is wasted
+            for (int i = parse.pendingMetrics.size(); i > pending0; --i)
+                parse.pendingMetrics.pop().wastedInput += parse.pendingConsumed.pop();
+        }
+        else {
+            // the entries of the children are subsumed by the entry for this invocation
+            for (int i = parse.pendingMetrics.size(); i > pending0; --i) {
+                parse.pendingMetrics.pop();
+                parse.pendingConsumed.pop();
+            }
+            if (parse.pos > pos0) {
+                parse.pendingMetrics.push(metrics);
+                parse.pendingConsumed.push(parse.pos - pos0);
+            }
+        }
+
         long overheads = 0; // cumulative overheads time in children
         long children = 0;  // total time spent in children (including overheads)
         int size = parse.traceTimings.size();
@@ -212,9 +412,28 @@ public abstract class Parser
 
         metrics.selfTime += total - children;
 
-        if (--metrics.recursiveInvocations == 0)
+        if (node0 != null) {
+            parse.profileNode.selfTime += total - children;
+            parse.profileNode = node0;
+        }
+
+        boolean outermost = --metrics.recursiveInvocations == 0;
+
+        if (outermost)
             metrics.totalTime += total - overheads;
 
+        if (allocations) {
+            long allocated = AllocationUtil.allocatedBytes() - bytes0;
+            long childrenAllocated = 0;
+
+            for (int i = parse.traceAllocated.size(); i > allocated0; --i)
+                childrenAllocated += parse.traceAllocated.pop();
+
+            metrics.selfAllocated += allocated - childrenAllocated;
+            if (outermost) metrics.totalAllocated += allocated;
+            parse.traceAllocated.push(allocated);
+        }
+
         overheads += System.nanoTime() - time0 - total;
         parse.traceTimings.push(overheads);
         parse.traceTimings.push(System.nanoTime() - time0);
@@ -224,6 +443,50 @@ public abstract class Parser
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Calls {@link #doparse(Parse)}, memoizing its result if {@link ParseOptions#memoPolicy}
+     * requires it (see {@link MemoPolicy.Resolution#ruleMemoizer}).
+     */
+    private boolean policyParse (Parse parse)
+    {
+        Memoizer memo = parse.memoPolicy.ruleMemoizer(parse, this);
+
+        if (memo == null)
+            return doparse(parse);
+
+        MemoEntry entry = parse.memoLookup(memo, this, null);
+
+        if (entry != null)
+        {
+            if (parse.tracksExamined() && entry.examinedEnd > parse.examined)
+                parse.examined = entry.examinedEnd;
+
+            if (!entry.succeeded())
+                return false;
+
+            parse.pos = entry.endPosition;
+            parse.log.apply(entry.delta);
+            return true;
+        }
+
+        int pos0 = parse.pos;
+        int log0 = parse.log.size();
+        boolean track = parse.tracksExamined();
+        int examined0 = parse.examined;
+        if (track) parse.examined = pos0;
+
+        boolean result = doparse(parse);
+        int examined = track ? Math.max(parse.examined, parse.pos) : Integer.MAX_VALUE;
+
+        memo.memoize(new MemoEntry(
+            result, this, pos0, parse.pos, result ? parse.log.delta(log0) : null, null, examined));
+
+        if (track) parse.examined = Math.max(examined0, examined);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Part of the implementation of the visitor pattern.
      *
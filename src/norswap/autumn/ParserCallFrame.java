@@ -2,6 +2,9 @@ package norswap.autumn;
 
 /**
  * Represents a parser invocation at a certain input position.
+ *
+ * <p>Frames are immutable and linked to the frame of the invoking parser ({@link #caller}), so
+ * that they can be shared between a {@link ParserCallStack} and its snapshots.
  */
 public final class ParserCallFrame
 {
@@ -15,10 +18,27 @@ public final class ParserCallFrame
 
     // ---------------------------------------------------------------------------------------------
 
-    ParserCallFrame (Parser parser, int position)
+    /**
+     * The frame for the invocation of the parser that invoked {@link #parser}, or null if this is
+     * the bottom frame.
+     */
+    public final ParserCallFrame caller;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of frames in the stack whose top is this frame (1 for the bottom frame).
+     */
+    public final int depth;
+
+    // ---------------------------------------------------------------------------------------------
+
+    ParserCallFrame (Parser parser, int position, ParserCallFrame caller)
     {
         this.parser = parser;
         this.position = position;
+        this.caller = caller;
+        this.depth = caller == null ? 1 : caller.depth + 1;
     }
 
     // ---------------------------------------------------------------------------------------------
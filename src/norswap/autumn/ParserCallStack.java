@@ -1,22 +1,140 @@
 package norswap.autumn;
 
 import norswap.autumn.positions.LineMap;
-import norswap.autumn.util.ArrayStack;
 import norswap.utils.Strings;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 /**
  * A stack of {@link ParserCallFrame} representing parser invocations at a certain position.
+ *
+ * <p>The stack is represented as a linked list of immutable frames, which enables taking a
+ * snapshot of the stack in constant time ({@link #snapshot()}): the snapshot shares its frames with
+ * the original stack, and is not affected by subsequent pushes and pops.
+ *
+ * <p>Iteration, as well as {@link #get(int)}, proceeds from the bottom of the stack to its top.
  */
-public final class ParserCallStack extends ArrayStack<ParserCallFrame>
+public final class ParserCallStack implements Iterable<ParserCallFrame>
 {
     // ---------------------------------------------------------------------------------------------
 
+    private ParserCallFrame top;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public ParserCallStack() {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ParserCallStack (ParserCallFrame top) {
+        this.top = top;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Pushes a new call frame onto the stack.
      */
     public void push (Parser parser, int position)
     {
-        push(new ParserCallFrame(parser, position));
+        top = new ParserCallFrame(parser, position, top);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Pops the top frame off the stack and returns it.
+     *
+     * @throws NoSuchElementException if the stack is empty.
+     */
+    public ParserCallFrame pop()
+    {
+        ParserCallFrame frame = peek();
+        top = frame.caller;
+        return frame;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the top frame of the stack.
+     *
+     * @throws NoSuchElementException if the stack is empty.
+     */
+    public ParserCallFrame peek()
+    {
+        if (top == null)
+            throw new NoSuchElementException("empty parser call stack");
+        return top;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the number of frames in the stack.
+     */
+    public int size() {
+        return top == null ? 0 : top.depth;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the stack is empty.
+     */
+    public boolean isEmpty() {
+        return top == null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the frame at the given index, counting from the bottom of the stack. Takes time
+     * proportional to the distance between the frame and the top of the stack.
+     *
+     * @throws IndexOutOfBoundsException if the index is not in {@code [0, size()[}.
+     */
+    public ParserCallFrame get (int index)
+    {
+        int size = size();
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+
+        ParserCallFrame frame = top;
+        for (int i = size - 1; i > index; --i)
+            frame = frame.caller;
+        return frame;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an array containing the frames of the stack, from bottom to top.
+     */
+    public ParserCallFrame[] toArray()
+    {
+        ParserCallFrame[] frames = new ParserCallFrame[size()];
+        int i = frames.length;
+        for (ParserCallFrame frame = top; frame != null; frame = frame.caller)
+            frames[--i] = frame;
+        return frames;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public Iterator<ParserCallFrame> iterator() {
+        return Arrays.asList(toArray()).iterator();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a copy of this stack, in constant time. The copy and the original evolve
+     * independently.
+     */
+    public ParserCallStack snapshot() {
+        return new ParserCallStack(top);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -100,9 +218,11 @@ public final class ParserCallStack extends ArrayStack<ParserCallFrame>
 
     // ---------------------------------------------------------------------------------------------
 
-    @Override public ParserCallStack clone()
-    {
-        return (ParserCallStack) super.clone();
+    /**
+     * Equivalent to {@link #snapshot()}.
+     */
+    @Override public ParserCallStack clone() {
+        return snapshot();
     }
 
     // ---------------------------------------------------------------------------------------------
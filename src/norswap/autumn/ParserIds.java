@@ -0,0 +1,96 @@
+package norswap.autumn;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The range of ids ({@link Parser#id()}) of the parsers reachable from a root parser.
+ *
+ * <p>Obtain instances through {@link #of(Parser)}, which assigns ids to the reachable parsers that
+ * don't have one yet the first time it is called for a given root, and caches the result in the
+ * root parser afterwards. The new ids form a contiguous block, so that the ids of a grammar fall
+ * in a small range ({@link #base}, {@link #size}) regardless of how many other parsers were
+ * created before it. This range is used to size the per-parser arrays of {@link ParseMetrics},
+ * {@link ParseCounters} and {@link ParseEventRecorder} before a parse starts.
+ *
+ * <p>Like {@link GrammarAnalysis}, this assumes that the parser graph does not change after the
+ * first parse. Parsers that are not reachable at that time still get an id on first request, and
+ * the per-parser arrays grow to accommodate them.
+ */
+final class ParserIds
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The lowest id of a parser reachable from the root.
+     */
+    final int base;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The size of the range of ids of the parsers reachable from the root (highest id - {@link
+     * #base} + 1).
+     */
+    final int size;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ParserIds (Parser root)
+    {
+        List<Parser> parsers = new ArrayList<>();
+        new ParserWalker() {
+            @Override protected void work (Parser parser, State state) {
+                if (state == State.BEFORE)
+                    parsers.add(parser);
+            }
+        }
+        .walk(root);
+
+        Parser.assignIds(parsers);
+
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (Parser parser: parsers) {
+            min = Math.min(min, parser.id());
+            max = Math.max(max, parser.id());
+        }
+
+        this.base = min;
+        this.size = max - min + 1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the id range of the parsers reachable from {@code root}, assigning ids to them if
+     * that wasn't done before.
+     */
+    static ParserIds of (Parser root)
+    {
+        // Benign race: ids are assigned under a lock, so concurrent first parses compute the same
+        // range.
+        ParserIds ids = root.ids;
+        if (ids == null)
+            root.ids = ids = new ParserIds(root);
+        return ids;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a copy of {@code array} (an array of any type) of length {@code length}, where each
+     * item has been shifted {@code shift} positions to the right. Used to rebase per-parser arrays
+     * indexed by {@code id - base} when their range of ids changes.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T rebase (T array, int shift, int length)
+    {
+        T copy = (T) Array.newInstance(array.getClass().getComponentType(), length);
+        System.arraycopy(array, 0, copy, shift, Array.getLength(array));
+        return copy;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
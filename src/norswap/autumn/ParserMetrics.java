@@ -1,5 +1,6 @@
 package norswap.autumn;
 
+import norswap.autumn.util.AllocationUtil;
 import java.time.Duration;
 
 /**
@@ -37,6 +38,27 @@ public final class ParserMetrics
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Cumulative number of bytes allocated by the parser, excluding the allocations of its
+     * children, if {@link ParseOptions#traceAllocations} is set (0 otherwise).
+     *
+     * <p>Allocation measurement is approximate (see {@link AllocationUtil#allocatedBytes()}), and
+     * includes some of the allocations made by the tracing machinery itself.
+     */
+    public long selfAllocated = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Cumulative number of bytes allocated by the parser, including the allocations of its
+     * children, if {@link ParseOptions#traceAllocations} is set (0 otherwise).
+     *
+     * <p>As for {@link #totalTime}, recursive invocations are not double-counted.
+     */
+    public long totalAllocated = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Running counter of the number of in-progress invocations (so the parser is recursing
      * when > 1).
@@ -48,7 +70,32 @@ public final class ParserMetrics
     /**
      * Total number of invocations of the parser.
      */
-    public int invocations = 0;
+    public long invocations = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Cumulative amount of input consumed by invocations of the parser that was subsequently
+     * rolled back: either because the invocation failed (the input consumed before failing), or
+     * because the invocation succeeded but its parent invocation failed.
+     *
+     * <p>Successful invocations are only charged when their direct parent fails: if the failure
+     * occurs further up, the waste is charged to the ancestor that is a direct child of the failing
+     * invocation (as well as to the failing invocation itself).
+     *
+     * <p>This measures how much work is wasted on backtracking: a high value indicates that the
+     * parser is often used in a context where it ends up being discarded, which can be remedied by
+     * reordering choices, factoring out common prefixes, or memoizing the parser.
+     */
+    public long wastedInput = 0;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of side effects undone (cf. {@link Log#rollback}) as a result of the failure of
+     * invocations of the parser. Side effects undone by a parser's descendants are not included.
+     */
+    public long undoneLog = 0;
 
     // ---------------------------------------------------------------------------------------------
 
@@ -63,7 +110,11 @@ public final class ParserMetrics
             "parser: " + parser +
             ", self: "  + Duration.ofNanos(selfTime) +
             ", total: " + Duration.ofNanos(totalTime) +
+            ", self alloc: " + String.format("%,d", selfAllocated) +
+            ", total alloc: " + String.format("%,d", totalAllocated) +
             ", invocs:" + String.format("%,d", invocations) +
+            ", wasted: " + String.format("%,d", wastedInput) +
+            ", undone: " + String.format("%,d", undoneLog) +
             '}';
     }
 
@@ -0,0 +1,385 @@
+package norswap.autumn;
+
+import norswap.autumn.visitors.VisitorInputGenerator;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Searches for inputs that make a grammar perform poorly: inputs that maximize the number of parser
+ * invocations per input character. This is the PEG equivalent of searching for regular expression
+ * denial of service (ReDoS) inputs, and is useful to vet grammars before exposing them to untrusted
+ * inputs.
+ *
+ * <p>The fuzzer starts from a population of random inputs generated from the grammar by {@link
+ * VisitorInputGenerator} (which are mostly valid). It then repeatedly picks an input from the
+ * population, mutates it (inserting, deleting or duplicating characters, or inserting input
+ * generated for a random rule), and keeps the mutant in the population if its score is better than
+ * the worst input in the population. Mutations can produce near-valid inputs, which matter because
+ * failing parses often backtrack the most.
+ *
+ * <p>Inputs are parsed in recognition mode ({@link ParseOptions#recognize}) with {@link
+ * ParseOptions#counters}. The score of an input is its number of parser invocations divided by its
+ * length. Inputs are limited to {@link #maxLength} characters, and mutations only grow inputs by a
+ * few characters at a time, so that exponential behaviour is detected before it makes parses
+ * impractically slow. The search stops early if an input exceeds {@link #maxInvocations}.
+ *
+ * <p>{@link #run()} returns the worst inputs found ({@link Finding}), along with the rules
+ * responsible for most invocations. Inputs that cause a stack overflow are reported with an
+ * infinite score.
+ *
+ * <p>The search is deterministic for a given {@link #seed}. Can be run from the command line, see
+ * {@link #main(String[])}.
+ */
+public final class PerformanceFuzzer
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The grammar to fuzz. Parses start from its {@link Grammar#root()}.
+     */
+    public final Grammar grammar;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /** Seed for all random decisions. */
+    public long seed = 0;
+
+    /** Number of mutants to try. */
+    public int iterations = 5_000;
+
+    /** Number of inputs in the population. */
+    public int populationSize = 32;
+
+    /** Max length of the inputs, in characters. */
+    public int maxLength = 256;
+
+    /** Max number of characters inserted or duplicated by a single mutation. */
+    public int maxGrowth = 8;
+
+    /** Max depth for the generator, see {@link VisitorInputGenerator#maxDepth}. */
+    public int maxDepth = 12;
+
+    /** The search stops once an input causes more invocations than this. */
+    public long maxInvocations = 10_000_000;
+
+    /** Number of findings returned by {@link #run()}. */
+    public int findings = 5;
+
+    /** Number of rules reported per finding. */
+    public int rules = 5;
+
+    /** If non-null, progress is reported to this stream. */
+    public PrintStream log = null;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public PerformanceFuzzer (Grammar grammar) {
+        this.grammar = grammar;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A rule, along with the number of times it was invoked while parsing a {@link Finding}.
+     */
+    public static final class RuleCount
+    {
+        public final Parser parser;
+        public final long invocations;
+
+        RuleCount (Parser parser, long invocations) {
+            this.parser = parser;
+            this.invocations = invocations;
+        }
+
+        @Override public String toString() {
+            return String.format("%s: %,d", parser, invocations);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * An input found by the fuzzer, along with its cost.
+     */
+    public static final class Finding
+    {
+        /** The input. */
+        public final String input;
+
+        /** Whether the input is fully matched by the grammar. */
+        public final boolean fullMatch;
+
+        /** Total number of parser invocations while parsing the input. */
+        public final long invocations;
+
+        /** Invocations per input character (infinite if the parse overflowed the stack). */
+        public final double score;
+
+        /** The rules with the most invocations, in decreasing order of invocations. */
+        public final List<RuleCount> rules;
+
+        Finding (String input, boolean fullMatch, long invocations, double score,
+                 List<RuleCount> rules)
+        {
+            this.input = input;
+            this.fullMatch = fullMatch;
+            this.invocations = invocations;
+            this.score = score;
+            this.rules = rules;
+        }
+
+        @Override public String toString()
+        {
+            StringBuilder b = new StringBuilder();
+            b.append(String.format("score: %.1f invocations/char (%,d invocations, %d chars, %s)\n",
+                score, invocations, input.length(), fullMatch ? "valid" : "invalid"));
+            b.append("input: ").append(escape(input)).append("\n");
+            for (RuleCount rule: rules)
+                b.append("  ").append(rule).append("\n");
+            return b.toString();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Random random;
+    private VisitorInputGenerator generator;
+    private List<Parser> namedRules;
+    private ParseOptions options;
+    private final ParseCounters counters = new ParseCounters();
+    private final List<Finding> population = new ArrayList<>();
+    private final List<Finding> best = new ArrayList<>();
+    private final Set<String> seen = new HashSet<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the search and returns the worst inputs found, worst first.
+     */
+    public List<Finding> run()
+    {
+        random = new Random(seed);
+        generator = new VisitorInputGenerator(random);
+        generator.maxDepth = maxDepth;
+        population.clear();
+        best.clear();
+        seen.clear();
+
+        grammar.makeRuleNames();
+        // checks well-formedness
+        Autumn.parse(grammar, "", ParseOptions.get());
+        namedRules = namedRules();
+        options = ParseOptions
+            .wellFormednessCheck(false)
+            .recognize(true)
+            .counters(() -> counters)
+            .get();
+
+        Parser root = grammar.root().getParser();
+
+        for (int i = 0; population.size() < populationSize && i < populationSize * 10; ++i) {
+            String input = generator.generate(root);
+            if (input != null && input.length() <= maxLength)
+                consider(input);
+        }
+
+        if (population.isEmpty())
+            consider("");
+
+        for (int i = 0; i < iterations; ++i)
+        {
+            if (best.get(0).invocations > maxInvocations) {
+                if (log != null) log.println("stopping: invocation limit exceeded");
+                break;
+            }
+
+            String mutant = mutate(select().input);
+            if (mutant != null && mutant.length() <= maxLength)
+                consider(mutant);
+
+            if (log != null && (i + 1) % 1000 == 0)
+                log.printf("%,d iterations, best score: %.1f%n", i + 1, best.get(0).score);
+        }
+
+        return new ArrayList<>(best);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private List<Parser> namedRules()
+    {
+        List<Parser> rules = new ArrayList<>();
+        new ParserWalker() {
+            @Override protected void work (Parser parser, State state) {
+                if (state == State.BEFORE && parser.rule() != null)
+                    rules.add(parser);
+            }
+        }
+        .walk(grammar.root().getParser());
+        return rules;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the best of two random inputs from the population.
+     */
+    private Finding select()
+    {
+        Finding a = population.get(random.nextInt(population.size()));
+        Finding b = population.get(random.nextInt(population.size()));
+        return a.score >= b.score ? a : b;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String mutate (String input)
+    {
+        int pos = random.nextInt(input.length() + 1);
+        switch (random.nextInt(5))
+        {
+            case 0: // insert a character from the input or the generator's alphabet
+            {
+                String source = input.isEmpty() || random.nextBoolean()
+                    ? generator.alphabet
+                    : input;
+                char c = source.charAt(random.nextInt(source.length()));
+                return input.substring(0, pos) + c + input.substring(pos);
+            }
+            case 1: // delete a range
+            {
+                if (input.isEmpty()) return null;
+                int end = Math.min(input.length(), pos + 1 + random.nextInt(maxGrowth));
+                return input.substring(0, Math.min(pos, input.length() - 1)) + input.substring(end);
+            }
+            case 2: // duplicate a range
+            {
+                if (input.isEmpty()) return null;
+                int start = random.nextInt(input.length());
+                int end = Math.min(input.length(), start + 1 + random.nextInt(maxGrowth));
+                return input.substring(0, pos) + input.substring(start, end) + input.substring(pos);
+            }
+            case 3: // replace a character
+            {
+                if (input.isEmpty()) return null;
+                int i = Math.min(pos, input.length() - 1);
+                char c = generator.alphabet.charAt(random.nextInt(generator.alphabet.length()));
+                return input.substring(0, i) + c + input.substring(i + 1);
+            }
+            default: // insert input for a random rule
+            {
+                if (namedRules.isEmpty()) return null;
+                Parser rule = namedRules.get(random.nextInt(namedRules.size()));
+                String fragment = generator.generate(rule);
+                if (fragment == null || fragment.length() > maxGrowth) return null;
+                return input.substring(0, pos) + fragment + input.substring(pos);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Evaluates the input, and adds it to the population and the findings if it is bad enough.
+     */
+    private void consider (String input)
+    {
+        if (!seen.add(input)) return;
+        Finding finding = evaluate(input);
+
+        if (population.size() < populationSize)
+            population.add(finding);
+        else {
+            Finding worst = population.stream().min(Comparator.comparingDouble(f -> f.score)).get();
+            if (finding.score <= worst.score) return;
+            population.set(population.indexOf(worst), finding);
+        }
+
+        best.add(finding);
+        best.sort(Comparator.comparingDouble((Finding f) -> f.score).reversed());
+        if (best.size() > findings)
+            best.remove(best.size() - 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Finding evaluate (String input)
+    {
+        counters.clear();
+        boolean fullMatch;
+        boolean overflow = false;
+
+        try {
+            fullMatch = Autumn.parse(grammar, input, options).fullMatch;
+        } catch (StackOverflowError e) {
+            fullMatch = false;
+            overflow = true;
+        } catch (RuntimeException e) {
+            // thrown by a custom parser that did not expect this input
+            fullMatch = false;
+        }
+
+        long invocations = 0;
+        for (Parser parser: counters.parsers())
+            invocations += counters.invocations(parser);
+
+        double score = overflow
+            ? Double.POSITIVE_INFINITY
+            : (double) invocations / Math.max(1, input.length());
+
+        List<Parser> candidates = namedRules.isEmpty() ? counters.parsers() : namedRules;
+        List<RuleCount> top = new ArrayList<>();
+        for (Parser parser: candidates) {
+            long count = counters.invocations(parser);
+            if (count > 0) top.add(new RuleCount(parser, count));
+        }
+        top.sort(Comparator.comparingLong((RuleCount r) -> r.invocations).reversed());
+
+        return new Finding(input, fullMatch, invocations, score,
+            new ArrayList<>(top.subList(0, Math.min(rules, top.size()))));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String escape (String input)
+    {
+        return '"' + input
+            .replace("\\", "\\\\")
+            .replace("\"", "\\\"")
+            .replace("\n", "\\n")
+            .replace("\t", "\\t") + '"';
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Usage: {@code PerformanceFuzzer <grammar class> [<iterations> [<seed>]]}
+     *
+     * <p>The grammar class must have a public no-argument constructor. Prints the worst inputs
+     * found on the standard output.
+     */
+    public static void main (String[] args) throws Exception
+    {
+        if (args.length < 1) {
+            System.err.println("usage: PerformanceFuzzer <grammar class> [<iterations> [<seed>]]");
+            System.exit(1);
+        }
+
+        Grammar grammar = (Grammar) Class.forName(args[0]).getConstructor().newInstance();
+        PerformanceFuzzer fuzzer = new PerformanceFuzzer(grammar);
+        if (args.length > 1) fuzzer.iterations = Integer.parseInt(args[1]);
+        if (args.length > 2) fuzzer.seed = Long.parseLong(args[2]);
+        fuzzer.log = System.out;
+
+        for (Finding finding: fuzzer.run())
+            System.out.println(finding);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,58 @@
+package norswap.autumn;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stack of the ids ({@link Parser#id()}) of the rules being invoked by a parse, maintained when
+ * {@link ParseOptions#sampler} is set, and read concurrently by the {@link ParseSampler} thread.
+ *
+ * <p>This is much cheaper than {@link ParserCallStack}: only rules are pushed, no objects are
+ * allocated, and the depth is published with an ordered (lazy) write rather than a volatile one.
+ * The sampler may therefore observe a slightly outdated or torn stack, which is acceptable for
+ * sampling purposes.
+ */
+final class RuleStack
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private volatile int[] ids = new int[64];
+    private final AtomicInteger depth = new AtomicInteger();
+
+    // ---------------------------------------------------------------------------------------------
+
+    void push (int id)
+    {
+        int d = depth.get();
+        int[] ids = this.ids;
+        if (d == ids.length)
+            this.ids = ids = Arrays.copyOf(ids, d * 2);
+        ids[d] = id;
+        depth.lazySet(d + 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    void pop() {
+        depth.lazySet(depth.get() - 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    void clear() {
+        depth.lazySet(0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a copy of the current stack, from bottom to top. Safe to call from another thread.
+     */
+    int[] snapshot()
+    {
+        int[] ids = this.ids;
+        return Arrays.copyOf(ids, Math.min(depth.get(), ids.length));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
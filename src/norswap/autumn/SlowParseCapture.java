@@ -0,0 +1,275 @@
+package norswap.autumn;
+
+import norswap.autumn.positions.LineMapString;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Captures the parses that exceed a latency or backtracking threshold, for use with {@link
+ * ParseOptions#slowParseCapture}.
+ *
+ * <p>When a parse exceeds one of the thresholds, its input is parsed a second time with the same
+ * root parser, in full tracing mode ({@link ParseOptions#trace}, {@link
+ * ParseOptions#traceCallPaths}, {@link ParseOptions#heatmap} and {@link
+ * ParseOptions#recordCallStack}), and a {@link SlowParse} holding the input, the original
+ * options and both results is passed to the callback. The callback runs synchronously on the
+ * parsing thread, after the rerun, and before the original result is returned.
+ *
+ * <p>Backtracking is measured as the number of side effects that were undone during the parse
+ * ({@link Log#undone()}), as this is tracked even when tracing is off. This only accounts for
+ * backtracking over parsers that have side effects (e.g. pushing values): backtracking over
+ * parsers that merely match input is not detected, no matter how much input is re-read. Use the
+ * latency threshold to catch such parses.
+ *
+ * <p>Failures of the rerun or of the callback never affect the original parse: they are caught,
+ * counted ({@link #failures()}), and the last one is available through {@link #lastFailure()}.
+ *
+ * <p>Since the rerun is expensive, at most {@link #limit} parses are captured (after which the
+ * capture does nothing, until {@link #resetLimit()} is called).
+ *
+ * <p>Use {@link #toDirectory(Path)} to obtain a callback that writes the captures to a directory.
+ */
+public final class SlowParseCapture
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A parse that was captured for exceeding a threshold.
+     */
+    public static final class SlowParse
+    {
+        /** The root parser. */
+        public final Parser parser;
+
+        /** The input string, or null if the input is a list. */
+        public final String string;
+
+        /** The input list, or null if the input is a string. */
+        public final List<?> list;
+
+        /** The options of the original parse. */
+        public final ParseOptions options;
+
+        /** The result of the original parse. */
+        public final ParseResult result;
+
+        /** The latency of the original parse, in nanoseconds. */
+        public final long latency;
+
+        /** The number of side effects undone during the original parse. */
+        public final long undoneLog;
+
+        /**
+         * The result of the tracing rerun, whose {@link ParseResult#parseMetrics} and {@link
+         * ParseResult#heatmap} are non-null.
+         */
+        public final ParseResult traced;
+
+        SlowParse (Parser parser, String string, List<?> list, ParseOptions options,
+                   ParseResult result, long latency, long undoneLog, ParseResult traced)
+        {
+            this.parser = parser;
+            this.string = string;
+            this.list = list;
+            this.options = options;
+            this.result = result;
+            this.latency = latency;
+            this.undoneLog = undoneLog;
+            this.traced = traced;
+        }
+
+        /**
+         * Returns a short textual summary of the captured parse.
+         */
+        public String summary()
+        {
+            return String.format(
+                "parser: %s\ninput size: %,d\nlatency: %.3f ms\nundone side effects: %,d\n"
+                    + "success: %s\nfull match: %s\nerror offset: %d\n",
+                parser, string != null ? string.length() : list.size(), latency / 1e6, undoneLog,
+                result.success, result.fullMatch, result.errorOffset);
+        }
+
+        /**
+         * Writes the captured parse to the given directory (created if needed), as the following
+         * files: {@code summary.txt} ({@link #summary()}), {@code input.txt} (the input string, or
+         * the input list with one item per line), {@code metrics.txt} (the {@link ParseMetrics}),
+         * {@code heatmap.txt} (the {@link InputHeatmap#report} with 50 hotspots) and {@code
+         * call-paths.txt} (the {@link CallProfile} as collapsed stacks weighted by self time).
+         */
+        public void write (Path directory) throws IOException
+        {
+            Files.createDirectories(directory);
+            write(directory.resolve("summary.txt"), summary());
+
+            if (string != null)
+                write(directory.resolve("input.txt"), string);
+            else {
+                List<String> lines = new ArrayList<>();
+                for (Object item: list) lines.add(String.valueOf(item));
+                Files.write(directory.resolve("input.txt"), lines, StandardCharsets.UTF_8);
+            }
+
+            ParseMetrics metrics = traced.parseMetrics;
+            write(directory.resolve("metrics.txt"), metrics.toString());
+            write(directory.resolve("heatmap.txt"), traced.heatmap.report(
+                string != null ? new LineMapString("input.txt", string) : null, 50));
+            metrics.callProfile.writeCollapsedStacks(
+                directory.resolve("call-paths.txt"), CallProfile.Weight.SELF_TIME);
+        }
+
+        private static void write (Path path, String text) throws IOException {
+            Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses that take at least this many nanoseconds are captured. Disabled if negative.
+     */
+    public final long latencyThreshold;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses that undo at least this many side effects are captured. Disabled if negative.
+     */
+    public final long backtrackingThreshold;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The maximum number of parses to capture.
+     */
+    public final int limit;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Receives the captured parses.
+     */
+    public final Consumer<SlowParse> callback;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final AtomicInteger captured = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile Throwable lastFailure;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public SlowParseCapture (long latencyThreshold, long backtrackingThreshold, int limit,
+                             Consumer<SlowParse> callback)
+    {
+        this.latencyThreshold = latencyThreshold;
+        this.backtrackingThreshold = backtrackingThreshold;
+        this.limit = limit;
+        this.callback = callback;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a callback that writes each captured parse (see {@link SlowParse#write(Path)}) to a
+     * new subdirectory of {@code directory}, named after the capture time and a sequence number.
+     *
+     * <p>I/O errors are wrapped in {@link UncheckedIOException}, which is recorded as a capture
+     * failure (see {@link #lastFailure()}).
+     */
+    public static Consumer<SlowParse> toDirectory (Path directory)
+    {
+        AtomicLong sequence = new AtomicLong();
+        return slowParse -> {
+            String name = String.format("slow-parse-%d-%d",
+                System.currentTimeMillis(), sequence.incrementAndGet());
+            try {
+                slowParse.write(directory.resolve(name));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of parses captured so far (since the last {@link #resetLimit()}).
+     */
+    public int captured() {
+        return Math.min(captured.get(), limit);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of captures that failed because the tracing rerun or the callback threw an exception.
+     */
+    public int failures() {
+        return failures.get();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The exception thrown by the last failed capture (see {@link #failures()}), or null.
+     */
+    public Throwable lastFailure() {
+        return lastFailure;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Resets the number of captured parses, allowing {@link #limit} more parses to be captured.
+     */
+    public void resetLimit() {
+        captured.set(0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether a parse with the given latency and number of undone side effects exceeds a
+     * threshold, and the capture limit has not been reached.
+     */
+    boolean shouldCapture (long latency, long undone)
+    {
+        return (latencyThreshold >= 0 && latency >= latencyThreshold
+                || backtrackingThreshold >= 0 && undone >= backtrackingThreshold)
+            && captured.get() < limit;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Reruns the parse in tracing mode and hands it over to the callback, unless the capture limit
+     * was reached concurrently. Never throws, see {@link #failures()}.
+     */
+    void capture (Parser parser, String string, List<?> list, ParseOptions options,
+                  ParseResult result, long latency, long undone)
+    {
+        if (captured.getAndIncrement() >= limit)
+            return;
+
+        try {
+            ParseResult traced = Parse.run(parser, new Parse(string, list, options.forCapture()));
+            callback.accept(
+                new SlowParse(parser, string, list, options, result, latency, undone, traced));
+        }
+        catch (RuntimeException | StackOverflowError e) {
+            lastFailure = e;
+            failures.incrementAndGet();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -82,6 +82,12 @@ public final class MemoCache implements Memoizer
 
     // ---------------------------------------------------------------------------------------------
 
+    @Override public MemoCache emptyCopy() {
+        return new MemoCache(numSlots, matchParser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private String string (String sep, Function<MemoEntry, String> f)
     {
         MemoEntry[] entries = this.entries.clone();
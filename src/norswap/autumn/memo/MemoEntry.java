@@ -1,6 +1,9 @@
 package norswap.autumn.memo;
 
+import norswap.autumn.Parse;
+import norswap.autumn.positions.Edit;
 import norswap.autumn.positions.LineMap;
+import norswap.autumn.positions.Span;
 import norswap.autumn.Parser;
 import norswap.autumn.SideEffect;
 import norswap.autumn.parsers.Memo;
@@ -36,6 +39,12 @@ public final class MemoEntry
     /** User-defined contextual information. */
     public final Object ctx;
 
+    /**
+     * One past the furthest input position examined to compute this entry (cf. {@link
+     * Parse#examined}), or {@link Integer#MAX_VALUE} if unknown.
+     */
+    public final int examinedEnd;
+
     // ---------------------------------------------------------------------------------------------
 
     /**
@@ -45,13 +54,27 @@ public final class MemoEntry
      */
     public MemoEntry (
         boolean success, Parser parser, int startPosition, int endPosition,
-        List<SideEffect> delta, Object ctx)
+        List<SideEffect> delta, Object ctx, int examinedEnd)
     {
         this.parser = parser;
         this.startPosition = startPosition;
         this.endPosition = success ? endPosition : -1;
         this.delta = success ? delta : Collections.emptyList();
         this.ctx = ctx;
+        this.examinedEnd = examinedEnd;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Same as {@link #MemoEntry(boolean, Parser, int, int, List, Object, int)} with an unknown
+     * {@link #examinedEnd}.
+     */
+    public MemoEntry (
+        boolean success, Parser parser, int startPosition, int endPosition,
+        List<SideEffect> delta, Object ctx)
+    {
+        this(success, parser, startPosition, endPosition, delta, ctx, Integer.MAX_VALUE);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -66,6 +89,34 @@ public final class MemoEntry
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns an entry equivalent to this one for the input that results from applying {@code
+     * edit}, or null if the entry might not be valid anymore.
+     *
+     * <p>Entries that only examined input before the edit are returned as-is. Entries that start
+     * after the removed range are shifted by {@link Edit#shift()} — unless {@code shiftEffects} is
+     * false and the entry has side effects. This is because the side effects are replayed as they
+     * were recorded: any position they captured (e.g. in the {@link Span} of an AST node) refers
+     * to the input before the edit.
+     */
+    public MemoEntry relocate (Edit edit, boolean shiftEffects)
+    {
+        if (examinedEnd <= edit.offset)
+            return this;
+
+        if (startPosition < edit.end() || !shiftEffects && !delta.isEmpty())
+            return null;
+
+        int shift = edit.shift();
+        if (shift == 0)
+            return this;
+
+        return new MemoEntry(succeeded(), parser, startPosition + shift, endPosition + shift,
+            delta, ctx, examinedEnd == Integer.MAX_VALUE ? examinedEnd : examinedEnd + shift);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Indicates whether this entry matches the passed parameters: same starting position, same
      * parser if {@code matcherParser} is true and same context (may be null).
@@ -0,0 +1,452 @@
+package norswap.autumn.memo;
+
+import norswap.autumn.Parse;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseState;
+import norswap.autumn.Parser;
+import norswap.autumn.ParserWalker;
+import norswap.autumn.parsers.Memo;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * A memoization policy overrides, per rule name, the {@link Memoizer} used by {@link Memo}
+ * parsers, without having to rebuild the grammar. Pass it to a parse using {@link
+ * ParseOptions#memoPolicy}.
+ *
+ * <p>For each rule name, the policy can specify a {@link Setting}: either disable memoization
+ * altogether ({@link Setting#NONE}), memoize in a {@link MemoTable} ({@link Setting#TABLE}) or
+ * memoize in a {@link MemoCache} with a given number of slots ({@link Setting#cache(int)}).
+ * {@code Memo} parsers whose rule name does not appear in the policy use the memoizer they were
+ * built with.
+ *
+ * <p>The policy can also add memoization to rules that are not {@code Memo} parsers: if such a
+ * rule is given a {@link Setting#TABLE} or cache setting, {@link Parser#parse(Parse)} memoizes
+ * its results (a {@link Setting#NONE} setting has no effect on these rules). Since there is no
+ * context extractor in that case (cf. {@link Memo#contextExtractor}), this should only be done
+ * for rules whose result does not depend on the parse state.
+ *
+ * <p>The memoizers created by the policy never match on the parser ({@code matchParser == false}),
+ * just like those created by {@link norswap.autumn.Grammar.rule#memo()} and {@link
+ * norswap.autumn.Grammar.rule#memo(int)}.
+ *
+ * <p>The first parse of a grammar with a policy resolves the settings of the parsers reachable
+ * from its root ({@link #resolve(Parser)}), so that during the parse, finding the memoizer of a
+ * parser is an array access indexed by parser id, with no lookup by rule name nor locking.
+ *
+ * <p>Policies are immutable (besides this cache) and may be shared between concurrent parses.
+ * Build them using {@link #builder()}.
+ *
+ * <p>The string representation of a policy ({@link #toString()}) lists one {@code rule = setting}
+ * pair per line, using the setting format described in {@link Setting#toString()}. This format
+ * is compatible with {@link Properties} files, and can be read back using {@link #parse(String)},
+ * {@link #load(Path)} or {@link #fromProperties(Properties)}, making it possible to tune
+ * memoization from a configuration file: since options are supplied anew for each parse, a new
+ * policy takes effect (or is rolled back) on the next parse.
+ */
+public final class MemoPolicy
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A memoization setting for a single rule. Use {@link #NONE}, {@link #TABLE} or {@link
+     * #cache(int)} to obtain instances.
+     */
+    public static final class Setting
+    {
+        /** Disables memoization. */
+        public static final Setting NONE = new Setting(-1);
+
+        /** Memoizes every result in a {@link MemoTable}. */
+        public static final Setting TABLE = new Setting(0);
+
+        /**
+         * The number of slots of the {@link MemoCache} for cache settings, 0 for {@link #TABLE}
+         * and -1 for {@link #NONE}.
+         */
+        public final int slots;
+
+        private Setting (int slots) {
+            this.slots = slots;
+        }
+
+        /**
+         * Returns a setting that memoizes results in a {@link MemoCache} with {@code n} slots
+         * (must be strictly positive).
+         */
+        public static Setting cache (int n)
+        {
+            if (n <= 0) throw new IllegalArgumentException
+                ("A memo cache must have a strictly positive number of entries.");
+            return new Setting(n);
+        }
+
+        /**
+         * Returns a fresh memoizer for this setting, or null for {@link #NONE}.
+         */
+        public Memoizer memoizer()
+        {
+            return slots < 0
+                ? null
+                : slots == 0
+                    ? new MemoTable(false)
+                    : new MemoCache(slots, false);
+        }
+
+        @Override public boolean equals (Object o) {
+            return o instanceof Setting && ((Setting) o).slots == slots;
+        }
+
+        @Override public int hashCode() {
+            return slots;
+        }
+
+        /**
+         * Returns {@code "none"}, {@code "table"} or {@code "cache:<n>"}.
+         */
+        @Override public String toString()
+        {
+            return slots < 0
+                ? "none"
+                : slots == 0
+                    ? "table"
+                    : "cache:" + slots;
+        }
+
+        /**
+         * Parses a setting from the format output by {@link #toString()} (ignoring leading and
+         * trailing whitespace and case).
+         *
+         * @throws IllegalArgumentException if the string is not a valid setting.
+         */
+        public static Setting parse (String string)
+        {
+            String str = string.trim().toLowerCase();
+            if (str.equals("none"))  return NONE;
+            if (str.equals("table")) return TABLE;
+
+            if (str.startsWith("cache:")) {
+                try {
+                    return cache(Integer.parseInt(str.substring("cache:".length()).trim()));
+                } catch (NumberFormatException e) {
+                    // fall through
+                }
+            }
+
+            throw new IllegalArgumentException("Invalid memoization setting: " + string);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Maps rule names to their memoization setting.
+     */
+    public final Map<String, Setting> settings;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Maps root parsers to the resolution of this policy for the parsers reachable from them.
+     *
+     * <p>Weakly keyed, so that a long-lived policy does not retain the parsers of discarded
+     * grammars. Resolutions don't reference the parsers, and the memoizers themselves are only
+     * held by the {@link Parse} objects.
+     */
+    private final Map<Parser, Resolution> resolutions
+        = Collections.synchronizedMap(new WeakHashMap<>());
+
+    // ---------------------------------------------------------------------------------------------
+
+    private MemoPolicy (Map<String, Setting> settings) {
+        this.settings = Collections.unmodifiableMap(new TreeMap<>(settings));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the setting for the given parser (based on its rule name), or null if the policy
+     * does not specify any.
+     */
+    public Setting setting (Parser parser)
+    {
+        String rule = parser.rule();
+        return rule == null ? null : settings.get(rule);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the resolution of this policy for the parsers reachable from {@code root}, computing
+     * it the first time this is called for a given root. Called once at the start of every parse
+     * that uses this policy.
+     *
+     * <p>Like {@link norswap.autumn.GrammarAnalysis}, this assumes that the parser graph does not
+     * change after the first parse: the policy does not apply to parsers that were not reachable
+     * from the root at that time, and rule names must be assigned before that.
+     */
+    public Resolution resolve (Parser root)
+    {
+        // Benign race: concurrent first parses may both resolve the policy, but only the first
+        // resolution is kept, so that all parses use the same memoizer parse states.
+        Resolution resolution = resolutions.get(root);
+        if (resolution == null) {
+            Resolution fresh = new Resolution(this, root);
+            resolution = resolutions.putIfAbsent(root, fresh);
+            if (resolution == null) resolution = fresh;
+        }
+        return resolution;
+    }
+
+    // =============================================================================================
+
+    /**
+     * The settings of a {@link MemoPolicy} resolved for the parsers reachable from a root parser,
+     * stored in an array indexed by parser id ({@link Parser#id()}). This makes finding the
+     * memoizer of a parser during a parse an array access, instead of a lookup by rule name.
+     * Obtain through {@link MemoPolicy#resolve(Parser)}.
+     */
+    public static final class Resolution
+    {
+        /** Marks {@code Memo} parsers whose memoization is disabled by the policy. */
+        private static final ParseState<Memoizer> DISABLED = new ParseState<>(new Object(), () -> {
+            throw new IllegalStateException("disabled memoizer");
+        });
+
+        private final int base;
+
+        /**
+         * Parse states holding the memoizer created by the policy for each parser (indexed by
+         * {@code id - base}), {@link #DISABLED} for {@code Memo} parsers with a {@link
+         * Setting#NONE} setting, and null for parsers not affected by the policy.
+         */
+        private final ParseState<Memoizer>[] states;
+
+        @SuppressWarnings("unchecked")
+        private Resolution (MemoPolicy policy, Parser root)
+        {
+            List<Parser> parsers = new ArrayList<>();
+            new ParserWalker() {
+                @Override protected void work (Parser parser, State state) {
+                    if (state == State.BEFORE && policy.setting(parser) != null)
+                        parsers.add(parser);
+                }
+            }
+            .walk(root);
+
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (Parser parser: parsers) {
+                min = Math.min(min, parser.id());
+                max = Math.max(max, parser.id());
+            }
+
+            this.base = parsers.isEmpty() ? 0 : min;
+            this.states = new ParseState[parsers.isEmpty() ? 0 : max - min + 1];
+
+            for (Parser parser: parsers) {
+                Setting setting = policy.setting(parser);
+                states[parser.id() - base] = setting != Setting.NONE
+                    ? new ParseState<>(new Object(), setting::memoizer)
+                    : parser instanceof Memo ? DISABLED : null;
+            }
+        }
+
+        private ParseState<Memoizer> state (Parser parser)
+        {
+            int i = parser.id() - base;
+            return i >= 0 && i < states.length ? states[i] : null;
+        }
+
+        /**
+         * Returns the memoizer to be used by {@code memo} during {@code parse}: either the one
+         * created for it by the policy, the one it was built with ({@link Memo#memoizer}) if the
+         * policy does not specify a setting for it, or null if the policy disables its
+         * memoization.
+         */
+        public Memoizer memoizer (Parse parse, Memo memo)
+        {
+            ParseState<Memoizer> state = state(memo);
+            return state == null
+                ? memo.memoizer.data(parse)
+                : state == DISABLED
+                    ? null
+                    : state.data(parse);
+        }
+
+        /**
+         * Returns the memoizer to be used by {@link Parser#parse(Parse)} to memoize {@code parser}
+         * (which is not a {@link Memo} parser) during {@code parse}, or null if the policy does not
+         * memoize it.
+         */
+        public Memoizer ruleMemoizer (Parse parse, Parser parser)
+        {
+            if (parser instanceof Memo) return null;
+            ParseState<Memoizer> state = state(parser);
+            return state == null ? null : state.data(parse);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a policy holding the settings in the given properties, where the keys are rule names
+     * and the values are settings in the format of {@link Setting#toString()}.
+     *
+     * @throws IllegalArgumentException if one of the values is not a valid setting.
+     */
+    public static MemoPolicy fromProperties (Properties properties)
+    {
+        Builder builder = builder();
+        for (String rule: properties.stringPropertyNames())
+            builder.set(rule, Setting.parse(properties.getProperty(rule)));
+        return builder.get();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parses a policy from the format output by {@link #toString()}. Since this is read as a
+     * {@link Properties} file, lines starting with {@code #} are treated as comments.
+     *
+     * @throws IllegalArgumentException if one of the values is not a valid setting.
+     */
+    public static MemoPolicy parse (String string)
+    {
+        try {
+            return read(new StringReader(string));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // can't happen
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Loads a policy from the given file (encoded in UTF-8), as per {@link #parse(String)}. This
+     * can read files written by {@link MemoTuner#write(MemoPolicy, Path)}.
+     *
+     * @throws IllegalArgumentException if one of the values is not a valid setting.
+     */
+    public static MemoPolicy load (Path path) throws IOException
+    {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return read(reader);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static MemoPolicy read (Reader reader) throws IOException
+    {
+        Properties properties = new Properties();
+        properties.load(reader);
+        return fromProperties(properties);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a builder for a new policy, initially empty.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a builder for a new policy, initially holding the same settings as this one.
+     */
+    public Builder toBuilder()
+    {
+        Builder builder = new Builder();
+        builder.settings.putAll(settings);
+        return builder;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        settings.forEach((rule, setting) ->
+            b.append(rule).append(" = ").append(setting).append("\n"));
+        return b.toString();
+    }
+
+    // =============================================================================================
+
+    /**
+     * See {@link MemoPolicy}.
+     *
+     * <p>If multiple settings are given for the same rule, the last one takes precedence.
+     */
+    public static final class Builder
+    {
+        private final HashMap<String, Setting> settings = new HashMap<>();
+
+        private Builder() {}
+
+        /**
+         * Sets the memoization setting for the given rule.
+         */
+        public Builder set (String rule, Setting setting)
+        {
+            settings.put(rule, setting);
+            return this;
+        }
+
+        /**
+         * Disables memoization for the given rule.
+         */
+        public Builder none (String rule) {
+            return set(rule, Setting.NONE);
+        }
+
+        /**
+         * Memoizes the given rule in a {@link MemoTable}.
+         */
+        public Builder table (String rule) {
+            return set(rule, Setting.TABLE);
+        }
+
+        /**
+         * Memoizes the given rule in a {@link MemoCache} with {@code n} slots.
+         */
+        public Builder cache (String rule, int n) {
+            return set(rule, Setting.cache(n));
+        }
+
+        /**
+         * Removes any setting for the given rule, reverting it to the memoizer it was built with.
+         */
+        public Builder reset (String rule)
+        {
+            settings.remove(rule);
+            return this;
+        }
+
+        /**
+         * Builds the policy.
+         */
+        public MemoPolicy get() {
+            return new MemoPolicy(settings);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -149,6 +149,12 @@ public final class MemoTable implements Memoizer
 
     // ---------------------------------------------------------------------------------------------
 
+    @Override public MemoTable emptyCopy() {
+        return new MemoTable(matchParser);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     private String string (String sep, Function<MemoEntry, String> f)
     {
         MemoEntry[] entries = NArrays.packed(this.entries);
@@ -0,0 +1,361 @@
+package norswap.autumn.memo;
+
+import norswap.autumn.Autumn;
+import norswap.autumn.Grammar;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.autumn.Parser;
+import norswap.autumn.ParserWalker;
+import norswap.autumn.parsers.Memo;
+import norswap.autumn.util.AllocationUtil;
+import norswap.utils.IO;
+import norswap.utils.NFiles;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Finds a good memoization configuration for the {@link Memo} parsers of a grammar, by measuring
+ * the time and memory needed to parse a representative corpus of inputs.
+ *
+ * <p>The tuner sweeps the possible memoization settings (see {@link MemoPolicy.Setting}) for each
+ * {@link Memo} parser that has a rule name: no memoization, a {@link MemoTable}, and a {@link
+ * MemoCache} for each of the sizes in {@link #cacheSizes}. Memo parsers are tuned one after the
+ * other (in grammar traversal order), keeping the best setting found so far for the previously
+ * tuned parsers.
+ *
+ * <p>For each candidate configuration, the whole corpus is parsed {@link #warmupRounds} times to
+ * let the JIT compiler kick in, then {@link #measuredRounds} times, keeping the fastest round. The
+ * fastest setting is selected, except that if other settings are within {@link #tolerance} of
+ * it, the one that allocates the least memory is preferred instead.
+ *
+ * <p>Candidates are applied through a {@link MemoPolicy}, just like the tuned policy will be.
+ * Policies are resolved once per grammar (see {@link MemoPolicy#resolve}), before measuring, and
+ * then only cost an array access per parser invocation, the same for every candidate. The
+ * measurements are therefore representative of memo parsers built into the grammar.
+ *
+ * <p>The result is returned as a {@link MemoPolicy}, which can be passed to {@link
+ * ParseOptions#memoPolicy} or written to a file via {@link #write(MemoPolicy, Path)}. All the
+ * measurements performed are available in {@link #measurements}.
+ *
+ * <p>Can be run from the command line, see {@link #main(String[])}.
+ */
+public final class MemoTuner
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The grammar whose memo parsers must be tuned. Parses start from its {@link Grammar#root()}.
+     */
+    public final Grammar grammar;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The inputs to use for measurements.
+     */
+    public final List<String> inputs;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If non-null, used to translate the inputs into lists of tokens. Lexing happens once, before
+     * any measurement, and is not measured.
+     */
+    public Function<String, List<?>> lexer = null;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The cache sizes to try for {@link MemoCache}.
+     */
+    public int[] cacheSizes = { 1, 4, 16, 32, 64, 256 };
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of times the corpus is parsed before measurements start, for each configuration.
+     */
+    public int warmupRounds = 2;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Number of times the corpus is parsed while measuring, for each configuration. The fastest
+     * round is retained.
+     */
+    public int measuredRounds = 5;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Settings whose parse time is within this fraction of the fastest setting are considered
+     * equally fast, in which case the one allocating the least memory wins.
+     */
+    public double tolerance = 0.02;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * If non-null, progress is reported to this stream.
+     */
+    public PrintStream log = null;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * All the measurements performed during the last call to {@link #tune()}, in order.
+     */
+    public final List<Measurement> measurements = new ArrayList<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    public MemoTuner (Grammar grammar, List<String> inputs)
+    {
+        this.grammar = grammar;
+        this.inputs = inputs;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The result of parsing the whole corpus with a given memoization setting for a rule.
+     */
+    public static final class Measurement
+    {
+        /** The rule being tuned. */
+        public final String rule;
+
+        /** The setting tried for {@link #rule}. */
+        public final MemoPolicy.Setting setting;
+
+        /** Time (in nanoseconds) needed to parse the corpus (fastest round). */
+        public final long time;
+
+        /** Bytes allocated while parsing the corpus (fastest round), or -1 if not supported. */
+        public final long allocated;
+
+        Measurement (String rule, MemoPolicy.Setting setting, long time, long allocated)
+        {
+            this.rule = rule;
+            this.setting = setting;
+            this.time = time;
+            this.allocated = allocated;
+        }
+
+        @Override public String toString()
+        {
+            return String.format("%30s | %-10s | %-16s | %,d bytes",
+                rule, setting, Duration.ofNanos(time), allocated);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the names of the rules of the grammar that are {@link Memo} parsers, in traversal
+     * order.
+     */
+    public List<String> memoRules()
+    {
+        grammar.makeRuleNames();
+        LinkedHashSet<String> rules = new LinkedHashSet<>();
+
+        new ParserWalker() {
+            @Override protected void work (Parser parser, State state) {
+                if (state == State.BEFORE && parser instanceof Memo && parser.rule() != null)
+                    rules.add(parser.rule());
+            }
+        }
+        .walk(grammar.root().getParser());
+
+        return new ArrayList<>(rules);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Runs the tuning process and returns the recommended memoization policy.
+     *
+     * @throws IllegalArgumentException if one of the inputs does not fully match the grammar.
+     */
+    public MemoPolicy tune()
+    {
+        measurements.clear();
+        List<Object> corpus = new ArrayList<>(inputs.size());
+        for (String input: inputs)
+            corpus.add(lexer != null ? lexer.apply(input) : input);
+
+        // checks well-formedness and the validity of the corpus
+        ParseOptions checkOptions = ParseOptions.get();
+        for (int i = 0; i < corpus.size(); ++i)
+            if (!parse(corpus.get(i), checkOptions).fullMatch)
+                throw new IllegalArgumentException("Input #" + i + " does not match the grammar.");
+
+        MemoPolicy.Builder best = MemoPolicy.builder();
+
+        for (String rule: memoRules())
+        {
+            List<MemoPolicy.Setting> candidates = new ArrayList<>();
+            candidates.add(MemoPolicy.Setting.NONE);
+            candidates.add(MemoPolicy.Setting.TABLE);
+            for (int size: cacheSizes)
+                candidates.add(MemoPolicy.Setting.cache(size));
+
+            List<Measurement> results = new ArrayList<>();
+            for (MemoPolicy.Setting setting: candidates) {
+                MemoPolicy policy = best.set(rule, setting).get();
+                Measurement m = measure(corpus, rule, setting, policy);
+                results.add(m);
+                measurements.add(m);
+                if (log != null) log.println(m);
+            }
+
+            best.set(rule, select(results).setting);
+        }
+
+        return best.get();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Selects the best measurement, as described in {@link MemoTuner}.
+     */
+    private Measurement select (List<Measurement> results)
+    {
+        long fastest = Long.MAX_VALUE;
+        for (Measurement m: results)
+            fastest = Math.min(fastest, m.time);
+
+        Measurement best = null;
+        for (Measurement m: results)
+            if (m.time <= fastest * (1 + tolerance)
+                    && (best == null || m.allocated < best.allocated
+                        || m.allocated == best.allocated && m.time < best.time))
+                best = m;
+
+        return best;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Measurement measure
+            (List<Object> corpus, String rule, MemoPolicy.Setting setting, MemoPolicy policy)
+    {
+        ParseOptions options = ParseOptions
+            .wellFormednessCheck(false)
+            .memoPolicy(policy)
+            .get();
+
+        // Resolve the policy ahead of time, so that it is not part of the measurements, even
+        // without warmup rounds.
+        policy.resolve(grammar.root().getParser());
+
+        for (int i = 0; i < warmupRounds; ++i)
+            for (Object input: corpus)
+                parse(input, options);
+
+        long bestTime = Long.MAX_VALUE;
+        long bestAllocated = -1;
+
+        for (int i = 0; i < measuredRounds; ++i)
+        {
+            long alloc0 = AllocationUtil.allocatedBytes();
+            long time0 = System.nanoTime();
+
+            for (Object input: corpus)
+                if (!parse(input, options).fullMatch)
+                    throw new IllegalStateException(
+                        "Parse failed with memoization setting " + setting + " for rule "
+                        + rule + ": the rule's result probably depends on some context that "
+                        + "the memo parser does not account for.");
+
+            long time = System.nanoTime() - time0;
+            long allocated = AllocationUtil.supported()
+                ? AllocationUtil.allocatedBytes() - alloc0
+                : -1;
+
+            if (time < bestTime) {
+                bestTime = time;
+                bestAllocated = allocated;
+            }
+        }
+
+        return new Measurement(rule, setting, bestTime, bestAllocated);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ParseResult parse (Object input, ParseOptions options)
+    {
+        return input instanceof String
+            ? Autumn.parse(grammar, (String) input, options)
+            : Autumn.parse(grammar, (List<?>) input, options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the given policy to the given file, in the format of {@link MemoPolicy#toString()}.
+     */
+    public static void write (MemoPolicy policy, Path path) throws IOException
+    {
+        String header = "# Memoization policy generated by " + MemoTuner.class.getName() + "\n";
+        Files.write(path, (header + policy).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the content of all the files matching {@code glob} within {@code directory}.
+     */
+    public static List<String> corpus (Path directory, String glob) throws IOException
+    {
+        List<String> inputs = new ArrayList<>();
+        for (Path path: NFiles.glob(glob, directory))
+            if (Files.isRegularFile(path))
+                inputs.add(IO.slurp(path.toString()));
+        return inputs;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Usage: {@code MemoTuner <grammar class> <corpus directory> [<glob> [<output file>]]}
+     *
+     * <p>The grammar class must have a public no-argument constructor. The glob defaults to
+     * {@code **}{@code /*}. If no output file is given, the policy is printed on the standard
+     * output.
+     */
+    public static void main (String[] args) throws Exception
+    {
+        if (args.length < 2) {
+            System.err.println("usage: MemoTuner <grammar class> <corpus directory> "
+                + "[<glob> [<output file>]]");
+            System.exit(1);
+        }
+
+        Grammar grammar = (Grammar) Class.forName(args[0]).getConstructor().newInstance();
+        String glob = args.length > 2 ? args[2] : "**/*";
+        MemoTuner tuner = new MemoTuner(grammar, corpus(Paths.get(args[1]), glob));
+        tuner.log = System.out;
+
+        MemoPolicy policy = tuner.tune();
+
+        if (args.length > 3)
+            write(policy, Paths.get(args[3]));
+        else
+            System.out.print(policy);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
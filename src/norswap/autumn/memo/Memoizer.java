@@ -76,6 +76,19 @@ public interface Memoizer
 
     // ---------------------------------------------------------------------------------------------
 
+    /**
+     * Returns a new empty memoizer configured like this one, or null if the memoizer does not
+     * support this (the default).
+     *
+     * <p>Used for incremental reparsing, see {@link norswap.autumn.IncrementalParser}: memoizers
+     * that return null are discarded whenever the input is edited.
+     */
+    default Memoizer emptyCopy() {
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     /**
      * Returns a textual representation of the content of the memoizer (on a single line),
      * converting the input positions using {@code map} (can be null, in which case plain offsets
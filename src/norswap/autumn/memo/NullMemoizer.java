@@ -18,6 +18,10 @@ public final class NullMemoizer implements Memoizer
         return null; // we have nothing
     }
 
+    @Override public Memoizer emptyCopy() {
+        return this;
+    }
+
     @Override public String toString (LineMap map) {
         return super.toString();
     }
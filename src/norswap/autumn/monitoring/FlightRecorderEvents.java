@@ -0,0 +1,75 @@
+package norswap.autumn.monitoring;
+
+import norswap.autumn.Parse;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.autumn.Parser;
+
+/**
+ * Emits Java Flight Recorder (JFR) events for parses ({@link ParseOptions#flightRecorder}) and for
+ * slow rule invocations ({@link ParseOptions#slowRuleThreshold}), so that parses show up in JFR
+ * recordings next to GC and JIT events.
+ *
+ * <p>The JFR API is only available from Java 11 onwards, while this library targets Java 8. The
+ * library is therefore packaged as a multi-release jar: this (Java 8) version of the class does
+ * nothing, and is replaced on Java 11+ by a version that emits the following events (in the
+ * "Autumn" category):
+ *
+ * <ul>
+ *     <li>{@code norswap.autumn.Parse}: one event per parse, spanning the parse, with the root
+ *     parser, the input size, whether the parse succeeded and fully matched its input, the match
+ *     size and the number of memo hits and misses.</li>
+ *     <li>{@code norswap.autumn.SlowRule}: one event per rule invocation that took at least {@link
+ *     ParseOptions#slowRuleThreshold} nanoseconds, with the rule name, the start and end input
+ *     positions, whether the invocation succeeded and its duration. The event itself is
+ *     instantaneous (emitted at the end of the invocation), as the rule is only known to be slow
+ *     after the fact.</li>
+ * </ul>
+ *
+ * <p>As usual with JFR, events are only recorded when enabled in the recording settings (they are
+ * enabled by default), and the recording's own thresholds apply on top of ours.
+ */
+public final class FlightRecorderEvents
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private FlightRecorderEvents() {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether JFR events can be emitted in this JVM.
+     */
+    public static boolean supported() {
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Starts timing a parse event, returning an opaque event object to pass to {@link
+     * #endParse(Object, Parse, ParseResult)}, or null if no event will be emitted.
+     */
+    public static Object beginParse() {
+        return null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Ends and emits the given parse event (returned by {@link #beginParse()}), for the given
+     * parse and its result.
+     */
+    public static void endParse (Object event, Parse parse, ParseResult result) {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Emits a slow rule event for an invocation of {@code parser} that started at input position
+     * {@code start}, ended at {@code end}, and took {@code duration} nanoseconds.
+     */
+    public static void slowRule (
+        Parser parser, int start, int end, boolean success, long duration) {}
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,202 @@
+package norswap.autumn.monitoring;
+
+import norswap.autumn.ConcurrentParseMetrics;
+import norswap.autumn.ParseMetrics;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseStatistics;
+import norswap.autumn.ParserMetrics;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Exposes {@link ParseStatistics} (and optionally the per-rule self time recorded in a {@link
+ * ConcurrentParseMetrics}) as a JMX MXBean, whose attributes are described in {@link
+ * ParseMonitorMXBean}.
+ *
+ * <pre>{@code
+ * ParseStatistics statistics = new ParseStatistics();
+ * new ParseMonitor(statistics, null, 10).register("my-grammar");
+ * ParseOptions options = ParseOptions.statistics(statistics).get();
+ * }</pre>
+ *
+ * <p>Each attribute read takes a fresh snapshot of the statistics. The attributes cover the time
+ * window since the monitored statistics were created, or since the monitor was last {@link
+ * #reset() reset}. Resetting the monitor does not reset the underlying statistics and metrics, so
+ * that they can be shared with other consumers (e.g. a {@link PrometheusExporter}): instead, the
+ * monitor remembers a baseline snapshot and reports the difference.
+ */
+public final class ParseMonitor implements ParseMonitorMXBean
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The JMX domain under which monitors are registered.
+     */
+    public static final String DOMAIN = "norswap.autumn";
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The monitored statistics, recorded via {@link ParseOptions#statistics}.
+     */
+    public final ParseStatistics statistics;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The monitored parse metrics (may be null), recorded by passing {@link
+     * ConcurrentParseMetrics#metrics()} as {@link ParseOptions#metrics}.
+     */
+    public final ConcurrentParseMetrics metrics;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The number of rules reported by {@link #getTopRulesBySelfTime()}.
+     */
+    public final int topRules;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private volatile ParseStatistics.Snapshot baseline;
+    private volatile ParseMetrics metricsBaseline;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public ParseMonitor (ParseStatistics statistics, ConcurrentParseMetrics metrics, int topRules)
+    {
+        this.statistics = statistics;
+        this.metrics = metrics;
+        this.topRules = topRules;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Registers this monitor with the platform MBean server, under the name {@code
+     * norswap.autumn:type=ParseMonitor,name=<name>}, which is returned.
+     */
+    public ObjectName register (String name) throws JMException
+    {
+        ObjectName objectName = objectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Unregisters the monitor registered with the given name from the platform MBean server.
+     */
+    public static void unregister (String name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(name));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the object name for the monitor with the given name.
+     */
+    public static ObjectName objectName (String name) throws JMException {
+        return new ObjectName(DOMAIN + ":type=ParseMonitor,name=" + ObjectName.quote(name));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the statistics recorded since the monitor was created or last reset.
+     */
+    private ParseStatistics.Snapshot window()
+    {
+        ParseStatistics.Snapshot baseline = this.baseline;
+        return baseline == null
+            ? statistics.snapshot()
+            : statistics.snapshot().since(baseline);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public long getParses() {
+        return window().parses;
+    }
+
+    @Override public double getParsesPerSecond() {
+        return window().parsesPerSecond();
+    }
+
+    @Override public long getFailures() {
+        return window().failures;
+    }
+
+    @Override public double getFailureRate() {
+        return window().failureRate();
+    }
+
+    @Override public long getInputSize() {
+        return window().inputSize;
+    }
+
+    @Override public double getLatencyMean() {
+        return window().meanLatency() / 1e6;
+    }
+
+    @Override public double getLatencyP50() {
+        return window().latency(0.5) / 1e6;
+    }
+
+    @Override public double getLatencyP90() {
+        return window().latency(0.9) / 1e6;
+    }
+
+    @Override public double getLatencyP99() {
+        return window().latency(0.99) / 1e6;
+    }
+
+    @Override public double getLatencyP999() {
+        return window().latency(0.999) / 1e6;
+    }
+
+    @Override public double getLatencyMax() {
+        return window().maxLatency / 1e6;
+    }
+
+    @Override public double getMemoHitRate() {
+        return window().memoHitRate();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String[] getTopRulesBySelfTime()
+    {
+        if (metrics == null)
+            return new String[0];
+
+        // The metrics snapshot is fresh, so we can subtract the baseline in place.
+        ParseMetrics window = metrics.snapshot();
+        ParseMetrics baseline = metricsBaseline;
+        if (baseline != null)
+            for (ParserMetrics m: window.metrics.values()) {
+                ParserMetrics before = baseline.metrics.get(m.parser);
+                if (before != null) m.selfTime -= before.selfTime;
+            }
+
+        List<ParserMetrics> top = window.topRules(topRules);
+        String[] result = new String[top.size()];
+        for (int i = 0; i < result.length; ++i)
+            result[i] = String.format("%s: %.3f", top.get(i).parser.rule(),
+                top.get(i).selfTime / 1e6);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void reset()
+    {
+        baseline = statistics.snapshot();
+        metricsBaseline = metrics != null ? metrics.snapshot() : null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
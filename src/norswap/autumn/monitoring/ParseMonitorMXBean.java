@@ -0,0 +1,58 @@
+package norswap.autumn.monitoring;
+
+/**
+ * The JMX management interface of {@link ParseMonitor}.
+ *
+ * <p>Rates, latencies and top rules cover the time window since the monitored statistics were
+ * created, or since the monitor was last reset. Latencies are in milliseconds.
+ */
+public interface ParseMonitorMXBean
+{
+    /** Number of recorded parses. */
+    long getParses();
+
+    /** Average number of parses per second. */
+    double getParsesPerSecond();
+
+    /** Number of recorded parses that did not fully match their input. */
+    long getFailures();
+
+    /** Fraction of the parses that did not fully match their input. */
+    double getFailureRate();
+
+    /** Total size of the parsed inputs, in characters (code points) or list items. */
+    long getInputSize();
+
+    /** Average parse latency. */
+    double getLatencyMean();
+
+    /** Median parse latency. */
+    double getLatencyP50();
+
+    /** 90th percentile of the parse latency. */
+    double getLatencyP90();
+
+    /** 99th percentile of the parse latency. */
+    double getLatencyP99();
+
+    /** 99.9th percentile of the parse latency. */
+    double getLatencyP999();
+
+    /** Maximum parse latency. */
+    double getLatencyMax();
+
+    /** Fraction of the memo lookups that found a memoized result. */
+    double getMemoHitRate();
+
+    /**
+     * The rules with the highest self time, formatted as {@code "rule: self time in ms"}. Empty if
+     * no parse metrics are monitored.
+     */
+    String[] getTopRulesBySelfTime();
+
+    /**
+     * Starts a new time window. The monitored statistics and metrics themselves are not reset, so
+     * other consumers are unaffected.
+     */
+    void reset();
+}
@@ -0,0 +1,193 @@
+package norswap.autumn.monitoring;
+
+import com.sun.net.httpserver.HttpServer;
+import norswap.autumn.ConcurrentParseMetrics;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseStatistics;
+import norswap.autumn.ParserMetrics;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes {@link ParseStatistics} (and optionally the per-rule self time and invocations recorded in
+ * a {@link ConcurrentParseMetrics}) in the Prometheus text exposition format (version 0.0.4).
+ *
+ * <p>Counters are exported as is, leaving rates to the queries, e.g. {@code
+ * rate(autumn_parses_total[5m])} for parses per second, {@code rate(autumn_parse_failures_total[5m])
+ * / rate(autumn_parses_total[5m])} for the failure rate and {@code rate(autumn_memo_hits_total[5m])
+ * / (rate(autumn_memo_hits_total[5m]) + rate(autumn_memo_misses_total[5m]))} for the memo hit
+ * rate. Latencies are exported as a histogram, whose buckets are those of the {@link
+ * ParseStatistics} log-linear histogram (8 per power of two), from the lowest to the highest
+ * non-empty bucket. Percentiles over a time window can then be computed with e.g. {@code
+ * histogram_quantile(0.99, rate(autumn_parse_latency_seconds_bucket[5m]))}.
+ *
+ * <p>Use {@link #scrape()} to get the exposition text, or {@link #serve(InetSocketAddress)} to
+ * serve it over HTTP. Prometheus expects counters to be monotonic: the statistics and metrics are
+ * never reset by the exporter, and should not be reset by anything else (see {@link
+ * ParseStatistics} and {@link ParseMonitor#reset()}).
+ */
+public final class PrometheusExporter
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The content type of the exposition format.
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The exported statistics, recorded via {@link ParseOptions#statistics}.
+     */
+    public final ParseStatistics statistics;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The exported parse metrics (may be null), recorded by passing {@link
+     * ConcurrentParseMetrics#metrics()} as {@link ParseOptions#metrics}.
+     */
+    public final ConcurrentParseMetrics metrics;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The number of rules (with the highest self time) for which metrics are exported.
+     */
+    public final int topRules;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public PrometheusExporter (
+        ParseStatistics statistics, ConcurrentParseMetrics metrics, int topRules)
+    {
+        this.statistics = statistics;
+        this.metrics = metrics;
+        this.topRules = topRules;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the current statistics in the Prometheus text exposition format.
+     */
+    public String scrape()
+    {
+        ParseStatistics.Snapshot s = statistics.snapshot();
+        StringBuilder b = new StringBuilder();
+
+        metric(b, "autumn_parses_total", "counter", "Number of parses.");
+        sample(b, "autumn_parses_total", null, s.parses);
+
+        metric(b, "autumn_parse_failures_total", "counter",
+            "Number of parses that did not fully match their input.");
+        sample(b, "autumn_parse_failures_total", null, s.failures);
+
+        metric(b, "autumn_parsed_input_total", "counter",
+            "Total size of the parsed inputs, in characters or list items.");
+        sample(b, "autumn_parsed_input_total", null, s.inputSize);
+
+        metric(b, "autumn_parse_latency_seconds", "histogram", "Parse latency.");
+        long[] histogram = s.histogram();
+        int first = 0, last = histogram.length - 1;
+        while (first < last && histogram[first] == 0) ++ first;
+        while (last > first && histogram[last] == 0) -- last;
+        long count = 0;
+        for (int i = first; i <= last; ++i) {
+            count += histogram[i];
+            sample(b, "autumn_parse_latency_seconds_bucket",
+                "le=\"" + format(ParseStatistics.bucketMax(i) / 1e9) + "\"", count);
+        }
+        sample(b, "autumn_parse_latency_seconds_bucket", "le=\"+Inf\"", s.parses);
+        sample(b, "autumn_parse_latency_seconds_sum", null, s.totalLatency / 1e9);
+        sample(b, "autumn_parse_latency_seconds_count", null, s.parses);
+
+        metric(b, "autumn_memo_hits_total", "counter",
+            "Number of memo lookups that found a memoized result.");
+        sample(b, "autumn_memo_hits_total", null, s.memoHits);
+
+        metric(b, "autumn_memo_misses_total", "counter",
+            "Number of memo lookups that did not find a memoized result.");
+        sample(b, "autumn_memo_misses_total", null, s.memoMisses);
+
+        if (metrics == null)
+            return b.toString();
+
+        Iterable<ParserMetrics> top = metrics.snapshot().topRules(topRules);
+
+        metric(b, "autumn_rule_self_time_seconds_total", "counter",
+            "Time spent in a rule parser itself, excluding its children (tracing mode only).");
+        for (ParserMetrics m: top)
+            sample(b, "autumn_rule_self_time_seconds_total", rule(m), m.selfTime / 1e9);
+
+        metric(b, "autumn_rule_invocations_total", "counter",
+            "Number of invocations of a rule parser (tracing mode only).");
+        for (ParserMetrics m: top)
+            sample(b, "autumn_rule_invocations_total", rule(m), m.invocations);
+
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void metric (StringBuilder b, String name, String type, String help)
+    {
+        b.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        b.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void sample (StringBuilder b, String name, String labels, double value)
+    {
+        b.append(name);
+        if (labels != null) b.append('{').append(labels).append('}');
+        b.append(' ').append(format(value)).append('\n');
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String format (double value)
+    {
+        return value == Math.rint(value) && !Double.isInfinite(value)
+            ? String.valueOf((long) value)
+            : Double.toString(value);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String rule (ParserMetrics metrics)
+    {
+        String name = metrics.parser.rule()
+            .replace("\\", "\\\\")
+            .replace("\"", "\\\"")
+            .replace("\n", "\\n");
+        return "rule=\"" + name + "\"";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Starts an HTTP server bound to the given address, serving {@link #scrape()} at {@code
+     * /metrics}, and returns it. Stop it with {@link HttpServer#stop(int)}.
+     */
+    public HttpServer serve (InetSocketAddress address) throws IOException
+    {
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
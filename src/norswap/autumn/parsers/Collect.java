@@ -5,6 +5,7 @@ import norswap.autumn.Parser;
 import norswap.autumn.ParserVisitor;
 import norswap.autumn.actions.ActionContext;
 import norswap.autumn.actions.StackAction;
+import norswap.autumn.actions.StackPush;
 import java.util.Collections;
 
 /**
@@ -92,6 +93,11 @@ public final class Collect extends Parser
 
     @Override public boolean doparse (Parse parse)
     {
+        // Pure value pushes are skipped when recognizing, other actions may change the parse
+        // state (through ActionContext#apply) or cause the parser to fail (StackPredicate).
+        if (parse.options.recognize && action instanceof StackPush)
+            return child.parse(parse) || actionOnFail;
+
         int pos0 = parse.pos;
         int size0 = parse.stack.size();
         int leadingWhitespaceStart = parse.leadingWhitespaceStart();
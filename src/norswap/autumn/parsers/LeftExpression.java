@@ -5,6 +5,7 @@ import norswap.autumn.Parser;
 import norswap.autumn.ParserVisitor;
 import norswap.autumn.actions.ActionContext;
 import norswap.autumn.actions.StackAction;
+import norswap.autumn.actions.StackPush;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -98,10 +99,14 @@ public final class LeftExpression extends Parser
         final int whitespace0 = parse.leadingWhitespaceStart();
         int count = 0;
 
-        final Consumer<StackAction> applyStep = (step) ->
+        // pure value pushes are skipped when recognizing (see Collect)
+        final boolean recognize = parse.options.recognize;
+        final Consumer<StackAction> applyStep = step -> {
+            if (recognize && step instanceof StackPush) return;
             step.apply(new ActionContext(
                 parse, parse.stack.popFrom(stack0), pos0, stack0,
                 whitespace0, parse.trailingWhitespaceStart(pos0)));
+        };
         
         if (!left.parse(parse))
             return false;
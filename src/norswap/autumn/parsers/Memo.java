@@ -2,6 +2,7 @@ package norswap.autumn.parsers;
 
 import norswap.autumn.Grammar.rule;
 import norswap.autumn.Parse;
+import norswap.autumn.ParseOptions;
 import norswap.autumn.ParseState;
 import norswap.autumn.Parser;
 import norswap.autumn.ParserVisitor;
@@ -33,6 +34,9 @@ import java.util.function.Function;
  *
  * <p>If the function is null, no context comparisons are performed.
  *
+ * <p>The memoizer can be overriden at parse time, based on the rule name of the parser, by
+ * supplying a {@link MemoPolicy} via {@link ParseOptions#memoPolicy}.
+ *
  * <p>Build with {@link rule#memo(int)} or {@link rule#memo(int, Function)}.
  */
 public final class Memo extends Parser
@@ -63,12 +67,19 @@ public final class Memo extends Parser
 
     @Override protected boolean doparse (Parse parse)
     {
+        Memoizer memo = memoizer(parse);
+
+        if (memo == null) // memoization disabled by the memo policy
+            return child.parse(parse);
+
         Object ctx = contextExtractor != null ? contextExtractor.apply(parse) : null;
-        Memoizer memo = memoizer.data(parse);
-        MemoEntry entry = memo.get(child, parse.pos, ctx);
+        MemoEntry entry = parse.memoLookup(memo, child, ctx);
 
         if (entry != null)
         {
+            if (parse.tracksExamined() && entry.examinedEnd > parse.examined)
+                parse.examined = entry.examinedEnd;
+
             if (!entry.succeeded())
                 return false;
 
@@ -79,12 +90,33 @@ public final class Memo extends Parser
 
         int pos0 = parse.pos;
         int log0 = parse.log.size();
+        boolean track = parse.tracksExamined();
+        int examined0 = parse.examined;
+        if (track) parse.examined = pos0;
+
+        boolean success = child.parse(parse);
+        int examined = track ? Math.max(parse.examined, parse.pos) : Integer.MAX_VALUE;
 
         entry = new MemoEntry(
-            child.parse(parse), child, pos0, parse.pos, parse.log.delta(log0), ctx);
+            success, child, pos0, parse.pos, parse.log.delta(log0), ctx, examined);
 
+        if (track) parse.examined = Math.max(examined0, examined);
         memo.memoize(entry);
-        return entry.succeeded();
+        return success;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the memoizer to use for the given parse, taking {@link ParseOptions#memoPolicy} into
+     * account, or null if the policy disables memoization for this parser.
+     */
+    private Memoizer memoizer (Parse parse)
+    {
+        MemoPolicy.Resolution policy = parse.memoPolicy();
+        return policy == null
+            ? memoizer.data(parse)
+            : policy.memoizer(parse, this);
     }
 
     // ---------------------------------------------------------------------------------------------
@@ -5,6 +5,7 @@ import norswap.autumn.Parser;
 import norswap.autumn.ParserVisitor;
 import norswap.autumn.actions.ActionContext;
 import norswap.autumn.actions.StackAction;
+import norswap.autumn.actions.StackPush;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -104,10 +105,14 @@ public final class RightExpression extends Parser
         final int whitespace0 = parse.leadingWhitespaceStart();
         final int log0 = parse.log.size();
 
-        Consumer<StackAction> applyStep = step ->
+        // pure value pushes are skipped when recognizing (see Collect)
+        boolean recognize = parse.options.recognize;
+        Consumer<StackAction> applyStep = step -> {
+            if (recognize && step instanceof StackPush) return;
             step.apply(new ActionContext(
                 parse, parse.stack.popFrom(size0), pos0, size0,
                 whitespace0, parse.trailingWhitespaceStart(pos0)));
+        };
 
         for (int i = 0; i < prefixes.length; ++i) {
             if (prefixes[i].parse(parse)) {
@@ -0,0 +1,87 @@
+package norswap.autumn.positions;
+
+/**
+ * Describes an edit to a parse input: {@link #removed} input items (code points for strings,
+ * objects for lists) are replaced by {@link #inserted} items, starting at {@link #offset}.
+ *
+ * <p>Edits are used to relocate memoized results during incremental reparsing (see {@link
+ * norswap.autumn.memo.MemoEntry#relocate}), and to translate the positions of the input before the
+ * edit to positions in the input after the edit ({@link #map(int)}).
+ */
+public final class Edit
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Position of the first removed item (or of the first inserted item). */
+    public final int offset;
+
+    /** Number of items removed by the edit. */
+    public final int removed;
+
+    /** Number of items inserted by the edit. */
+    public final int inserted;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public Edit (int offset, int removed, int inserted)
+    {
+        if (offset < 0 || removed < 0 || inserted < 0)
+            throw new IllegalArgumentException(
+                "Negative edit parameter: " + this.toString(offset, removed, inserted));
+
+        this.offset = offset;
+        this.removed = removed;
+        this.inserted = inserted;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Position one past the last removed item, in the input before the edit.
+     */
+    public int end() {
+        return offset + removed;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The amount by which positions after the edit are shifted ({@code inserted - removed}).
+     */
+    public int shift() {
+        return inserted - removed;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Maps a position in the input before the edit to the corresponding position in the input
+     * after the edit, or returns -1 if the position lies strictly within the removed range.
+     *
+     * <p>Positions at or after {@link #end()} are shifted by {@link #shift()} (in particular, for a
+     * pure insertion, the item at {@link #offset} ends up after the inserted items).
+     */
+    public int map (int position)
+    {
+        return position >= end()
+            ? position + shift()
+            : position <= offset
+                ? position
+                : -1;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private String toString (int offset, int removed, int inserted) {
+        return "Edit { offset = " + offset + ", removed = " + removed
+            + ", inserted = " + inserted + " }";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public String toString() {
+        return toString(offset, removed, inserted);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
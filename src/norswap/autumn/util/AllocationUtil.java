@@ -0,0 +1,72 @@
+package norswap.autumn.util;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Utilities to measure the amount of memory allocated by the current thread.
+ *
+ * <p>This relies on the HotSpot-specific {@code com.sun.management.ThreadMXBean} interface. On
+ * JVMs that do not support it (or where allocation measurement is disabled), {@link
+ * #supported()} returns false and {@link #allocatedBytes()} always returns -1.
+ */
+public final class AllocationUtil
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private AllocationUtil() {}
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The thread MX bean, if it supports allocation measurement, null otherwise.
+     */
+    private static final com.sun.management.ThreadMXBean bean = bean();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static com.sun.management.ThreadMXBean bean()
+    {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (!(bean instanceof com.sun.management.ThreadMXBean))
+                return null;
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (!sunBean.isThreadAllocatedMemorySupported())
+                return null;
+            if (!sunBean.isThreadAllocatedMemoryEnabled())
+                sunBean.setThreadAllocatedMemoryEnabled(true);
+            return sunBean;
+        }
+        catch (LinkageError | UnsupportedOperationException | SecurityException e) {
+            return null;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether allocation measurement is supported on this JVM.
+     */
+    public static boolean supported() {
+        return bean != null;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the cumulative number of bytes allocated by the current thread since its creation,
+     * or -1 if allocation measurement is not {@link #supported()}.
+     *
+     * <p>Only the difference between two calls is meaningful. The value is approximate, and might
+     * not reflect very recent allocations (allocations are typically accounted per thread-local
+     * allocation buffer).
+     */
+    public static long allocatedBytes()
+    {
+        return bean == null
+            ? -1
+            : bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,526 @@
+package norswap.autumn.visitors;
+
+import norswap.autumn.Grammar;
+import norswap.autumn.Parser;
+import norswap.autumn.ParserWalker;
+import norswap.autumn.parsers.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Statically looks for grammar patterns that are prone to excessive (potentially exponential)
+ * backtracking, and reports them as {@link Warning}s, each with a suggested fix.
+ *
+ * <p>Three patterns are reported (see {@link Kind}):
+ * <ul>
+ *     <li>{@link Kind#COMMON_PREFIX}: alternatives of a choice that start with the same
+ *     non-trivial parser, which is re-parsed each time an alternative fails. When the prefix is
+ *     itself defined in terms of such a choice (as in {@code product ::= ground '*' product |
+ *     ground '/' product | ground}), the parse time is exponential in the nesting depth.</li>
+ *     <li>{@link Kind#SHARED_RULE}: a non-trivial, unmemoized rule that may be invoked at the
+ *     start of several alternatives of the same choice (possibly through other rules).</li>
+ *     <li>{@link Kind#NESTED_REPETITION}: a repetition whose element ends with another repetition
+ *     that can match the start of the next element, so that the split between iterations is
+ *     ambiguous.</li>
+ * </ul>
+ *
+ * <p>A parser is considered trivial if it can be evaluated without calling into a {@link
+ * LazyParser}, {@link Memo}, {@link AbstractForwarding} or expression parser: such parsers cannot
+ * recurse, and re-parsing them only costs a bounded amount of work per input character. Prefixes
+ * wrapped in a {@link Memo} are never reported.
+ *
+ * <p>This analysis is heuristic: it can report patterns that are harmless in practice (e.g. if an
+ * alternative always succeeds on inputs that reach it), and cannot detect backtracking caused by
+ * custom parsers. Use {@link norswap.autumn.PerformanceFuzzer} to confirm whether a reported
+ * pattern is actually slow.
+ *
+ * <p>Invoke instances of this class through their {@link #analyze(Parser)} method, or use {@link
+ * Grammar#backtrackingWarnings()}. Rule names should be assigned beforehand ({@link
+ * Grammar#makeRuleNames()}) to make the warnings readable. Like {@link WellFormednessChecker},
+ * results are accumulated if {@link #analyze(Parser)} is called on multiple roots, and instances
+ * cannot otherwise be reused.
+ */
+public final class BacktrackingAnalyzer extends ParserWalker
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The kinds of patterns reported by {@link BacktrackingAnalyzer}.
+     */
+    public enum Kind {
+        COMMON_PREFIX,
+        SHARED_RULE,
+        NESTED_REPETITION
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A backtracking-prone pattern found by the analyzer.
+     */
+    public static final class Warning
+    {
+        /** The kind of pattern. */
+        public final Kind kind;
+
+        /** The choice or repetition where the pattern occurs. */
+        public final Parser parser;
+
+        /** The parsers that are re-parsed: the common prefix, the shared rules or the inner
+         * repetitions. */
+        public final List<Parser> culprits;
+
+        /** Description of the pattern. */
+        public final String message;
+
+        /** Suggested fix. */
+        public final String suggestion;
+
+        Warning (Kind kind, Parser parser, List<Parser> culprits, String message,
+                 String suggestion)
+        {
+            this.kind = kind;
+            this.parser = parser;
+            this.culprits = culprits;
+            this.message = message;
+            this.suggestion = suggestion;
+        }
+
+        @Override public String toString() {
+            return kind + " in " + describe(parser) + ": " + message + "\n  fix: " + suggestion;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The warnings found so far.
+     */
+    public final List<Warning> warnings = new ArrayList<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final VisitorNullable nullableVisitor;
+    private final VisitorFirstParsers firstsVisitor;
+    private final Map<Parser, Set<Parser>> firsts = new HashMap<>();
+    private final Map<Parser, Set<Parser>> closures = new HashMap<>();
+    private final Map<Parser, Boolean> trivial = new HashMap<>();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new analyzer using the given nullable visitor.
+     *
+     * <p>Since {@link VisitorNullable} memoizes parser nullability, you should reuse an existing
+     * instance as much as possible.
+     */
+    public BacktrackingAnalyzer (VisitorNullable nullableVisitor)
+    {
+        this.nullableVisitor = nullableVisitor;
+        this.firstsVisitor = new VisitorFirstParsers(nullableVisitor);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Creates a new analyzer using a freshly constructed nullable visitor.
+     */
+    public BacktrackingAnalyzer() {
+        this(new VisitorNullable());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Analyzes the parser graph reachable from the given parser, and returns {@link #warnings}
+     * (which also includes the warnings of previous invocations).
+     */
+    public List<Warning> analyze (Parser parser)
+    {
+        walk(parser);
+        return warnings;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override protected void work (Parser parser, State state)
+    {
+        if (state != State.BEFORE) return;
+
+        if (parser instanceof Choice || parser instanceof Longest
+                || parser instanceof AbstractChoice)
+            checkChoice(parser, list(parser.children()));
+        else if (parser instanceof Repeat && !((Repeat) parser).exact) {
+            Parser child = ((Repeat) parser).child;
+            checkRepetition(parser, child, firstChars(child));
+        }
+        else if (parser instanceof Around && !((Around) parser).exact) {
+            Around around = (Around) parser;
+            BitSet follow = firstChars(around.inside);
+            if (nullableVisitor.nullable(around.inside))
+                follow.or(firstChars(around.around));
+            checkRepetition(parser, around.around, follow);
+        }
+    }
+
+    // =============================================================================================
+
+    private void checkChoice (Parser choice, List<Parser> alternatives)
+    {
+        // Alternatives grouped by their first element, in order.
+        Map<Parser, List<Integer>> groups = new LinkedHashMap<>();
+        List<List<Parser>> elements = new ArrayList<>();
+
+        for (int i = 0; i < alternatives.size(); ++i) {
+            List<Parser> seq = elements(alternatives.get(i));
+            elements.add(seq);
+            if (seq.isEmpty()) continue;
+            Parser key = groups.keySet().stream()
+                .filter(p -> same(p, seq.get(0)))
+                .findFirst().orElse(seq.get(0));
+            groups.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+        }
+
+        Set<Parser> reported = new HashSet<>();
+
+        for (Map.Entry<Parser, List<Integer>> group: groups.entrySet())
+        {
+            List<Integer> indices = group.getValue();
+            if (indices.size() < 2) continue;
+
+            List<Parser> prefix = commonPrefix(elements, indices);
+            if (prefix.stream().allMatch(p -> p instanceof Memo || trivial(p)))
+                continue;
+
+            reported.add(group.getKey());
+            reported.addAll(closure(group.getKey()));
+
+            warnings.add(new Warning(Kind.COMMON_PREFIX, choice, prefix,
+                "alternatives " + positions(indices) + " all start with " + describe(prefix)
+                    + ", which is parsed again each time one of these alternatives fails",
+                "factor the prefix out of the choice, e.g. seq(prefix, choice(suffixes...)); "
+                    + "for operator chains, use left_expression() or right_expression(); "
+                    + "or memoize the prefix with .memo()"));
+        }
+
+        // Rules reachable at the start of multiple alternatives.
+
+        Map<Parser, List<Integer>> shared = new LinkedHashMap<>();
+        for (int i = 0; i < alternatives.size(); ++i)
+            for (Parser p: closure(alternatives.get(i)))
+                if (p.rule() != null && p != choice && !(p instanceof Memo)
+                        && !reported.contains(p) && !trivial(p))
+                    shared.computeIfAbsent(p, k -> new ArrayList<>()).add(i);
+
+        shared.values().removeIf(indices -> indices.size() < 2);
+        if (shared.isEmpty()) return;
+
+        // Only keep the outermost shared rules: the others are invoked through them.
+        Set<Parser> inner = new HashSet<>();
+        for (Parser p: shared.keySet())
+            for (Parser q: closure(p))
+                if (q != p) inner.add(q);
+
+        List<Parser> culprits = new ArrayList<>();
+        Set<Integer> indices = new LinkedHashSet<>();
+        for (Map.Entry<Parser, List<Integer>> entry: shared.entrySet())
+            if (!inner.contains(entry.getKey())) {
+                culprits.add(entry.getKey());
+                indices.addAll(entry.getValue());
+            }
+
+        if (culprits.isEmpty()) return; // mutually recursive shared rules
+
+        warnings.add(new Warning(Kind.SHARED_RULE, choice, culprits,
+            "alternatives " + positions(new ArrayList<>(indices)) + " may all invoke "
+                + describe(culprits) + " at the same position",
+            "memoize " + (culprits.size() == 1 ? "this rule" : "these rules")
+                + " with .memo(), or restructure the choice so that "
+                + (culprits.size() == 1 ? "it is" : "they are") + " parsed only once"));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void checkRepetition (Parser repetition, Parser element, BitSet follow)
+    {
+        List<Parser> inner = new ArrayList<>();
+        tails(element, inner, new HashSet<>());
+        inner.removeIf(p -> p == repetition);
+        if (inner.isEmpty()) return;
+
+        List<Parser> culprits = new ArrayList<>();
+        for (Parser p: inner) {
+            Parser child = p instanceof Repeat ? ((Repeat) p).child : ((Around) p).around;
+            if (firstChars(child).intersects(follow))
+                culprits.add(p);
+        }
+
+        if (culprits.isEmpty()) return;
+
+        warnings.add(new Warning(Kind.NESTED_REPETITION, repetition, culprits,
+            "the repeated element ends with " + describe(culprits) + ", which can also match the "
+                + "start of the next element; each time an element fails after this repetition, "
+                + "the whole element is parsed again",
+            "flatten the nested repetitions into a single repetition, or make sure the inner "
+                + "repetition cannot match what follows it (e.g. using not(...))"));
+    }
+
+    // =============================================================================================
+
+    /**
+     * Collects the repetitions that may be the last parser to match input in {@code parser},
+     * without crossing memoized parsers.
+     */
+    private void tails (Parser parser, List<Parser> out, Set<Parser> visited)
+    {
+        if (!visited.add(parser))
+            return;
+
+        if (parser instanceof Repeat && !((Repeat) parser).exact
+                || parser instanceof Around && !((Around) parser).exact)
+            out.add(parser);
+        else if (parser instanceof Sequence) {
+            List<Parser> children = ((Sequence) parser).children();
+            for (int i = children.size() - 1; i >= 0; --i) {
+                tails(children.get(i), out, visited);
+                if (!nullableVisitor.nullable(children.get(i)))
+                    break;
+            }
+        }
+        else if (parser instanceof Choice || parser instanceof Longest
+                || parser instanceof AbstractChoice)
+            for (Parser child: parser.children())
+                tails(child, out, visited);
+        else if (parser instanceof Collect)
+            tails(((Collect) parser).child, out, visited);
+        else if (parser instanceof TrailingWhitespace)
+            tails(((TrailingWhitespace) parser).child, out, visited);
+        else if (parser instanceof Optional)
+            tails(((Optional) parser).child, out, visited);
+        else if (parser instanceof LazyParser)
+            tails(((LazyParser) parser).child(), out, visited);
+        else if (parser instanceof AbstractWrapper)
+            tails(((AbstractWrapper) parser).child, out, visited);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the list of parsers matched in sequence by the alternative, ignoring {@link Collect}
+     * wrappers.
+     */
+    private static List<Parser> elements (Parser alternative)
+    {
+        Parser p = unwrap(alternative);
+        if (!(p instanceof Sequence))
+            return Collections.singletonList(p);
+
+        List<Parser> elements = new ArrayList<>();
+        for (Parser child: ((Sequence) p).children())
+            elements.add(unwrap(child));
+        return elements;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Parser unwrap (Parser parser)
+    {
+        while (parser instanceof Collect)
+            parser = ((Collect) parser).child;
+        return parser;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<Parser> commonPrefix (List<List<Parser>> elements, List<Integer> indices)
+    {
+        List<Parser> first = elements.get(indices.get(0));
+        int length = first.size();
+        for (int i: indices) {
+            List<Parser> seq = elements.get(i);
+            int j = 0;
+            while (j < length && j < seq.size() && same(seq.get(j), first.get(j))) ++j;
+            length = j;
+        }
+        return new ArrayList<>(first.subList(0, length));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the two parsers are the same, or are terminals that match the same input. This
+     * handles the fact that literal strings and characters are converted to a new parser at each
+     * use site.
+     */
+    private static boolean same (Parser a, Parser b)
+    {
+        if (a == b)
+            return true;
+        if (a instanceof StringMatch && b instanceof StringMatch)
+            return ((StringMatch) a).string.equals(((StringMatch) b).string)
+                && ((StringMatch) a).whitespace == ((StringMatch) b).whitespace;
+        if (a instanceof CharPredicate && b instanceof CharPredicate)
+            // names are derived from the matched characters, except for custom predicates
+            return ((CharPredicate) a).name != null
+                && ((CharPredicate) a).name.equals(((CharPredicate) b).name)
+                && ((CharPredicate) a).name.startsWith("[");
+        return false;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private Set<Parser> firsts (Parser parser) {
+        return firsts.computeIfAbsent(parser, p -> new HashSet<>(firstsVisitor.firsts(p)));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the set of parsers that may be invoked at the same position as {@code parser}
+     * (including itself), without looking inside memoized parsers.
+     */
+    private Set<Parser> closure (Parser parser)
+    {
+        Set<Parser> closure = closures.get(parser);
+        if (closure != null) return closure;
+
+        closure = new HashSet<>();
+        ArrayDeque<Parser> queue = new ArrayDeque<>();
+        queue.add(parser);
+        while (!queue.isEmpty()) {
+            Parser p = queue.poll();
+            if (!closure.add(p) || p instanceof Memo && p != parser) continue;
+            queue.addAll(firsts(p));
+        }
+
+        closures.put(parser, closure);
+        return closure;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the set of characters (restricted to the 0-255 range) that may start a match of
+     * {@code parser}.
+     */
+    private BitSet firstChars (Parser parser)
+    {
+        BitSet chars = new BitSet(256);
+        Set<Parser> visited = new HashSet<>();
+        ArrayDeque<Parser> queue = new ArrayDeque<>();
+        queue.add(parser);
+
+        while (!queue.isEmpty())
+        {
+            Parser p = queue.poll();
+            if (!visited.add(p)) continue;
+
+            if (p instanceof CharPredicate) {
+                CharPredicate pred = (CharPredicate) p;
+                for (int c = 0; c < 256; ++c)
+                    if (pred.predicate.test(c)) chars.set(c);
+            }
+            else if (p instanceof StringMatch) {
+                String string = ((StringMatch) p).string;
+                if (!string.isEmpty() && string.charAt(0) < 256)
+                    chars.set(string.charAt(0));
+            }
+            else if (p instanceof StringChoice) {
+                for (String string: ((StringChoice) p).strings)
+                    if (!string.isEmpty() && string.charAt(0) < 256)
+                        chars.set(string.charAt(0));
+            }
+
+            queue.addAll(firsts(p));
+        }
+
+        return chars;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the parser is trivial (cannot recurse, see {@link BacktrackingAnalyzer}).
+     */
+    private boolean trivial (Parser parser)
+    {
+        Boolean result = trivial.get(parser);
+        if (result != null) return result;
+
+        if (parser instanceof LazyParser
+                || parser instanceof Memo
+                || parser instanceof AbstractForwarding
+                || parser instanceof LeftExpression
+                || parser instanceof RightExpression) {
+            trivial.put(parser, false);
+            return false;
+        }
+
+        trivial.put(parser, false); // in case of cycles
+        result = true;
+        for (Parser child: parser.children())
+            if (!trivial(child)) {
+                result = false;
+                break;
+            }
+
+        trivial.put(parser, result);
+        return result;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<Parser> list (Iterable<Parser> parsers)
+    {
+        List<Parser> list = new ArrayList<>();
+        parsers.forEach(list::add);
+        return list;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String positions (List<Integer> indices)
+    {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < indices.size(); ++i) {
+            if (i > 0) b.append(i == indices.size() - 1 ? " and " : ", ");
+            b.append(indices.get(i) + 1);
+        }
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String describe (List<Parser> parsers)
+    {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < parsers.size(); ++i) {
+            if (i > 0) b.append(", ");
+            b.append(describe(parsers.get(i)));
+        }
+        return parsers.size() == 1 ? b.toString() : "[" + b + "]";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String describe (Parser parser)
+    {
+        try {
+            return parser.toString();
+        } catch (StackOverflowError e) {
+            // anonymous recursive parser
+            return parser.getClass().getSimpleName();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,359 @@
+package norswap.autumn.visitors;
+
+import norswap.autumn.Parser;
+import norswap.autumn.ParserVisitor;
+import norswap.autumn.parsers.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A visitor that generates random inputs for string-based parsers, by walking the parser graph and
+ * making random choices along the way (which alternative of a choice to use, how many times to
+ * repeat a repetition, ...).
+ *
+ * <p>To generate an input, call {@link #generate(Parser)}.
+ *
+ * <p>The generated inputs are usually, but not always, matched by the parser: the generator does
+ * not know what lookaheads ({@link Not}, {@link Lookahead}), context predicates, custom parsers or
+ * bounded parsers ({@link Bounded}) require, and does not ensure that separate tokens are separated
+ * by whitespace. Inputs for grammars of objects ({@link ObjectPredicate}) cannot be generated.
+ *
+ * <p>Recursion is bounded by {@link #maxDepth}: beyond that depth, repetitions are repeated the
+ * minimum number of times, optional parsers are skipped, and choices backtrack to another
+ * alternative when an alternative goes too deep.
+ *
+ * <p>To support custom parsers, provide an appropriate overload using {@link
+ * ParserVisitor#extend}. Also see {@link ParserVisitor}'s Javadoc. Within the overloads, call
+ * {@link #emit(Parser)} to generate input for sub-parsers, and append to {@link #out}. By default,
+ * the children of custom parsers are generated in sequence.
+ */
+public final class VisitorInputGenerator implements ParserVisitor
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final HashOverloads overloads = new HashOverloads(VisitorInputGenerator.class);
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public Overloads overloads() {
+        return overloads;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Characters tried when generating a character for a {@link CharPredicate}.
+     */
+    public String alphabet =
+        " \t\n!\"#$%&'()*+,-./0123456789:;<=>?@ABCDEFGHIJKLMNOPQRSTUVWXYZ[\\]^_`"
+        + "abcdefghijklmnopqrstuvwxyz{|}~\u00e9\u03bb";
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Parser nesting depth beyond which the generator tries to produce the smallest input
+     * possible.
+     */
+    public int maxDepth = 12;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Max number of extra repetitions (on top of the minimum) for repetitions.
+     */
+    public int maxRepetitions = 3;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Max number of parsers visited for a single input, after which generation gives up.
+     */
+    public int maxSteps = 100_000;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * The input being generated.
+     */
+    public final StringBuilder out = new StringBuilder();
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final Random random;
+    private int depth;
+    private int steps;
+
+    // ---------------------------------------------------------------------------------------------
+
+    public VisitorInputGenerator (Random random) {
+        this.random = random;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Thrown to abandon the generation of the current choice alternative (or of the whole input).
+     */
+    private static final class Abort extends RuntimeException {
+        Abort() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Abort ABORT = new Abort();
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a random input for {@code parser}, or null if none could be generated (because of a
+     * parser that can never succeed, or because {@link #maxSteps} was exceeded).
+     */
+    public String generate (Parser parser)
+    {
+        out.setLength(0);
+        depth = 0;
+        steps = 0;
+        try {
+            emit(parser);
+            return out.toString();
+        } catch (Abort e) {
+            return null;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Generates input for {@code parser}, appending it to {@link #out}.
+     */
+    public void emit (Parser parser)
+    {
+        if (++steps > maxSteps || depth > 2 * maxDepth)
+            throw ABORT;
+        ++depth;
+        try {
+            parser.accept(this);
+        } finally {
+            --depth;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Whether the generator is beyond {@link #maxDepth}, and should keep the input short.
+     */
+    public boolean deep() {
+        return depth > maxDepth;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private int count (int min, boolean exact) {
+        return exact || deep() ? min : min + random.nextInt(maxRepetitions + 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Generates input for one of the alternatives, chosen randomly. If an alternative goes too deep
+     * or cannot be generated, tries another one.
+     */
+    private void emitChoice (Iterable<Parser> alternatives)
+    {
+        List<Parser> shuffled = new ArrayList<>();
+        alternatives.forEach(shuffled::add);
+        Collections.shuffle(shuffled, random);
+        int length0 = out.length();
+
+        for (Parser alternative: shuffled) {
+            try {
+                emit(alternative);
+                return;
+            } catch (Abort e) {
+                if (steps > maxSteps) throw e;
+                out.setLength(length0);
+            }
+        }
+        throw ABORT;
+    }
+
+    // =============================================================================================
+
+    @Override public void defaultAction (Parser parser) {
+        parser.children().forEach(this::emit);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (CharPredicate parser)
+    {
+        int start = random.nextInt(alphabet.length());
+        for (int i = 0; i < alphabet.length(); ++i) {
+            char c = alphabet.charAt((start + i) % alphabet.length());
+            if (parser.predicate.test(c)) {
+                out.append(c);
+                return;
+            }
+        }
+        throw ABORT;
+    }
+
+    @Override public void visit (StringMatch parser) {
+        out.append(parser.string);
+        if (parser.whitespace != null)
+            emit(parser.whitespace);
+    }
+
+    @Override public void visit (StringChoice parser) {
+        out.append(parser.strings[random.nextInt(parser.strings.length)]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (ContextPredicate parser) {
+        // empty
+    }
+
+    @Override public void visit (Empty parser) {
+        // empty
+    }
+
+    @Override public void visit (Lookahead parser) {
+        // empty
+    }
+
+    @Override public void visit (Not parser) {
+        // empty
+    }
+
+    @Override public void visit (AbstractPrimitive parser) {
+        // unknown, assume it can succeed without input
+    }
+
+    @Override public void visit (Fail parser) {
+        throw ABORT;
+    }
+
+    @Override public void visit (ObjectPredicate parser) {
+        throw ABORT;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (Collect parser) {
+        emit(parser.child);
+    }
+
+    @Override public void visit (Memo parser) {
+        emit(parser.child);
+    }
+
+    @Override public void visit (LazyParser parser) {
+        emit(parser.child());
+    }
+
+    @Override public void visit (AbstractForwarding parser) {
+        emit(parser.forwardee);
+    }
+
+    @Override public void visit (AbstractWrapper parser) {
+        emit(parser.child);
+    }
+
+    @Override public void visit (Bounded parser) {
+        emit(parser.coarse);
+    }
+
+    @Override public void visit (Optional parser) {
+        if (!deep() && random.nextBoolean())
+            emit(parser.child);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (AbstractChoice parser) {
+        emitChoice(parser.children());
+    }
+
+    @Override public void visit (Choice parser) {
+        emitChoice(parser.children());
+    }
+
+    @Override public void visit (Longest parser) {
+        emitChoice(parser.children());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (Sequence parser) {
+        parser.children().forEach(this::emit);
+    }
+
+    @Override public void visit (TrailingWhitespace parser) {
+        emit(parser.child);
+        if (parser.whitespace != null)
+            emit(parser.whitespace);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (Repeat parser) {
+        for (int i = count(parser.min, parser.exact); i > 0; --i)
+            emit(parser.child);
+    }
+
+    @Override public void visit (Around parser)
+    {
+        int n = count(parser.min, parser.exact);
+        for (int i = 0; i < n; ++i) {
+            if (i > 0) emit(parser.inside);
+            emit(parser.around);
+        }
+        if (n > 0 && parser.trailing && !deep() && random.nextBoolean())
+            emit(parser.inside);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (LeftExpression parser)
+    {
+        emit(parser.left);
+        if (parser.infixes.length == 0 && parser.suffixes.length == 0) return;
+        int n = count(parser.operatorRequired ? 1 : 0, false);
+        for (int i = 0; i < n; ++i) {
+            boolean suffix = parser.infixes.length == 0
+                || parser.suffixes.length > 0 && random.nextBoolean();
+            if (suffix)
+                emit(parser.suffixes[random.nextInt(parser.suffixes.length)]);
+            else {
+                emit(parser.infixes[random.nextInt(parser.infixes.length)]);
+                emit(parser.right);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public void visit (RightExpression parser)
+    {
+        boolean infixes = parser.left != null && parser.infixes.length > 0;
+        int n = infixes || parser.prefixes.length > 0
+            ? count(parser.operatorRequired ? 1 : 0, false)
+            : 0;
+        for (int i = 0; i < n; ++i) {
+            boolean prefix = !infixes || parser.prefixes.length > 0 && random.nextBoolean();
+            if (prefix)
+                emit(parser.prefixes[random.nextInt(parser.prefixes.length)]);
+            else {
+                emit(parser.left);
+                emit(parser.infixes[random.nextInt(parser.infixes.length)]);
+            }
+        }
+        emit(parser.right);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
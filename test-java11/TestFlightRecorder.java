@@ -0,0 +1,134 @@
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import norswap.autumn.Autumn;
+import norswap.autumn.Grammar;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.monitoring.FlightRecorderEvents;
+import org.testng.annotations.Test;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Checks the events emitted through {@link FlightRecorderEvents} by recording them. Lives in the
+ * {@code java11} test source set, as it needs the JFR API.
+ */
+public final class TestFlightRecorder extends Grammar
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public rule aa   = str("aa").push($ -> $.str());
+    public rule memo = aa.memo();
+    public rule top  = choice(seq(memo, "b"), seq(memo, "a"));
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public rule root() {
+        return top;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private List<RecordedEvent> record (String input, ParseOptions options) throws Exception
+    {
+        Path file = Files.createTempFile("autumn", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("norswap.autumn.Parse").withoutThreshold();
+            recording.enable("norswap.autumn.SlowRule").withoutThreshold();
+            recording.start();
+            Autumn.parse(this, input, options);
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file).stream()
+                .filter(it -> it.getEventType().getName().startsWith("norswap.autumn."))
+                .collect(Collectors.toList());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static List<RecordedEvent> ofType (List<RecordedEvent> events, String name) {
+        return events.stream()
+            .filter(it -> it.getEventType().getName().equals(name))
+            .collect(Collectors.toList());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static RecordedEvent slowRule (List<RecordedEvent> events, String rule, int index)
+    {
+        List<RecordedEvent> matching = ofType(events, "norswap.autumn.SlowRule").stream()
+            .filter(it -> it.getString("rule").equals(rule))
+            .collect(Collectors.toList());
+        assertTrue(matching.size() > index, "missing SlowRule event for " + rule);
+        return matching.get(index);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void parseEvent() throws Exception
+    {
+        assertTrue(FlightRecorderEvents.supported());
+
+        List<RecordedEvent> events = record("aaa", ParseOptions.flightRecorder(true).get());
+        assertEquals(ofType(events, "norswap.autumn.SlowRule").size(), 0);
+
+        List<RecordedEvent> parses = ofType(events, "norswap.autumn.Parse");
+        assertEquals(parses.size(), 1);
+        RecordedEvent parse = parses.get(0);
+        assertEquals(parse.getString("parser"), "top");
+        assertEquals(parse.getInt("inputSize"), 3);
+        assertEquals(parse.getBoolean("success"), true);
+        assertEquals(parse.getBoolean("fullMatch"), true);
+        assertEquals(parse.getInt("matchSize"), 3);
+        assertEquals(parse.getInt("memoHits"), 1);
+        assertEquals(parse.getInt("memoMisses"), 1);
+        assertTrue(!parse.getDuration().isNegative());
+
+        parse = ofType(record("x", ParseOptions.flightRecorder(true).get()),
+            "norswap.autumn.Parse").get(0);
+        assertEquals(parse.getBoolean("success"), false);
+        assertEquals(parse.getBoolean("fullMatch"), false);
+        assertEquals(parse.getInt("matchSize"), -1);
+        assertEquals(parse.getInt("inputSize"), 1);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void slowRuleEvent() throws Exception
+    {
+        List<RecordedEvent> events = record("aab", ParseOptions.slowRuleThreshold(0).get());
+        assertEquals(ofType(events, "norswap.autumn.Parse").size(), 1);
+
+        RecordedEvent top = slowRule(events, "top", 0);
+        assertEquals(top.getInt("startPosition"), 0);
+        assertEquals(top.getInt("endPosition"), 3);
+        assertEquals(top.getBoolean("success"), true);
+        assertTrue(top.getLong("ruleDuration") >= 0);
+
+        // Only invoked once: the first branch succeeds.
+        RecordedEvent aa = slowRule(events, "aa", 0);
+        assertEquals(aa.getInt("startPosition"), 0);
+        assertEquals(aa.getInt("endPosition"), 2);
+        assertEquals(aa.getBoolean("success"), true);
+
+        events = record("b", ParseOptions.slowRuleThreshold(0).get());
+        RecordedEvent failed = slowRule(events, "top", 0);
+        assertEquals(failed.getInt("startPosition"), 0);
+        assertEquals(failed.getInt("endPosition"), 0);
+        assertEquals(failed.getBoolean("success"), false);
+
+        // A threshold that no invocation reaches emits no events.
+        events = record("aab", ParseOptions.slowRuleThreshold(Long.MAX_VALUE).get());
+        assertEquals(ofType(events, "norswap.autumn.SlowRule").size(), 0);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
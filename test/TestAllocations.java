@@ -0,0 +1,239 @@
+import lang.SyntheticInputs;
+import norswap.autumn.Autumn;
+import norswap.autumn.Grammar;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.autumn.util.AllocationUtil;
+import norswap.lang.java.JavaGrammar;
+import norswap.lang.java.JavaGrammarTokens;
+import norswap.lang.java.Lexer;
+import norswap.lang.java.Token;
+import norswap.lang.json.JSON;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+import static java.lang.String.format;
+import static org.testng.Assert.fail;
+
+/**
+ * Checks that the number of bytes allocated to parse representative inputs of each example
+ * grammar does not exceed a stored baseline by more than {@link #THRESHOLD}.
+ *
+ * <p>Allocations are measured with the per-thread allocation counter ({@link AllocationUtil}),
+ * after a warm-up, and the minimum over several parses is retained. Unlike wall-clock time, this
+ * is nearly deterministic, and so catches allocation creep (e.g. in {@code Log}, {@code
+ * ActionContext} or value stack handling) that timing tests would miss.
+ *
+ * <p>The baseline is stored in {@link #BASELINE}. A test is skipped if its entry is missing, which
+ * is why this class is not part of the default suite ({@code test/testng.xml}) until the baseline
+ * is committed. To record the baseline (e.g. to accept a new baseline after an intentional
+ * change), run the tests with the {@link #RECORD} system property set to true (with Gradle:
+ * {@code gradle test -PrecordAllocations}): the measured values then replace the baseline
+ * entries, and the tests pass. The baseline depends on the JVM (version, compressed pointers,
+ * ...), so it should be recorded on the JVM used to run the tests.
+ */
+public final class TestAllocations
+{
+    // ---------------------------------------------------------------------------------------------
+
+    /** Max tolerated allocation increase over the baseline, as a fraction of the baseline. */
+    private static final double THRESHOLD = 0.10;
+
+    private static final int WARMUP_RUNS = 20;
+    private static final int RUNS = 5;
+
+    private static final Path BASELINE = Paths.get("test", "allocation-baseline.properties");
+
+    /** System property that, if true, makes the tests record the baseline instead of checking. */
+    private static final String RECORD = "autumn.recordAllocations";
+
+    private static final String HEADER =
+        "# Bytes allocated per parse, see TestAllocations. "
+        + "Run the tests with -D" + RECORD + "=true to re-record.\n";
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static Properties baseline;
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final ParseOptions options = ParseOptions.wellFormednessCheck(false).get();
+
+    // ==============================================================================================
+    // Utilities
+    // ==============================================================================================
+
+    private static synchronized Properties baseline()
+    {
+        if (baseline != null) return baseline;
+        baseline = new Properties();
+        if (Files.exists(BASELINE))
+            try (Reader reader = Files.newBufferedReader(BASELINE, StandardCharsets.UTF_8)) {
+                baseline.load(reader);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        return baseline;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static synchronized void record (String name, long bytes)
+    {
+        Properties baseline = baseline();
+        baseline.setProperty(name, Long.toString(bytes));
+        try (Writer writer = Files.newBufferedWriter(BASELINE, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            for (String key: new TreeSet<>(baseline.stringPropertyNames()))
+                writer.write(key + "=" + baseline.getProperty(key) + "\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the minimum number of bytes allocated by {@code parse} over {@link #RUNS} runs,
+     * after a warm-up.
+     */
+    private static long measure (String name, Supplier<ParseResult> parse)
+    {
+        for (int i = 0; i < WARMUP_RUNS; ++i) {
+            ParseResult result = parse.get();
+            if (result != null && !result.fullMatch)
+                fail(name + ": input failed to parse: " + result);
+        }
+
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; ++i) {
+            long allocated0 = AllocationUtil.allocatedBytes();
+            parse.get();
+            min = Math.min(min, AllocationUtil.allocatedBytes() - allocated0);
+        }
+        return min;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Measures the bytes allocated by {@code parse} and compares them with the baseline entry
+     * {@code name}, or records it if {@link #RECORD} is set. {@code parse} may return null if it
+     * does not perform a parse (e.g. to measure lexing only).
+     */
+    private static void checkBudget (String name, Supplier<ParseResult> parse)
+    {
+        if (!AllocationUtil.supported())
+            throw new SkipException("allocation measurement is not supported on this JVM");
+
+        long bytes = measure(name, parse);
+
+        if (Boolean.getBoolean(RECORD)) {
+            record(name, bytes);
+            return;
+        }
+
+        String entry = baseline().getProperty(name);
+
+        if (entry == null)
+            throw new SkipException(format("%s: no baseline entry (allocated %,d bytes per parse), "
+                + "run the tests with -D%s=true to record it", name, bytes, RECORD));
+
+        long budget = Long.parseLong(entry.trim());
+        if (bytes > budget * (1 + THRESHOLD))
+            fail(format("%s: allocated %,d bytes per parse, baseline is %,d bytes (+%.1f%%)",
+                name, bytes, budget, 100.0 * (bytes - budget) / budget));
+    }
+
+    // ==============================================================================================
+    // Inputs
+    // ==============================================================================================
+
+    private static String xml (int depth, int width)
+    {
+        if (depth == 0) return "some text\n";
+        StringBuilder b = new StringBuilder("<tag").append(depth).append(">\n");
+        for (int i = 0; i < width; ++i)
+            b.append(xml(depth - 1, width));
+        return b.append("</tag").append(depth).append(">\n").toString();
+    }
+
+    // ==============================================================================================
+    // Tests
+    // ==============================================================================================
+
+    @Test public void json()
+    {
+        Grammar grammar = new JSON();
+        String input = SyntheticInputs.json(42, 50_000, 4, 5);
+        checkBudget("json", () -> Autumn.parse(grammar, input, options));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void java()
+    {
+        Grammar grammar = new JavaGrammar();
+        String input = SyntheticInputs.javaOfSize(42, 50_000, 3);
+        checkBudget("java", () -> Autumn.parse(grammar, input, options));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void javaLexer()
+    {
+        String input = SyntheticInputs.javaOfSize(42, 50_000, 3);
+        checkBudget("java-lexer", () -> { new Lexer(input).lex(); return null; });
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void javaTokens()
+    {
+        Grammar grammar = new JavaGrammarTokens();
+        String input = SyntheticInputs.javaOfSize(42, 50_000, 3);
+        List<Token> tokens = Arrays.asList(new Lexer(input).lex());
+        checkBudget("java-tokens", () -> Autumn.parse(grammar, tokens, options));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void expression()
+    {
+        Grammar grammar = new ExpressionBenchmark.GoodRightExpression();
+        String input = SyntheticInputs.expression(42, 500, 3);
+        checkBudget("expression", () -> Autumn.parse(grammar, input, options));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void simpleXML()
+    {
+        Grammar grammar = new SimpleXML();
+        String input = xml(5, 4).trim();
+        checkBudget("simple-xml", () -> Autumn.parse(grammar, input, options));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void recall()
+    {
+        Grammar grammar = new RecallGrammar();
+        checkBudget("recall", () -> Autumn.parse(grammar, "hello-hello", options));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
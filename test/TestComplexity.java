@@ -0,0 +1,335 @@
+import lang.SyntheticInputs;
+import norswap.autumn.Autumn;
+import norswap.autumn.Grammar;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.autumn.util.AllocationUtil;
+import norswap.lang.java.JavaGrammar;
+import norswap.lang.java.JavaGrammarTokens;
+import norswap.lang.java.Lexer;
+import norswap.lang.json.JSON;
+import norswap.utils.Strings;
+import org.testng.annotations.Test;
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import static java.lang.String.format;
+import static org.testng.Assert.expectThrows;
+import static org.testng.Assert.fail;
+
+/**
+ * Checks that the bundled grammars and the expression combinators parse in linear time and
+ * allocate a linear amount of memory.
+ *
+ * <p>Each test parses inputs of doubling size, then fits the time and allocated bytes against the
+ * input size, as {@code cost = c * size ^ exponent}. The test fails if the exponent exceeds one by
+ * more than a tolerance. The time tolerance is generous to absorb noise: it only catches growth
+ * that is clearly super-linear (e.g. quadratic, as demonstrated by {@link #quadratic()}). To
+ * further reduce flakiness, all sizes are warmed up before measuring, runs are interleaved across
+ * sizes, and the time measurement is retried once before failing.
+ *
+ * <p>Parses run on a thread with a large stack, as deeply nested inputs cause deep recursion.
+ */
+public final class TestComplexity extends Grammar
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final double TIME_TOLERANCE = 0.5;
+    private static final double ALLOCATION_TOLERANCE = 0.25;
+
+    /** Number of input sizes to measure (each twice the previous one). */
+    private static final int SIZES = 5;
+
+    /** Number of times all sizes are parsed before measuring, to let the JIT compiler settle. */
+    private static final int WARMUP_ROUNDS = 3;
+
+    /** Number of parses per size, the minimum time and allocation is retained. */
+    private static final int RUNS = 5;
+
+    /** Number of times the time measurement is retried before reporting super-linear time. */
+    private static final int TIME_ATTEMPTS = 2;
+
+    private static final long STACK_SIZE = 1L << 30;
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public rule root() {
+        throw new Error();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private final ParseOptions options = ParseOptions.wellFormednessCheck(false).get();
+
+    // ==============================================================================================
+    // Measurement
+    // ==============================================================================================
+
+    /**
+     * Measures {@code parse} on the inputs returned by {@code input} for {@link #SIZES} doubling
+     * sizes starting at {@code size0}, and fails if time or allocation grows super-linearly in the
+     * input length.
+     */
+    private void assertLinear (
+            String name, int size0, IntFunction<String> input, Function<String, ParseResult> parse)
+    {
+        Throwable[] error = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                measure(name, size0, input, parse);
+            } catch (Throwable t) {
+                error[0] = t;
+            }
+        }, "complexity-" + name, STACK_SIZE);
+
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (error[0] instanceof Error)
+            throw (Error) error[0];
+        if (error[0] != null)
+            throw new RuntimeException(error[0]);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private void measure (
+            String name, int size0, IntFunction<String> input, Function<String, ParseResult> parse)
+    {
+        String[] inputs = new String[SIZES];
+        double[] lengths = new double[SIZES];
+        for (int i = 0; i < SIZES; ++i) {
+            inputs[i] = input.apply(size0 << i);
+            lengths[i] = inputs[i].length();
+            ParseResult result = parse.apply(inputs[i]);
+            if (!result.fullMatch)
+                fail(name + ": input of size " + inputs[i].length() + " failed to parse");
+        }
+
+        // Warm up on all sizes, so that no size is measured with less optimized code.
+        for (int round = 0; round < WARMUP_ROUNDS; ++round)
+            for (String in: inputs)
+                parse.apply(in);
+
+        String report = null;
+
+        for (int attempt = 0; attempt < TIME_ATTEMPTS; ++attempt)
+        {
+            double[] times = new double[SIZES];
+            double[] bytes = new double[SIZES];
+            Arrays.fill(times, Double.MAX_VALUE);
+            Arrays.fill(bytes, Double.MAX_VALUE);
+
+            // Runs are interleaved across sizes, so that transient noise (GC, JIT, other
+            // processes) affects all sizes alike rather than skewing the fit.
+            for (int j = 0; j < RUNS; ++j)
+                for (int i = 0; i < SIZES; ++i) {
+                    long allocated0 = AllocationUtil.allocatedBytes();
+                    long time0 = System.nanoTime();
+                    parse.apply(inputs[i]);
+                    times[i] = Math.min(times[i], System.nanoTime() - time0);
+                    bytes[i] = Math.min(bytes[i], AllocationUtil.allocatedBytes() - allocated0);
+                }
+
+            double timeExponent = exponent(lengths, times);
+            double bytesExponent = exponent(lengths, bytes);
+            report = report(name, lengths, times, bytes, timeExponent, bytesExponent);
+
+            // Allocation is deterministic: no need to retry.
+            if (AllocationUtil.supported() && bytesExponent > 1 + ALLOCATION_TOLERANCE)
+                fail("super-linear allocation\n" + report);
+            if (timeExponent <= 1 + TIME_TOLERANCE)
+                return;
+        }
+
+        fail("super-linear parse time (in " + TIME_ATTEMPTS + " attempts)\n" + report);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns the slope of the least-squares fit of {@code log(y)} against {@code log(x)}.
+     */
+    private static double exponent (double[] x, double[] y)
+    {
+        double n = x.length, sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (int i = 0; i < x.length; ++i) {
+            double lx = Math.log(x[i]);
+            double ly = Math.log(Math.max(y[i], 1));
+            sx  += lx;
+            sy  += ly;
+            sxx += lx * lx;
+            sxy += lx * ly;
+        }
+        return (n * sxy - sx * sy) / (n * sxx - sx * sx);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String report (String name, double[] lengths, double[] times, double[] bytes,
+            double timeExponent, double bytesExponent)
+    {
+        StringBuilder b = new StringBuilder(name).append('\n');
+        for (int i = 0; i < lengths.length; ++i)
+            b.append(format("  size %,12.0f: %,14.0f ns, %,14.0f bytes%n",
+                lengths[i], times[i], bytes[i]));
+        b.append(format("  exponents: time %.2f, allocation %.2f", timeExponent, bytesExponent));
+        return b.toString();
+    }
+
+    // ==============================================================================================
+    // Inputs
+    // ==============================================================================================
+
+    private static String javaClass (String expression) {
+        return "class Test { int x = " + expression + "; }";
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String javaChain (int operands)
+    {
+        String[] operators = { " + ", " * ", " - ", " / ", " << ", " && " };
+        StringBuilder b = new StringBuilder("0");
+        for (int i = 1; i < operands; ++i)
+            b.append(operators[i % operators.length]).append(i);
+        return javaClass(b.toString());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static String nested (int depth, String left, String middle, String right) {
+        return Strings.repeat(left, depth) + middle + Strings.repeat(right, depth);
+    }
+
+    // ==============================================================================================
+    // Grammars
+    // ==============================================================================================
+
+    public rule number = digit.at_least(1);
+
+    public rule left_ground = lazy(() -> choice(seq('(', this.left_tower, ')'), number));
+
+    public rule left_product = left_expression()
+        .operand(left_ground)
+        .infix('*')
+        .infix('/');
+
+    public rule left_sum = left_expression()
+        .operand(left_product)
+        .infix('+')
+        .infix('-');
+
+    public rule left_shift = left_expression()
+        .operand(left_sum)
+        .infix("<<<")
+        .infix("<<")
+        .infix(">>");
+
+    public rule left_tower = left_expression()
+        .operand(left_shift)
+        .infix("==")
+        .infix("!=")
+        .infix(">=")
+        .infix("<=")
+        .infix('>')
+        .infix('<');
+
+    // ---------------------------------------------------------------------------------------------
+
+    // Each item looks ahead to the end of the input: quadratic time.
+    public rule quadratic_item = seq(ahead(seq(character('a').at_least(0), not(any))), 'a');
+    public rule quadratic_list = quadratic_item.at_least(0);
+
+    // ==============================================================================================
+    // Tests
+    // ==============================================================================================
+
+    @Test public void quadratic()
+    {
+        // sanity check: the test must detect super-linear growth
+        expectThrows(AssertionError.class, () ->
+            assertLinear("quadratic", 500, n -> Strings.repeat("a", n),
+                s -> Autumn.parse(quadratic_list, s, options)));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void json()
+    {
+        JSON grammar = new JSON();
+
+        assertLinear("json-list", 10_000, n -> SyntheticInputs.json(42, n, 4, 5),
+            s -> Autumn.parse(grammar, s, options));
+
+        assertLinear("json-wide", 10_000, n -> SyntheticInputs.json(42, n, 2, 50),
+            s -> Autumn.parse(grammar, s, options));
+
+        assertLinear("json-nested", 500, SyntheticInputs::jsonNested,
+            s -> Autumn.parse(grammar, s, options));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void java()
+    {
+        JavaGrammar grammar = new JavaGrammar();
+        Function<String, ParseResult> parse = s -> Autumn.parse(grammar, s, options);
+
+        assertLinear("java-methods", 8_000, n -> SyntheticInputs.javaOfSize(42, n, 3), parse);
+        assertLinear("java-chain", 500, TestComplexity::javaChain, parse);
+        assertLinear("java-nested", 250, n -> javaClass(nested(n, "(", "1", ")")), parse);
+        assertLinear("java-blocks", 250,
+            n -> "class Test { void f() " + nested(n, "{ ", "return;", " }") + " }", parse);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void javaTokens()
+    {
+        JavaGrammarTokens grammar = new JavaGrammarTokens();
+        Function<String, ParseResult> parse =
+            s -> Autumn.parse(grammar, Arrays.asList(new Lexer(s).lex()), options);
+
+        assertLinear("tokens-methods", 8_000, n -> SyntheticInputs.javaOfSize(42, n, 3), parse);
+        assertLinear("tokens-chain", 500, TestComplexity::javaChain, parse);
+        assertLinear("tokens-nested", 250, n -> javaClass(nested(n, "(", "1", ")")), parse);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void leftExpression()
+    {
+        assertLinear("left-chain", 1000, n -> SyntheticInputs.expression(42, n, 0),
+            s -> Autumn.parse(left_tower, s, options));
+
+        assertLinear("left-mixed", 1000, n -> SyntheticInputs.expression(42, n, 3),
+            s -> Autumn.parse(left_tower, s, options));
+
+        assertLinear("left-nested", 250, n -> nested(n, "(", "1", ")"),
+            s -> Autumn.parse(left_tower, s, options));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void rightExpression()
+    {
+        Grammar grammar = new ExpressionBenchmark.GoodRightExpression();
+
+        assertLinear("right-chain", 1000, n -> SyntheticInputs.expression(42, n, 0),
+            s -> Autumn.parse(grammar, s, options));
+
+        assertLinear("right-mixed", 1000, n -> SyntheticInputs.expression(42, n, 3),
+            s -> Autumn.parse(grammar, s, options));
+
+        assertLinear("right-nested", 250, n -> nested(n, "(", "1", ")"),
+            s -> Autumn.parse(grammar, s, options));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -0,0 +1,282 @@
+import com.sun.net.httpserver.HttpServer;
+import norswap.autumn.Autumn;
+import norswap.autumn.ConcurrentParseMetrics;
+import norswap.autumn.Grammar;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseStatistics;
+import norswap.autumn.SlowParseCapture;
+import norswap.autumn.SlowParseCapture.SlowParse;
+import norswap.autumn.memo.MemoPolicy;
+import norswap.autumn.monitoring.ParseMonitor;
+import norswap.autumn.monitoring.PrometheusExporter;
+import org.testng.annotations.Test;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static norswap.utils.Vanilla.list;
+
+public final class TestMonitoring extends Grammar
+{
+    // ---------------------------------------------------------------------------------------------
+
+    public rule aa   = str("aa").push($ -> $.str());
+    public rule memo = aa.memo();
+    public rule top  = choice(seq(memo, "b"), seq(memo, "a"));
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Override public rule root() {
+        return top;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private ParseStatistics statistics;
+    private ConcurrentParseMetrics metrics;
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Records 3 parses (one failure) over 7 characters, with 2 memo hits and 3 memo misses.
+     */
+    private void parse()
+    {
+        statistics = new ParseStatistics();
+        metrics = new ConcurrentParseMetrics();
+        ParseOptions options = ParseOptions
+            .statistics(statistics)
+            .metrics(metrics::metrics)
+            .get();
+
+        Autumn.parse(this, "aaa", options);
+        Autumn.parse(this, "aab", options);
+        Autumn.parse(this, "x", options);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void statistics()
+    {
+        parse();
+        ParseStatistics.Snapshot snapshot = statistics.snapshot();
+        assertEquals(snapshot.parses, 3L);
+        assertEquals(snapshot.failures, 1L);
+        assertEquals(snapshot.inputSize, 7L);
+        assertEquals(snapshot.memoHits, 2L);
+        assertEquals(snapshot.memoMisses, 3L);
+        assertEquals(snapshot.memoHitRate(), 0.4);
+
+        // Lookups performed because of the memo policy count too (1 miss for top, 1 miss + 1 hit
+        // for memo).
+        ParseStatistics policyStatistics = new ParseStatistics();
+        Autumn.parse(this, "aaa", ParseOptions
+            .statistics(policyStatistics)
+            .memoPolicy(MemoPolicy.builder().table("top").get())
+            .get());
+        assertEquals(policyStatistics.snapshot().memoHits, 1L);
+        assertEquals(policyStatistics.snapshot().memoMisses, 2L);
+        assertEquals(snapshot.failureRate(), 1 / 3.0);
+        assertTrue(snapshot.latency(0.5) > 0);
+        assertTrue(snapshot.latency(0.5) <= snapshot.latency(0.99));
+        assertEquals(snapshot.latency(1), snapshot.maxLatency);
+        assertTrue(snapshot.totalLatency >= snapshot.maxLatency);
+
+        assertEquals(statistics.snapshotAndReset().parses, 3L);
+        assertEquals(statistics.snapshot().parses, 0L);
+        assertEquals(statistics.snapshot().latency(0.5), 0L);
+
+        // Both phases of a diagnostic rerun count as a single parse.
+        Autumn.parse(this, "x", ParseOptions.statistics(statistics).diagnosticRerun(true).get());
+        assertEquals(statistics.snapshot().parses, 1L);
+        assertEquals(statistics.snapshot().failures, 1L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void prometheus() throws Exception
+    {
+        parse();
+        PrometheusExporter exporter = new PrometheusExporter(statistics, metrics, 10);
+        String text = exporter.scrape();
+
+        assertTrue(text.contains("# TYPE autumn_parses_total counter\nautumn_parses_total 3\n"));
+        assertTrue(text.contains("\nautumn_parse_failures_total 1\n"));
+        assertTrue(text.contains("\nautumn_parsed_input_total 7\n"));
+        assertTrue(text.contains("# TYPE autumn_parse_latency_seconds histogram\n"));
+        assertTrue(text.contains("\nautumn_parse_latency_seconds_bucket{le=\"+Inf\"} 3\n"));
+        assertTrue(text.contains("\nautumn_parse_latency_seconds_count 3\n"));
+        assertTrue(text.contains("\nautumn_parse_latency_seconds_sum "));
+
+        // Buckets are cumulative, the last finite one holds all parses.
+        long previous = 0;
+        List<String> buckets = Arrays.stream(text.split("\n"))
+            .filter(it -> it.startsWith("autumn_parse_latency_seconds_bucket{le=\"")
+                && !it.contains("+Inf"))
+            .collect(Collectors.toList());
+        assertTrue(!buckets.isEmpty());
+        for (String bucket: buckets) {
+            long count = Long.parseLong(bucket.substring(bucket.lastIndexOf(' ') + 1));
+            assertTrue(count >= previous);
+            previous = count;
+        }
+        assertEquals(previous, 3L);
+        assertTrue(text.contains("\nautumn_memo_hits_total 2\n"));
+        assertTrue(text.contains("\nautumn_rule_invocations_total{rule=\"memo\"} 5\n"));
+        assertTrue(text.contains("\nautumn_rule_invocations_total{rule=\"aa\"} 3\n"));
+
+        HttpServer server = exporter.serve(new InetSocketAddress("127.0.0.1", 0));
+        try {
+            URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/metrics");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            assertEquals(connection.getResponseCode(), 200);
+            assertEquals(connection.getContentType(), PrometheusExporter.CONTENT_TYPE);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    connection.getInputStream(), StandardCharsets.UTF_8))) {
+                String body = reader.lines().collect(Collectors.joining("\n", "", "\n"));
+                assertTrue(body.contains("\nautumn_parse_failures_total 1\n"));
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void flightRecorder()
+    {
+        ParseOptions options = ParseOptions.slowRuleThreshold(0).get();
+        assertEquals(options.flightRecorder, true);
+        assertEquals(options.slowRuleThreshold, 0L);
+        assertEquals(ParseOptions.slowRuleThreshold(-5).get().slowRuleThreshold, -1L);
+        assertEquals(ParseOptions.flightRecorder(false).slowRuleThreshold(10)
+            .flightRecorder(false).get().slowRuleThreshold, -1L);
+
+        // Events are only emitted on Java 11+, but parsing must work regardless.
+        assertTrue(Autumn.parse(this, "aaa", options).fullMatch);
+        assertTrue(!Autumn.parse(this, "x", options).fullMatch);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void slowParseCapture() throws Exception
+    {
+        List<SlowParse> captures = new ArrayList<>();
+        SlowParseCapture capture = new SlowParseCapture(-1, 1, 2, captures::add);
+        ParseOptions options = ParseOptions.slowParseCapture(capture).get();
+
+        Autumn.parse(this, "aab", options); // no backtracking
+        assertEquals(captures.size(), 0);
+        Autumn.parse(this, "aaa", options);
+        assertEquals(captures.size(), 1);
+
+        SlowParse slow = captures.get(0);
+        assertEquals(slow.string, "aaa");
+        assertEquals(slow.options, options);
+        assertEquals(slow.result.fullMatch, true);
+        assertTrue(slow.undoneLog >= 1);
+        assertTrue(slow.traced.fullMatch);
+        assertEquals(slow.traced.parseMetrics.metrics.get(memo.getParser()).invocations, 2L);
+        assertEquals(slow.traced.heatmap.counts.length, 4);
+
+        Path directory = Files.createTempDirectory("autumn-slow-parses");
+        try {
+            Autumn.parse(this, "x",
+                ParseOptions.slowParseCapture(new SlowParseCapture(0, -1, 1,
+                    SlowParseCapture.toDirectory(directory))).get());
+
+            List<Path> dirs = Files.list(directory).collect(Collectors.toList());
+            assertEquals(dirs.size(), 1);
+            for (String file: list("summary.txt", "input.txt", "metrics.txt", "heatmap.txt",
+                    "call-paths.txt"))
+                assertTrue(Files.exists(dirs.get(0).resolve(file)), file);
+            assertEquals(new String(Files.readAllBytes(dirs.get(0).resolve("input.txt")),
+                StandardCharsets.UTF_8), "x");
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+
+        // Failed captures are recorded, and do not affect the parse.
+
+        RuntimeException boom = new RuntimeException("boom");
+        SlowParseCapture failing = new SlowParseCapture(0, -1, 2, it -> { throw boom; });
+        assertTrue(Autumn.parse(this, "aab", ParseOptions.slowParseCapture(failing).get())
+            .fullMatch);
+        assertEquals(failing.failures(), 1);
+        assertEquals(failing.lastFailure(), boom);
+
+        Path file = Files.createTempFile("autumn-slow-parses", ".txt");
+        try {
+            SlowParseCapture unwritable
+                = new SlowParseCapture(0, -1, 1, SlowParseCapture.toDirectory(file));
+            assertTrue(Autumn.parse(this, "aab", ParseOptions.slowParseCapture(unwritable).get())
+                .fullMatch);
+            assertEquals(unwritable.failures(), 1);
+            assertTrue(unwritable.lastFailure() instanceof UncheckedIOException);
+        } finally {
+            Files.delete(file);
+        }
+
+        // The capture limit is respected.
+        Autumn.parse(this, "aaa", options);
+        Autumn.parse(this, "aaa", options);
+        assertEquals(captures.size(), 2);
+        assertEquals(capture.captured(), 2);
+        capture.resetLimit();
+        Autumn.parse(this, "aaa", options);
+        assertEquals(captures.size(), 3);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void jmx() throws Exception
+    {
+        parse();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ParseMonitor(statistics, metrics, 2).register("test");
+        try {
+            assertEquals(server.getAttribute(name, "Parses"), 3L);
+            assertEquals(server.getAttribute(name, "FailureRate"), 1 / 3.0);
+            assertEquals(server.getAttribute(name, "MemoHitRate"), 0.4);
+            assertTrue((Double) server.getAttribute(name, "LatencyP99") > 0);
+            assertEquals(((String[]) server.getAttribute(name, "TopRulesBySelfTime")).length, 2);
+
+            server.invoke(name, "reset", null, null);
+            assertEquals(server.getAttribute(name, "Parses"), 0L);
+            assertEquals(server.getAttribute(name, "LatencyMax"), 0.0);
+
+            // The monitor's window is independent of the statistics, which other consumers
+            // (e.g. Prometheus) may be reading.
+            assertEquals(statistics.snapshot().parses, 3L);
+            assertEquals(metrics.parses(), 3L);
+
+            Autumn.parse(this, "aab", ParseOptions.statistics(statistics).get());
+            assertEquals(server.getAttribute(name, "Parses"), 1L);
+            assertEquals(server.getAttribute(name, "FailureRate"), 0.0);
+            assertTrue((Double) server.getAttribute(name, "LatencyMax") > 0);
+        } finally {
+            ParseMonitor.unregister("test");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
@@ -1,19 +1,47 @@
+import norswap.autumn.Autumn;
 import norswap.autumn.AutumnTestFixture;
+import norswap.autumn.CallProfile;
+import norswap.autumn.ConcurrentParseMetrics;
 import norswap.autumn.Grammar;
+import norswap.autumn.IncrementalParser;
+import norswap.autumn.InputHeatmap;
+import norswap.autumn.ParseCounters;
+import norswap.autumn.ParseEventReader;
+import norswap.autumn.ParseEventRecorder;
+import norswap.autumn.ParseMetrics;
+import norswap.autumn.PerformanceFuzzer;
+import norswap.autumn.ParseOptions;
 import norswap.autumn.ParseResult;
+import norswap.autumn.ParseSampler;
 import norswap.autumn.ParseState;
+import norswap.autumn.Parser;
+import norswap.autumn.ParserCallFrame;
+import norswap.autumn.ParserCallStack;
+import norswap.autumn.ParserMetrics;
+import norswap.autumn.ParserWalker;
 import norswap.autumn.actions.ActionContext;
 import norswap.autumn.memo.MemoEntry;
+import norswap.autumn.memo.MemoPolicy;
 import norswap.autumn.memo.MemoTable;
+import norswap.autumn.memo.MemoTuner;
 import norswap.autumn.parsers.*;
+import norswap.autumn.positions.LineMapString;
+import norswap.autumn.util.AllocationUtil;
+import norswap.autumn.visitors.VisitorInputGenerator;
 import norswap.utils.Strings;
 import norswap.utils.Vanilla;
 import norswap.utils.data.wrappers.Slot;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.function.Supplier;
 
@@ -647,6 +675,611 @@ public final class TestParsers extends Grammar
 
     // ---------------------------------------------------------------------------------------------
 
+    @Test public void memoPolicy()
+    {
+        Slot<Integer> counter = new Slot<>(0);
+
+        // 1. Memoize a rule that isn't a memo parser.
+
+        rule acount = a.collect($ -> ++ counter.x);
+        acount.getParser().setRule("acount");
+        rule = choice(seq(acount, b), acount);
+
+        success("a");
+        assertEquals(counter.x, 4); // because success runs the parser TWICE!
+
+        try {
+            fixture.options = ParseOptions
+                .memoPolicy(MemoPolicy.parse("# comment\nacount = table\n"))
+                .get();
+
+            counter.x = 0;
+            success("a");
+            assertEquals(counter.x, 2);
+
+            // 2. Disable a memo parser.
+
+            rule amemo = a.collect($ -> ++ counter.x).memo();
+            amemo.getParser().setRule("amemo");
+            rule = choice(seq(amemo, b), amemo);
+
+            counter.x = 0;
+            success("a");
+            assertEquals(counter.x, 2);
+
+            fixture.options = ParseOptions
+                .memoPolicy(MemoPolicy.builder().none("amemo").get())
+                .get();
+
+            counter.x = 0;
+            success("a");
+            assertEquals(counter.x, 4);
+
+            // 3. Replace the memoizer of a memo parser.
+
+            fixture.options = ParseOptions
+                .memoPolicy(MemoPolicy.parse("amemo = cache:2"))
+                .get();
+
+            counter.x = 0;
+            success("a");
+            assertEquals(counter.x, 2);
+        }
+        finally {
+            fixture.options = null;
+        }
+
+        // 4. Round trip through the string representation.
+
+        MemoPolicy policy = MemoPolicy.builder().none("x").table("y").cache("z", 4).get();
+        assertEquals(MemoPolicy.parse(policy.toString()).settings, policy.settings);
+
+        // 5. Policies are resolved once per root parser.
+
+        Parser root = rule.getParser();
+        assertEquals(policy.resolve(root) == policy.resolve(root), true);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * A small grammar with two memo rules, for {@link #memoTuner()}.
+     */
+    public static final class TunedGrammar extends Grammar
+    {
+        public rule pair = seq("a", "b").memo();
+        public rule item = choice(seq(pair, "c"), seq(pair, "d"), "e").memo(4);
+        public rule items = item.at_least(1);
+
+        @Override public rule root() {
+            return items;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void memoTuner()
+    {
+        MemoTuner tuner = new MemoTuner(new TunedGrammar(), list("abcabd", "eabde", "abd"));
+        tuner.cacheSizes = new int[] { 1, 4 };
+        tuner.warmupRounds = 0;
+        tuner.measuredRounds = 1;
+        tuner.tolerance = Double.POSITIVE_INFINITY; // all settings tie, least allocation wins
+
+        assertEquals(tuner.memoRules(), list("item", "pair"));
+
+        MemoPolicy policy = tuner.tune();
+        assertEquals(policy.settings.keySet(), new HashSet<>(list("item", "pair")));
+        assertEquals(tuner.measurements.size(), 8); // (none, table, 2 cache sizes) * 2 rules
+
+        for (String rule: tuner.memoRules())
+        {
+            List<MemoTuner.Measurement> measurements = new ArrayList<>();
+            for (MemoTuner.Measurement m: tuner.measurements)
+                if (m.rule.equals(rule)) measurements.add(m);
+
+            assertEquals(measurements.size(), 4);
+            MemoTuner.Measurement selected = null;
+            for (MemoTuner.Measurement m: measurements)
+                if (m.setting.equals(policy.settings.get(rule))) selected = m;
+
+            assertEquals(selected != null, true);
+            for (MemoTuner.Measurement m: measurements)
+                assertEquals(selected.allocated <= m.allocated, true);
+        }
+
+        // The tuned policy parses the corpus.
+        for (String input: tuner.inputs)
+            assertEquals(Autumn.parse(new TunedGrammar(), input,
+                ParseOptions.memoPolicy(policy).get()).fullMatch, true);
+
+        // Inputs must match the grammar.
+        try {
+            new MemoTuner(new TunedGrammar(), list("abx")).tune();
+            AssertJUnit.fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e) {
+            assertEquals(e.getMessage().contains("#0"), true);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void recognize()
+    {
+        Slot<Integer> counter = new Slot<>(0);
+        ParseOptions options = ParseOptions.recognize(true).get();
+
+        rule = seq(a, b.collect($ -> ++ counter.x), left_expression()
+            .operand(a)
+            .infix("+", $ -> { ++ counter.x; return $.$[0]; }))
+            .push($ -> ++ counter.x);
+
+        // Only the collect action (not a StackPush) is run.
+
+        result = Autumn.parse(rule, "aba+a", options);
+        assertEquals(result.fullMatch, true);
+        assertEquals(result.matchSize, 5);
+        assertEquals(result.valueStack.size(), 0);
+        assertEquals(counter.x, 1);
+
+        result = Autumn.parse(rule, "aba+", options);
+        assertEquals(result.success, true);
+        assertEquals(result.fullMatch, false);
+        assertEquals(result.matchSize, 3);
+        assertEquals(counter.x, 2);
+
+        result = Autumn.parse(rule, "b", options);
+        assertEquals(result.success, false);
+        assertEquals(result.errorOffset, -1);
+        assertEquals(counter.x, 2);
+
+        // The same inputs without the option.
+
+        assertEquals(Autumn.parse(rule, "aba+a", ParseOptions.get()).valueStack.size(), 1);
+        assertEquals(counter.x, 5);
+        assertEquals(Autumn.parse(rule, "b", ParseOptions.get()).errorOffset, 0);
+
+        // Predicates can still make their parser fail.
+
+        rule = seq(a, b).filter($ -> false);
+        assertEquals(Autumn.parse(rule, "ab", options).success, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void recognizeStateChanges()
+    {
+        // Both grammars change state in actions, which is then read by other parsers.
+        ParseOptions options = ParseOptions.recognize(true).get();
+
+        Grammar xml = new SimpleXML();
+        String document = "<a><b>text</b><c></c></a>";
+        assertEquals(Autumn.parse(xml, document, options).fullMatch, true);
+        assertEquals(Autumn.parse(xml, "<a><b>text</c></a>", options).fullMatch, false);
+        assertEquals(Autumn.parse(xml, document, ParseOptions.get()).fullMatch, true);
+
+        Grammar recall = new RecallGrammar();
+        assertEquals(Autumn.parse(recall, "hello-hello", options).fullMatch, true);
+        assertEquals(Autumn.parse(recall, "hello-world", options).fullMatch, false);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void diagnosticRerun()
+    {
+        Slot<Integer> counter = new Slot<>(0);
+        rule = seq(a, b).push($ -> ++ counter.x);
+
+        for (boolean recognize: new boolean[] { false, true })
+        {
+            ParseOptions options = ParseOptions
+                .diagnosticRerun(true)
+                .recognize(recognize)
+                .get();
+
+            // Successful parse: single phase, no call stack.
+
+            counter.x = 0;
+            result = Autumn.parse(rule, "ab", options);
+            assertEquals(result.fullMatch, true);
+            assertEquals(result.options.recordCallStack, false);
+            assertEquals(counter.x, recognize ? 0 : 1);
+
+            // Failed parse: rerun with call stack, full error tracking and actions.
+
+            counter.x = 0;
+            result = Autumn.parse(rule, "aa", options);
+            assertEquals(result.fullMatch, false);
+            assertEquals(result.errorOffset, 1);
+            assertEquals(result.options.recognize, false);
+            assertEquals(result.errorCallStack != null, true);
+
+            result = Autumn.parse(rule, "aba", options);
+            assertEquals(result.success, true);
+            assertEquals(result.fullMatch, false);
+            assertEquals(result.valueStack.size(), 1);
+            assertEquals(counter.x, recognize ? 1 : 2);
+
+            // Successful parse: the first phase does not track the furthest error.
+
+            result = Autumn.parse(choice(seq(a, a), seq(a, b)), "ab", options);
+            assertEquals(result.fullMatch, true);
+            assertEquals(result.errorOffset, -1);
+            assertEquals(Autumn.parse(choice(seq(a, a), seq(a, b)), "ab", ParseOptions.get())
+                .errorOffset, 1);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void callStackSnapshot()
+    {
+        ParserCallStack stack = new ParserCallStack();
+        stack.push(a.getParser(), 0);
+        stack.push(b.getParser(), 1);
+
+        ParserCallStack snapshot = stack.snapshot();
+        stack.pop();
+        stack.push(aa.getParser(), 2);
+        stack.push(a.getParser(), 3);
+
+        assertEquals(snapshot.size(), 2);
+        assertEquals(snapshot.get(1).parser, b.getParser());
+        assertEquals(stack.size(), 3);
+        assertEquals(stack.get(1).position, 2);
+        assertEquals(stack.peek().position, 3);
+        assertEquals(snapshot.get(0), stack.get(0)); // frames are shared
+
+        int i = 0;
+        for (ParserCallFrame frame: stack)
+            assertEquals(frame, stack.get(i++));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void counters()
+    {
+        ParseCounters counters = new ParseCounters();
+        ParseOptions options = ParseOptions.counters(() -> counters).get();
+        rule = choice(seq(a, b), seq(a, a)).at_least(0);
+
+        Autumn.parse(rule, "abaaab", options);
+        assertEquals(counters.invocations(a.getParser()), 7L);
+        assertEquals(counters.successes(a.getParser()), 5L);
+        assertEquals(counters.failures(a.getParser()), 2L);
+        assertEquals(counters.successes(b.getParser()), 2L);
+        assertEquals(counters.failures(b.getParser()), 1L);
+        assertEquals(counters.consumed(rule.getParser()), 6L);
+        assertEquals(counters.parsers().contains(aa.getParser()), false);
+
+        // Counts aggregate over parses, and are compatible with tracing.
+
+        options = ParseOptions.counters(() -> counters).trace(true).get();
+        ParseResult result = Autumn.parse(rule, "ab", options);
+        assertEquals(counters.invocations(rule.getParser()), 2L);
+        assertEquals(result.parseCounters, counters);
+        assertEquals(result.parseMetrics.metrics.get(a.getParser()).invocations, 3L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void parserIds()
+    {
+        // Ids are assigned as a contiguous block to the parsers of a grammar on its first
+        // instrumented parse, no matter how many parsers were created before.
+
+        for (int i = 0; i < 100; ++i)
+            character('x').getParser().id();
+
+        rule x = character('x');
+        rule y = character('y');
+        rule root = choice(seq(x, y), seq(x, x)).at_least(0);
+
+        ParseCounters counters = new ParseCounters();
+        Autumn.parse(root, "xyxx", ParseOptions.counters(() -> counters).get());
+
+        List<Parser> parsers = new ArrayList<>();
+        new ParserWalker() {
+            @Override protected void work (Parser parser, State state) {
+                if (state == State.BEFORE) parsers.add(parser);
+            }
+        }
+        .walk(root.getParser());
+
+        int min = parsers.stream().mapToInt(Parser::id).min().getAsInt();
+        int max = parsers.stream().mapToInt(Parser::id).max().getAsInt();
+        assertEquals(max - min + 1, parsers.size());
+        assertEquals(counters.invocations(x.getParser()), 6L);
+        assertEquals(counters.parsers().size(), parsers.size());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void wasteMetrics()
+    {
+        Parser seq = seq(aa, b).getParser();
+        rule = choice(seq, seq(aa, a));
+
+        ParseResult result = Autumn.parse(rule, "aaa", ParseOptions.trace(true).get());
+        assertEquals(result.fullMatch, true);
+
+        ParseMetrics metrics = result.parseMetrics;
+        ParserMetrics aaMetrics = metrics.metrics.get(aa.getParser());
+        assertEquals(aaMetrics.invocations, 2L);
+        assertEquals(aaMetrics.wastedInput, 2L); // first match of aa, before b failed
+        assertEquals(metrics.metrics.get(seq).wastedInput, 2L); // consumed before failing
+        assertEquals(metrics.metrics.get(rule.getParser()).wastedInput, 0L);
+        assertEquals(metrics.metrics.get(seq).undoneLog, 2L); // whitespace + value pushed by aa
+        assertEquals(metrics.undoneLog, 2L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void allocationMetrics()
+    {
+        rule = choice(seq(aa, b), seq(aa, a)).at_least(0);
+        ParseOptions options = ParseOptions.traceAllocations(true).get();
+        assertEquals(options.trace, true);
+        assertEquals(ParseOptions.traceAllocations(true).trace(false).get().traceAllocations, false);
+
+        String input = String.join("", Collections.nCopies(1000, "aaa"));
+        ParseMetrics metrics = Autumn.parse(rule, input, options).parseMetrics;
+        ParserMetrics root = metrics.metrics.get(rule.getParser());
+        ParserMetrics aaMetrics = metrics.metrics.get(aa.getParser());
+
+        if (!AllocationUtil.supported()) {
+            assertEquals(root.totalAllocated, 0L);
+            return;
+        }
+
+        long self = 0;
+        for (ParserMetrics m: metrics.metrics.values())
+            self += m.selfAllocated;
+
+        assertEquals(root.totalAllocated > 0, true);
+        assertEquals(aaMetrics.totalAllocated > 0, true); // pushes strings
+        assertEquals(self, root.totalAllocated);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void callProfile()
+    {
+        rule = choice(seq(aa, b), seq(aa, a));
+        rule.getParser().setRule("top");
+
+        ParseOptions options = ParseOptions.traceCallPaths(true).get();
+        assertEquals(options.trace, true);
+        ParseMetrics metrics = Autumn.parse(rule, "aaa", options).parseMetrics;
+
+        assertEquals(metrics.callProfile.collapsedStacks(CallProfile.Weight.INVOCATIONS),
+            list("top 1", "top;aa 2", "top;b 1", "top;a 1"));
+
+        long self = 0;
+        for (String line: metrics.callProfile.collapsedStacks(CallProfile.Weight.SELF_TIME))
+            self += Long.parseLong(line.substring(line.indexOf(' ') + 1));
+        long expected = 0;
+        for (ParserMetrics m: metrics.metrics.values())
+            expected += m.selfTime;
+        assertEquals(self, expected);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void heatmap()
+    {
+        rule = choice(seq(aa, b), seq(aa, a));
+        ParseResult result = Autumn.parse(rule, "aaa", ParseOptions.heatmap(true).get());
+        assertEquals(result.fullMatch, true);
+
+        InputHeatmap heatmap = result.heatmap;
+        assertEquals(heatmap.counts.length, 4);
+        assertEquals(heatmap.counts[0], 2); // aa matched twice
+        assertEquals(heatmap.counts[1], 2);
+        assertEquals(heatmap.counts[2], 2); // b, then a
+        assertEquals(heatmap.counts[3], 0);
+        assertEquals(heatmap.hotspots(2), list(0, 1));
+        assertEquals(heatmap.histogram()[2], 3L); // three positions examined 2-3 times
+
+        String report = heatmap.report(new LineMapString(null, "aaa"), 1);
+        assertEquals(report.contains("1:1"), true);
+        assertEquals(report.contains("1:2"), false);
+
+        assertEquals(Autumn.parse(rule, "aaa", ParseOptions.get()).heatmap, null);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void eventRecorder() throws Exception
+    {
+        rule = choice(seq(a, b), seq(a, a));
+        Parser top = rule.getParser(), pa = a.getParser(), pb = b.getParser();
+        ParseEventRecorder recorder = ParseEventRecorder.offHeap(1024);
+        ParseOptions options = ParseOptions.recorder(() -> recorder).get();
+        Autumn.parse(rule, "aa", options);
+
+        HashMap<Integer, String> names = new HashMap<>();
+        names.put(top.id(), "top");
+        names.put(pa.id(), "a");
+        names.put(pb.id(), "b");
+        String[] kinds = { "enter", "success", "failure" };
+
+        List<ParseEventReader.Event> events = recorder.reader().events();
+        assertEquals((long) events.size(), recorder.count());
+        List<String> trace = new ArrayList<>();
+        long time = 0;
+        for (ParseEventReader.Event event: events) {
+            assertEquals(event.time >= time, true);
+            time = event.time;
+            if (names.containsKey(event.parser))
+                trace.add(kinds[event.kind] + " " + names.get(event.parser) + " " + event.position);
+        }
+        assertEquals(trace, list(
+            "enter top 0", "enter a 0", "success a 1", "enter b 1", "failure b 1",
+            "enter a 0", "success a 1", "enter a 1", "success a 2", "success top 2"));
+
+        // Ring buffer: only the last events are kept.
+
+        ParseEventRecorder small = ParseEventRecorder.offHeap(4);
+        Autumn.parse(rule, "aa", ParseOptions.recorder(() -> small).get());
+        assertEquals(small.count(), recorder.count());
+        List<ParseEventReader.Event> last = small.reader().events();
+        assertEquals(last.size(), 4);
+        for (int i = 0; i < 4; ++i) {
+            ParseEventReader.Event expected = events.get(events.size() - 4 + i);
+            assertEquals(last.get(i).kind, expected.kind);
+            assertEquals(last.get(i).parser, expected.parser);
+            assertEquals(last.get(i).position, expected.position);
+        }
+
+        // Memory-mapped file, read back with its parser dictionary.
+
+        Path file = Files.createTempFile("autumn-events", ".bin");
+        Path dictionary = Files.createTempFile("autumn-events", ".txt");
+        try {
+            ParseEventRecorder mapped = ParseEventRecorder.mapped(file, 1024);
+            Autumn.parse(rule, "aa", ParseOptions.recorder(() -> mapped).get());
+            mapped.force();
+            mapped.writeDictionary(dictionary);
+
+            List<ParseEventReader.Event> read = ParseEventReader.open(file).events();
+            assertEquals(read.size(), events.size());
+            assertEquals(read.get(0).parser, top.id());
+            assertEquals(ParseEventReader.readDictionary(dictionary).get(pa.id()), pa.toString());
+        } finally {
+            Files.delete(file);
+            Files.delete(dictionary);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void sampler()
+    {
+        rule = choice(seq(aa, b), seq(aa, a)).at_least(0);
+        rule.getParser().setRule("top");
+        String input = Strings.repeat("aaa", 10_000);
+
+        try (ParseSampler sampler = new ParseSampler(20_000).start()) {
+            ParseOptions options = ParseOptions.sampler(sampler).get();
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            while (sampler.samples() < 10 && System.nanoTime() < deadline)
+                assertEquals(Autumn.parse(rule, input, options).fullMatch, true);
+            sampler.stop();
+
+            long samples = sampler.samples();
+            assertEquals(samples >= 10, true);
+            List<String> paths = list(CallProfile.ROOT_NAME, "top", "top;aa", "top;a", "top;b");
+            long total = 0;
+            for (Map.Entry<String, Long> entry: sampler.histogram().entrySet()) {
+                AssertJUnit.assertTrue(entry.getKey(), paths.contains(entry.getKey()));
+                total += entry.getValue();
+            }
+            assertEquals(total, samples);
+            assertEquals(sampler.collapsedStacks().size(), sampler.histogram().size());
+
+            // No samples are taken once stopped.
+            Autumn.parse(rule, input, options);
+            assertEquals(sampler.samples(), samples);
+            sampler.clear();
+            assertEquals(sampler.samples(), 0L);
+            assertEquals(sampler.toCollapsedStacks(), "");
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void concurrentMetrics() throws InterruptedException
+    {
+        rule = choice(seq(a, b), seq(a, a)).at_least(0);
+        ConcurrentParseMetrics aggregator = new ConcurrentParseMetrics();
+        ParseOptions options = ParseOptions.metrics(aggregator::metrics).get();
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 25; ++j)
+                    Autumn.parse(rule, "abaaab", options);
+            });
+            threads[i].start();
+        }
+        for (Thread thread: threads)
+            thread.join();
+
+        assertEquals(aggregator.parses(), 100L);
+        ParseMetrics snapshot = aggregator.snapshotAndReset();
+        assertEquals(snapshot.parses, 100L);
+        assertEquals(snapshot.metrics.get(a.getParser()).invocations, 700L);
+        assertEquals(snapshot.metrics.get(b.getParser()).invocations, 300L);
+
+        assertEquals(aggregator.parses(), 0L);
+        assertEquals(aggregator.snapshot().metrics.isEmpty(), true);
+
+        ParseResult result = Autumn.parse(rule, "ab", options);
+        assertEquals(result.parseMetrics.parses, 1L);
+        assertEquals(aggregator.snapshot().metrics.get(a.getParser()).invocations, 3L);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void incrementalParser()
+    {
+        Slot<Integer> counter = new Slot<>(0);
+        rule item = choice(a, b).push($ -> { ++ counter.x; return $.$[0]; }).memo();
+        rule = item.at_least(0);
+
+        IncrementalParser parser = new IncrementalParser(rule, ParseOptions.get());
+        assertEquals(parser.shiftEffects, false);
+        parser.shiftEffects = true;
+        result = parser.parse("abab");
+        assertEquals(result.fullMatch, true);
+        assertEquals(counter.x, 4);
+
+        // Only the inserted item is parsed, the others are reused (shifted if after the edit).
+
+        counter.x = 0;
+        result = parser.edit(2, 0, "b");
+        assertEquals(parser.string(), "abbab");
+        assertEquals(result.fullMatch, true);
+        assertEquals(result.valueStack, list("a", "b", "b", "a", "b"));
+        assertEquals(counter.x, 1);
+
+        // Removal.
+
+        counter.x = 0;
+        result = parser.edit(0, 1, "");
+        assertEquals(result.fullMatch, true);
+        assertEquals(result.valueStack, list("b", "b", "a", "b"));
+        assertEquals(counter.x, 0);
+
+        // Replacement that makes the parse fail, then fixing it back.
+
+        counter.x = 0;
+        result = parser.edit(1, 2, "c");
+        assertEquals(parser.string(), "bcb");
+        assertEquals(result.fullMatch, false);
+        assertEquals(counter.x, 0);
+
+        // The last item was not reached by the failed parse: its entry is relocated through the
+        // last three edits.
+
+        result = parser.edit(1, 1, "a");
+        assertEquals(result.fullMatch, true);
+        assertEquals(result.valueStack, list("b", "a", "b"));
+        assertEquals(counter.x, 1);
+
+        // Without shifting side effects, items after the edit are parsed again.
+
+        parser.shiftEffects = false;
+        counter.x = 0;
+        result = parser.edit(1, 0, "a");
+        assertEquals(result.valueStack, list("b", "a", "a", "b"));
+        assertEquals(counter.x, 3);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Test public void testLeftExpression()
     {
         rule = left_expression()
@@ -791,4 +1424,64 @@ public final class TestParsers extends Grammar
     }
 
     // ---------------------------------------------------------------------------------------------
+
+    /** Backtracks over the whole nested expression at every level: exponential. */
+    public static final class ExponentialGrammar extends Grammar
+    {
+        public rule nested = lazy(() -> choice(
+            seq('(', this.nested, ')', 'a'),
+            seq('(', this.nested, ')', 'b'),
+            'c'));
+
+        @Override public rule root() {
+            return nested;
+        }
+    }
+
+    /** Same language as {@link ExponentialGrammar}, without the backtracking. */
+    public static final class LinearGrammar extends Grammar
+    {
+        public rule nested = lazy(() -> choice(
+            seq('(', this.nested, ')', set("ab")),
+            'c'));
+
+        @Override public rule root() {
+            return nested;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testInputGenerator()
+    {
+        Grammar grammar = new LinearGrammar();
+        VisitorInputGenerator generator = new VisitorInputGenerator(new Random(0));
+        for (int i = 0; i < 100; ++i) {
+            String input = generator.generate(grammar.root().getParser());
+            AssertJUnit.assertNotNull(input);
+            AssertJUnit.assertTrue(input, Autumn.parse(grammar, input, ParseOptions.get()).fullMatch);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testPerformanceFuzzer()
+    {
+        PerformanceFuzzer fuzzer = new PerformanceFuzzer(new ExponentialGrammar());
+        fuzzer.iterations = 2000;
+        fuzzer.maxLength = 64;
+        List<PerformanceFuzzer.Finding> bad = fuzzer.run();
+
+        fuzzer = new PerformanceFuzzer(new LinearGrammar());
+        fuzzer.iterations = 2000;
+        fuzzer.maxLength = 64;
+        List<PerformanceFuzzer.Finding> good = fuzzer.run();
+
+        AssertJUnit.assertFalse(bad.isEmpty());
+        AssertJUnit.assertTrue(bad.get(0) + " / " + good.get(0),
+            bad.get(0).score > 4 * good.get(0).score);
+        AssertJUnit.assertEquals("nested", bad.get(0).rules.get(0).parser.rule());
+    }
+
+    // ---------------------------------------------------------------------------------------------
 }
@@ -1,9 +1,18 @@
 import norswap.autumn.Autumn;
 import norswap.autumn.Grammar;
+import norswap.autumn.GrammarAnalysis;
 import norswap.autumn.MalformedGrammarError;
 import norswap.autumn.ParseOptions;
+import norswap.autumn.Parser;
+import norswap.autumn.parsers.Optional;
+import norswap.autumn.visitors.BacktrackingAnalyzer;
+import norswap.autumn.visitors.BacktrackingAnalyzer.Kind;
+import norswap.autumn.visitors.BacktrackingAnalyzer.Warning;
 import org.testng.annotations.Test;
+import java.util.List;
 
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertSame;
 import static org.testng.AssertJUnit.assertTrue;
 
 public class TestWellFormedness extends Grammar
@@ -30,6 +39,22 @@ public class TestWellFormedness extends Grammar
         seq(lazy(() -> this.anonymousLeftRecursive), "a"),
         "a");
 
+    public rule nestedRepetition = seq(str("a").at_least(1), str("b").opt()).at_least(0);
+
+    public rule separatedRepetition = seq(str("a").at_least(1), ",").at_least(0);
+
+    public rule sharedItem = lazy(() -> seq("[", this.sharedItem.opt(), "]"));
+
+    public rule sharedRule = choice(
+        seq(sharedItem, "a"),
+        seq(str("x").opt(), sharedItem, "b"));
+
+    public rule memoizedItem = sharedItem.memo();
+
+    public rule memoizedPrefix = choice(
+        seq(memoizedItem, "a"),
+        seq(memoizedItem, "b"));
+
     // ---------------------------------------------------------------------------------------------
 
     private void assertThrown(rule rule, String name) {
@@ -44,6 +69,13 @@ public class TestWellFormedness extends Grammar
 
     // ---------------------------------------------------------------------------------------------
 
+    private List<Warning> warnings (rule rule) {
+        makeRuleNames();
+        return new BacktrackingAnalyzer().analyze(rule.getParser());
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
     @Test public void testLeftRecursion() {
         assertThrown(leftRecursive, "left-recursive parser");
     }
@@ -65,5 +97,48 @@ public class TestWellFormedness extends Grammar
         assertThrown(nullableRepetitionRepetition, "repetition of nullable repetition");
     }
 
+    @Test public void testCachedAnalysis()
+    {
+        // the error must still be thrown once the analysis is cached
+        assertThrown(nullableRepetitionRepetition, "repetition of nullable repetition");
+        assertThrown(nullableRepetitionRepetition, "repetition of nullable repetition");
+
+        Parser parser = optRepetition.getParser();
+        GrammarAnalysis analysis = GrammarAnalysis.of(parser);
+        assertSame(analysis, GrammarAnalysis.of(parser));
+        assertTrue(analysis.nullable(parser));
+        assertTrue(analysis.firsts(parser).iterator().next() instanceof Optional);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void testCommonPrefix()
+    {
+        List<Warning> warnings = new ExpressionBenchmark.BadRightExpression().backtrackingWarnings();
+        assertEquals(4, warnings.size()); // product, sum, shift, cmp
+        for (Warning warning: warnings)
+            assertEquals(Kind.COMMON_PREFIX, warning.kind);
+        assertEquals("ground", warnings.get(warnings.size() - 1).culprits.get(0).rule());
+
+        assertTrue(new ExpressionBenchmark.GoodRightExpression().backtrackingWarnings().isEmpty());
+        assertTrue(warnings(memoizedPrefix).isEmpty());
+    }
+
+    @Test public void testSharedRule()
+    {
+        List<Warning> warnings = warnings(sharedRule);
+        assertEquals(1, warnings.size());
+        assertEquals(Kind.SHARED_RULE, warnings.get(0).kind);
+        assertEquals("sharedItem", warnings.get(0).culprits.get(0).rule());
+    }
+
+    @Test public void testNestedRepetition()
+    {
+        List<Warning> warnings = warnings(nestedRepetition);
+        assertEquals(1, warnings.size());
+        assertEquals(Kind.NESTED_REPETITION, warnings.get(0).kind);
+        assertTrue(warnings(separatedRepetition).isEmpty());
+    }
+
     // ---------------------------------------------------------------------------------------------
 }
@@ -0,0 +1,401 @@
+package lang;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Generates deterministic inputs of a requested size for the bundled grammars: JSON documents
+ * (for {@code norswap.lang.json.JSON}), Java compilation units (for {@code JavaGrammar} and {@code
+ * JavaGrammarTokens}) and arithmetic expressions (for the grammars in {@code ExpressionBenchmark}).
+ *
+ * <p>All generators take a seed, and the same parameters always yield the same output. Sizes are
+ * in characters, and are lower bounds: generation stops after the first top-level item (JSON
+ * value, Java method or expression operand) that reaches the size.
+ *
+ * <p>The {@code Writer} variants stream their output, and can be used to generate inputs that
+ * do not fit in memory. {@link #main} writes inputs to files, see its documentation.
+ */
+public final class SyntheticInputs
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private SyntheticInputs() {}
+
+    // =============================================================================================
+    // JSON
+    // =============================================================================================
+
+    /**
+     * Returns a JSON array of random values, whose objects and arrays are nested at most {@code
+     * maxDepth} deep and have at most {@code maxWidth} elements.
+     */
+    public static String json (long seed, int size, int maxDepth, int maxWidth)
+    {
+        StringWriter out = new StringWriter(size + 1024);
+        json(out, seed, size, maxDepth, maxWidth);
+        return out.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes the output of {@link #json(long, int, int, int)} to {@code out}.
+     */
+    public static void json (Writer out, long seed, long size, int maxDepth, int maxWidth)
+    {
+        Random random = new Random(seed);
+        StringBuilder b = new StringBuilder();
+        long written = 0;
+        b.append('[');
+        while (written < size) {
+            if (written > 1) b.append(",\n");
+            jsonValue(b, random, 0, maxDepth, maxWidth);
+            written += b.length();
+            flush(out, b);
+        }
+        b.append("]\n");
+        flush(out, b);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a JSON document made of {@code depth} nested arrays and objects (alternating),
+     * around a single number.
+     */
+    public static String jsonNested (int depth)
+    {
+        StringBuilder b = new StringBuilder(depth * 8);
+        for (int i = 0; i < depth; ++i)
+            b.append(i % 2 == 0 ? "[" : "{\"k\": ");
+        b.append("42");
+        for (int i = depth - 1; i >= 0; --i)
+            b.append(i % 2 == 0 ? "]" : "}");
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void jsonValue
+            (StringBuilder b, Random random, int depth, int maxDepth, int maxWidth)
+    {
+        switch (depth >= maxDepth ? random.nextInt(4) : random.nextInt(6)) {
+            case 0:
+                b.append("\"str\\n").append(random.nextInt(1000)).append('"');
+                break;
+            case 1:
+                if (random.nextBoolean()) b.append('-');
+                b.append(random.nextInt(1000)).append('.').append(random.nextInt(100));
+                if (random.nextInt(4) == 0) b.append("e+").append(random.nextInt(10));
+                break;
+            case 2:
+                b.append(random.nextBoolean());
+                break;
+            case 3:
+                b.append("null");
+                break;
+            case 4:
+                b.append('[');
+                for (int i = random.nextInt(maxWidth + 1); i > 0; --i) {
+                    jsonValue(b, random, depth + 1, maxDepth, maxWidth);
+                    if (i > 1) b.append(", ");
+                }
+                b.append(']');
+                break;
+            default:
+                b.append("{ ");
+                for (int i = random.nextInt(maxWidth + 1); i > 0; --i) {
+                    b.append("\"key").append(i).append("\": ");
+                    jsonValue(b, random, depth + 1, maxDepth, maxWidth);
+                    if (i > 1) b.append(", ");
+                }
+                b.append('}');
+        }
+    }
+
+    // =============================================================================================
+    // JAVA
+    // =============================================================================================
+
+    /**
+     * Returns a Java compilation unit declaring a class with {@code methods} methods, whose
+     * expressions are nested at most {@code exprDepth} deep.
+     */
+    public static String java (long seed, int methods, int exprDepth)
+    {
+        StringWriter out = new StringWriter();
+        java(out, seed, "Synthetic" + seed, methods, exprDepth);
+        return out.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes a Java compilation unit declaring a class named {@code className} with {@code
+     * methods} methods, whose expressions are nested at most {@code exprDepth} deep.
+     */
+    public static void java (Writer out, long seed, String className, int methods, int exprDepth)
+    {
+        Random random = new Random(seed);
+        StringBuilder b = new StringBuilder();
+        b.append("package synthetic;\n\n");
+        b.append("import java.util.List;\n");
+        b.append("import static java.lang.Math.max;\n\n");
+        b.append("public final class ").append(className).append(" extends Object\n{\n");
+        b.append("    private int count = 0;\n");
+        b.append("    protected static final String NAME = \"").append(className).append("\";\n");
+        flush(out, b);
+
+        for (int i = 0; i < methods; ++i) {
+            javaMethod(b, random, i, methods, exprDepth);
+            flush(out, b);
+        }
+
+        b.append("}\n");
+        flush(out, b);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns a Java compilation unit with {@link #java(long, int, int)}, adding methods until
+     * the output reaches {@code size}.
+     */
+    public static String javaOfSize (long seed, int size, int exprDepth)
+    {
+        // estimate the number of methods from a sample, then adjust
+        int sample = java(seed, 16, exprDepth).length();
+        int methods = Math.max(1, (int) ((long) size * 16 / sample));
+        String out = java(seed, methods, exprDepth);
+        while (out.length() < size)
+            out = java(seed, methods += Math.max(1, methods / 8), exprDepth);
+        return out;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Writes Java compilation units to {@code dir} (in a {@code synthetic} package directory),
+     * until their total size reaches {@code size}. Each unit has {@code methodsPerFile} methods,
+     * whose expressions are nested at most {@code exprDepth} deep.
+     */
+    public static void javaCorpus
+            (Path dir, long seed, long size, int methodsPerFile, int exprDepth) throws IOException
+    {
+        Path pkg = Files.createDirectories(dir.resolve("synthetic"));
+        long written = 0;
+        for (int i = 0; written < size; ++i) {
+            Path file = pkg.resolve("Synthetic" + i + ".java");
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                java(out, seed + i, "Synthetic" + i, methodsPerFile, exprDepth);
+            }
+            written += Files.size(file);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void javaMethod
+            (StringBuilder b, Random random, int index, int methods, int exprDepth)
+    {
+        b.append("\n    /** Method number ").append(index).append(". */\n");
+        b.append("    public int m").append(index).append(" (int a, int b)\n    {\n");
+        b.append("        int x = ");
+        javaExpression(b, random, exprDepth, methods);
+        b.append(";\n");
+
+        for (int i = random.nextInt(4); i >= 0; --i) {
+            switch (random.nextInt(5)) {
+                case 0:
+                    b.append("        if (");
+                    javaCondition(b, random, exprDepth, methods);
+                    b.append(") {\n            x += ");
+                    javaExpression(b, random, exprDepth, methods);
+                    b.append(";\n        } else {\n            x = -x;\n        }\n");
+                    break;
+                case 1:
+                    b.append("        for (int i = 0; i < ").append(random.nextInt(100))
+                     .append("; ++i) {\n            x ^= ");
+                    javaExpression(b, random, exprDepth, methods);
+                    b.append(";\n        }\n");
+                    break;
+                case 2:
+                    b.append("        while (");
+                    javaCondition(b, random, exprDepth, methods);
+                    b.append(")\n            x /= 2;\n");
+                    break;
+                case 3:
+                    b.append("        count += max(x, ");
+                    javaExpression(b, random, exprDepth, methods);
+                    b.append(");\n");
+                    break;
+                default:
+                    b.append("        String s").append(i).append(" = NAME + \"-\" + x;\n");
+            }
+        }
+
+        b.append("        return x;\n    }\n");
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void javaCondition (StringBuilder b, Random random, int depth, int methods)
+    {
+        javaExpression(b, random, depth, methods);
+        b.append(random.nextBoolean() ? " > " : " != ");
+        javaExpression(b, random, depth, methods);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String[] JAVA_OPERATORS =
+        { " + ", " - ", " * ", " / ", " % ", " & ", " | ", " << ", " >> " };
+
+    private static void javaExpression (StringBuilder b, Random random, int depth, int methods)
+    {
+        switch (depth <= 0 ? random.nextInt(2) : 2 + random.nextInt(4)) {
+            case 0:
+                b.append(random.nextBoolean() ? "a" : random.nextBoolean() ? "b" : "count");
+                break;
+            case 1:
+                b.append(random.nextInt(1000));
+                break;
+            case 2:
+            case 3:
+                javaExpression(b, random, depth - 1, methods);
+                b.append(JAVA_OPERATORS[random.nextInt(JAVA_OPERATORS.length)]);
+                javaExpression(b, random, depth - 1, methods);
+                break;
+            case 4:
+                b.append('(');
+                javaExpression(b, random, depth - 1, methods);
+                b.append(')');
+                break;
+            default:
+                b.append('m').append(random.nextInt(methods)).append('(');
+                javaExpression(b, random, depth - 1, methods);
+                b.append(", ");
+                javaExpression(b, random, depth - 1, methods);
+                b.append(')');
+        }
+    }
+
+    // =============================================================================================
+    // EXPRESSIONS
+    // =============================================================================================
+
+    private static final String[] OPERATORS =
+        { "*", "/", "+", "-", "<<", ">>", "<<<", "==", "!=", ">=", "<=", ">", "<" };
+
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Returns an expression with {@code operands} numeric operands, joined by random binary
+     * operators (those of the grammars in {@code ExpressionBenchmark}), and where some operands
+     * are parenthesized sub-expressions nested at most {@code maxDepth} deep. Sub-expressions
+     * count as a single operand.
+     */
+    public static String expression (long seed, int operands, int maxDepth)
+    {
+        Random random = new Random(seed);
+        StringBuilder b = new StringBuilder(operands * 4);
+        expression(b, random, operands, maxDepth);
+        return b.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void expression (StringBuilder b, Random random, int operands, int depth)
+    {
+        for (int i = 0; i < operands; ++i) {
+            if (i > 0) b.append(OPERATORS[random.nextInt(OPERATORS.length)]);
+            if (depth > 0 && random.nextInt(4) == 0) {
+                b.append('(');
+                expression(b, random, 1 + random.nextInt(4), depth - 1);
+                b.append(')');
+            } else {
+                b.append(random.nextInt(1000));
+            }
+        }
+    }
+
+    // =============================================================================================
+    // MAIN
+    // =============================================================================================
+
+    /**
+     * Usage: {@code SyntheticInputs <json|java|expression> <output> <size> [seed]}
+     *
+     * <p>Writes an input of the given size (in characters, with an optional {@code K}, {@code M}
+     * or {@code G} suffix) to the output path. For Java, the output path is a directory that
+     * receives a corpus of compilation units.
+     */
+    public static void main (String[] args) throws IOException
+    {
+        if (args.length < 3) {
+            System.err.println("usage: SyntheticInputs <json|java|expression> <output> <size> [seed]");
+            System.exit(1);
+        }
+
+        Path output = Paths.get(args[1]);
+        long size = parseSize(args[2]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+
+        switch (args[0]) {
+            case "json":
+                try (Writer out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+                    json(out, seed, size, 4, 5);
+                }
+                break;
+            case "java":
+                javaCorpus(output, seed, size, 50, 3);
+                break;
+            case "expression":
+                if (size > Integer.MAX_VALUE / 2)
+                    throw new IllegalArgumentException("expression too large: " + size);
+                try (BufferedWriter out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+                    // about 4 characters per operand
+                    out.write(expression(seed, (int) (size / 4), 3));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown input kind: " + args[0]);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static long parseSize (String size)
+    {
+        char unit = Character.toUpperCase(size.charAt(size.length() - 1));
+        long multiplier
+            = unit == 'K' ? 1L << 10
+            : unit == 'M' ? 1L << 20
+            : unit == 'G' ? 1L << 30
+            : 1;
+        String digits = multiplier == 1 ? size : size.substring(0, size.length() - 1);
+        return Long.parseLong(digits) * multiplier;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void flush (Writer out, StringBuilder b)
+    {
+        try {
+            out.append(b);
+            b.setLength(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}
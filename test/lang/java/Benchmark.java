@@ -60,11 +60,7 @@ public final class Benchmark
 
         long size = 0;
 
-        // Perform well-formed check + name assignment only once!
-        Autumn.parse(grammar, "class Test {}", ParseOptions.get());
-
         ParseOptions options = ParseOptions
-            .wellFormednessCheck(false)
             .recordCallStack(DO_RECORD)
             .metrics(() -> parseMetrics)
             .trace(DO_TRACE)
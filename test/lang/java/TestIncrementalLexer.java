@@ -0,0 +1,134 @@
+package lang.java;
+
+import norswap.autumn.IncrementalParser;
+import norswap.autumn.ParseOptions;
+import norswap.autumn.ParseResult;
+import norswap.autumn.memo.MemoPolicy;
+import norswap.autumn.positions.Edit;
+import norswap.lang.java.IncrementalLexer;
+import norswap.lang.java.JavaGrammarTokens;
+import norswap.lang.java.Lexer;
+import norswap.lang.java.Token;
+import org.testng.annotations.Test;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public final class TestIncrementalLexer
+{
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String source = String.join("\n",
+        "package foo.bar;",
+        "import java.util.*;",
+        "/** Javadoc */",
+        "public class Foo<T extends List<List<T>>> {",
+        "    // line comment",
+        "    int x = 0x1F + 017 + 0b101 + 1_000L; /* block */",
+        "    double d = 1.5e-3 + .5f + 1.;",
+        "    String s = \"str\\n\" + 'c' + '\\'';",
+        "    void f (int... xs) { x >>>= 2; x >>= 1; x = x >> 3 >>> 1; }",
+        "    Runnable r = () -> Foo::bar;",
+        "}",
+        "");
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static final String[] fragments = {
+        "", "a", "_", " ", "\n", ">", ">>", "=", "/*", "*/", "//", "1", "0x", ".", "..", "e+",
+        "\"", "'", "\\", "class", "{", "}", ";", "-", ":", "@"
+    };
+
+    // ---------------------------------------------------------------------------------------------
+
+    private static void assertSameTokens (Token[] actual, Token[] expected, String input)
+    {
+        assertEquals(actual.length, expected.length, input);
+        for (int i = 0; i < actual.length; ++i) {
+            Token a = actual[i], e = expected[i];
+            assertEquals(a.toString(), e.toString(), input);
+            assertEquals(a.comments.size(), e.comments.size(), input);
+            for (int j = 0; j < a.comments.size(); ++j) {
+                assertEquals(a.comments.get(j).start, e.comments.get(j).start, input);
+                assertEquals(a.comments.get(j).end,   e.comments.get(j).end,   input);
+                assertEquals(a.comments.get(j).string, e.comments.get(j).string, input);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void randomEdits()
+    {
+        Random random = new Random(0xA07);
+
+        for (int n = 0; n < 500; ++n)
+        {
+            String string = source;
+            Token[] tokens = new Lexer(string).lex();
+
+            for (int m = 0; m < 5; ++m)
+            {
+                int offset = random.nextInt(string.length() + 1);
+                int removed = Math.min(random.nextInt(6), string.length() - offset);
+                String inserted = fragments[random.nextInt(fragments.length)];
+                String edited = string.substring(0, offset) + inserted
+                    + string.substring(offset + removed);
+
+                Token[] expected = new Lexer(edited).lex();
+                IncrementalLexer.Result result = IncrementalLexer.relex(
+                    tokens, edited, new Edit(offset, removed, inserted.length()));
+
+                assertSameTokens(result.tokens, expected, edited);
+
+                Edit edit = result.token_edit;
+                assertEquals(result.tokens.length, tokens.length + edit.shift());
+                for (int i = 0; i < edit.offset; ++i)
+                    assertSame(result.tokens[i], tokens[i]);
+
+                string = edited;
+                tokens = result.tokens;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+
+    @Test public void incrementalParse()
+    {
+        JavaGrammarTokens grammar = new JavaGrammarTokens();
+        MemoPolicy policy = MemoPolicy.builder()
+            .table("class_body_decl")
+            .table("import_decl")
+            .get();
+
+        IncrementalParser parser = new IncrementalParser(grammar,
+            ParseOptions.memoPolicy(policy).get());
+
+        Token[] tokens = new Lexer(source).lex();
+        assertTrue(parser.parse(Arrays.asList(tokens)).fullMatch);
+
+        // rename a field
+        int offset = source.indexOf("int x") + 4;
+        String edited = source.substring(0, offset) + "y" + source.substring(offset + 1);
+        IncrementalLexer.Result result
+            = IncrementalLexer.relex(tokens, edited, new Edit(offset, 1, 1));
+        ParseResult parse = parser.edit(result.token_edit, Arrays.asList(result.tokens));
+        assertTrue(parse.fullMatch);
+
+        // break the class body
+        tokens = result.tokens;
+        offset = edited.indexOf("void");
+        String broken = edited.substring(0, offset) + "void void" + edited.substring(offset + 4);
+        result = IncrementalLexer.relex(tokens, broken, new Edit(offset, 4, 9));
+        parse = parser.edit(result.token_edit, Arrays.asList(result.tokens));
+        assertTrue(!parse.fullMatch);
+        assertEquals(parse.fullMatch,
+            parser.parse(Arrays.asList(new Lexer(broken).lex())).fullMatch);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+}